@@ -25,6 +25,24 @@ public interface CodeEngine extends CodeEngineBase
     CodeContext exec      (String script, CodeContext context);
     CodeContext exec      (Reader reader, CodeContext context);
     Thread      getThread ();
+    Task        getTask   ();
+
+    int PRIORITY_LOW = -10;
+    int PRIORITY_NORMAL = 0;
+    int PRIORITY_HIGH = 10;
+
+    // Handle for the last exec(), valid while queued, running or after done
+    interface Task
+    {
+        boolean isQueued    ();
+        boolean isRunning   ();
+        boolean isDone      ();
+        boolean cancel      ();
+        int     getPriority ();
+        void    setPriority (int priority);
+        String  getOwner    ();
+        Thread  getThread   ();
+    }
 }
 
 // EOF
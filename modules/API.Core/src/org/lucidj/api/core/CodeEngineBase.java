@@ -20,12 +20,16 @@ import java.io.Reader;
 
 public interface CodeEngineBase extends ManagedObject
 {
-    CodeEngineProvider getProvider ();
-    void               setContext  (CodeContext context);
-    CodeContext        getContext  ();
+    CodeEngineProvider getProvider  ();
+    void               setContext   (CodeContext context);
+    CodeContext        getContext   ();
 
-    Object             eval        (String script, CodeContext context);
-    Object             eval        (Reader reader, CodeContext context);
+    Object             eval         (String script, CodeContext context);
+    Object             eval         (Reader reader, CodeContext context);
+
+    // Parses ahead when the engine can, returning null otherwise or on errors
+    Object             prepare      (String script, CodeContext context);
+    Object             evalPrepared (Object prepared, CodeContext context);
 }
 
 // EOF
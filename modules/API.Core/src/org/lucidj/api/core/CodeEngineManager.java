@@ -41,6 +41,7 @@ public interface CodeEngineManager
 //    ScriptEngine getEngineByExtension (String extension);
 //    ScriptEngine getEngineByMimeType (String mimeType);
     CodeEngine getEngineByName (String shortName);
+    void releaseEngine (CodeEngine engine);
     Set<String> getEngines ();
 
     CodeContext newContext (Bundle parentBundle);
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.api.core;
+
+import java.util.List;
+
+public interface CodeEngineMonitor
+{
+    // Queued and running executions first, then the most recent finished ones
+    List<Execution> getExecutions ();
+
+    // Times in nanoseconds, sizes in bytes and chars, -1 when not measurable
+    interface Execution
+    {
+        long            getId             ();
+        String          getOwner          ();
+        String          getEngineName     ();
+        String          getSummary        ();
+        CodeEngine.Task getTask           ();
+        long            getSubmitTime     ();     // System.currentTimeMillis ()
+        long            getQueueWaitTime  ();
+        long            getWallTime       ();
+        long            getCpuTime        ();
+        long            getAllocatedBytes ();
+        long            getStdoutChars    ();
+        long            getStderrChars    ();
+    }
+}
+
+// EOF
@@ -16,7 +16,11 @@
 
 package org.lucidj.api.core;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public interface DisplayManager
 {
@@ -30,7 +34,13 @@ public interface DisplayManager
     void release ();
     int available ();
     Object read () throws InterruptedException;
+    Object read (long timeout, TimeUnit unit) throws InterruptedException;
     Object readAll () throws InterruptedException;
+    int drainTo (Collection<Object> target, int max_objects);
+    void setCapacity (int capacity);
+    int getCapacity ();
+    void close ();
+    boolean isClosed ();
     Object getObject (int index);
     Object getObject (String tag);
     Object[] getObjects ();
@@ -58,6 +68,29 @@ public interface DisplayManager
         // The component can be cleared
         void clear ();
     }
+
+    // Threads blocked reading or writing a pipe, whose run slot the code executor may lend out
+    final class PipeWaits
+    {
+        private final static Set<Thread> waiting = Collections.newSetFromMap (new ConcurrentHashMap<Thread, Boolean> ());
+
+        private PipeWaits () {}
+
+        public static void enter ()
+        {
+            waiting.add (Thread.currentThread ());
+        }
+
+        public static void leave ()
+        {
+            waiting.remove (Thread.currentThread ());
+        }
+
+        public static boolean isWaiting (Thread thread)
+        {
+            return (thread != null && waiting.contains (thread));
+        }
+    }
 }
 
 // EOF
@@ -30,6 +30,7 @@ public interface EventHelper
     interface Factory
     {
         EventHelper newInstance ();
+        EventHelper newAsyncInstance ();
     }
 }
 
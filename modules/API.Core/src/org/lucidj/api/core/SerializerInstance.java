@@ -18,21 +18,23 @@ package org.lucidj.api.core;
 
 public interface SerializerInstance
 {
-    void                setValue         (String representation);
-    String              getValue         ();
-    SerializerInstance  addObject        (Object object);
-    Object[]            getObjects       ();
-    SerializerInstance  setProperty      (String key, Object object);
-    SerializerInstance  setAttribute     (String property, String attribute, Object object);
-    Object              getProperty      (String key);
-    Object              getAttribute     (String property, String attribute);
-    Object[]            getArrayProperty (String key);
-    String[]            getPropertyKeys  ();
-    void                setPropertyKey   (String key);
-    SerializerInstance  setObjectClass   (Class clazz);
-    SerializerInstance  setObjectClass   (String clazz);
-    boolean             serializeAs      (Object object, String clazz);
-    Object              deserializeAs    (String clazz);
+    void                 setValue           (String representation);
+    String               getValue           ();
+    SerializerInstance   addObject          (Object object);
+    Object[]             getObjects         ();
+    SerializerInstance[] getObjectInstances ();
+    Object               resolveObject      ();
+    SerializerInstance   setProperty        (String key, Object object);
+    SerializerInstance   setAttribute       (String property, String attribute, Object object);
+    Object               getProperty        (String key);
+    Object               getAttribute       (String property, String attribute);
+    Object[]             getArrayProperty   (String key);
+    String[]             getPropertyKeys    ();
+    void                 setPropertyKey     (String key);
+    SerializerInstance   setObjectClass     (Class clazz);
+    SerializerInstance   setObjectClass     (String clazz);
+    boolean              serializeAs        (Object object, String clazz);
+    Object               deserializeAs      (String clazz);
 }
 
 // EOF
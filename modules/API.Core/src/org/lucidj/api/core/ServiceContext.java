@@ -41,6 +41,9 @@ public interface ServiceContext
     <T> T  newServiceObject (Class<T> objectClass);
     <T> T  wrapObject       (Class<T> objectClass, Object serviceObject);
 
+    // Live service objects per class name, for diagnostics
+    Map<String, Integer> getInstanceCounts ();
+
     <T> T    getService (BundleContext context, Class<T> type);
     <T> void putService (BundleContext context, Class<T> type, T service);
 
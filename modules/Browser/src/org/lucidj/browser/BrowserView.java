@@ -78,6 +78,9 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
     private static final String VM_ZOOM_CODE = "view-mode-zoom-code";
     private static final String VM_ZOOM_EXEC = "view-mode-zoom-exec";
 
+    // Cells are deserialized when first fetched, so we only fetch a page at a time
+    private static final int CELL_PAGE = 25;
+
     private String caption = "Browse";
     private CssLayout current_toolbar = null;
     private Accordion acSidebar = null;
@@ -101,6 +104,8 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
 
     private VerticalLayout content;
     private Cell insert_here_cell;
+    private Button show_more_cells;
+    private int visible_cells = CELL_PAGE;
     private SerializerEngine serializer;
 
     public BrowserView (ServiceContext serviceContext, BundleContext bundleContext)
@@ -226,6 +231,11 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
         }
     }
 
+    private int visible_cell_count ()
+    {
+        return (Math.min (visible_cells, object_list.size ()));
+    }
+
     private void update_cell_focus (Object focus_object, boolean scroll_into_view)
     {
         // Set focus to null selects the first object
@@ -238,8 +248,18 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
             current_object = focus_object;
         }
 
-        for (Object object_ref: object_list)
+        int focus_index = (current_object == null)? -1: object_list.indexOf (current_object);
+
+        if (focus_index >= visible_cells)
         {
+            // Focus went past the last page shown, bring it in
+            visible_cells = (focus_index / CELL_PAGE + 1) * CELL_PAGE;
+            synchronize_cell_view ();
+        }
+
+        for (int cell_index = 0; cell_index < visible_cell_count (); cell_index++)
+        {
+            Object object_ref = object_list.get (cell_index);
             Cell cell = active_cells.get (object_ref);
 
             if (object_ref == current_object)
@@ -266,10 +286,11 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
         // Create, insert and move active cells on layout
         //------------------------------------------------
         int cell_index = 0;
+        int cell_count = visible_cell_count ();
 
-        log.info ("synchronize_cell_view: will create/insert/move {} cells", object_list.size ());
+        log.info ("synchronize_cell_view: will create/insert/move {} of {} cells", cell_count, object_list.size ());
 
-        for (cell_index = 0; cell_index < object_list.size (); cell_index++)
+        for (cell_index = 0; cell_index < cell_count; cell_index++)
         {
             Object source_object = object_list.get (cell_index);
             Cell cell = active_cells.get (source_object);
@@ -299,10 +320,10 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
         //--------------------------------
         // Remove extra cells from layout
         //--------------------------------
-        while (content.getComponentCount () > object_list.size ())
+        while (content.getComponentCount () > cell_count)
         {
-            log.info ("synchronize_cell_view: DELETE content.count={} object_list.size={}", content.getComponentCount (), object_list.size ());
-            content.removeComponent (content.getComponent (object_list.size ()));
+            log.info ("synchronize_cell_view: DELETE content.count={} cell_count={}", content.getComponentCount (), cell_count);
+            content.removeComponent (content.getComponent (cell_count));
         }
 
         //-----------------------------------
@@ -334,11 +355,26 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
             content.removeComponent (insert_here_cell.getDecoratedCell ());
         }
 
+        //-------------------------------------------------
+        // Cells past the page stay serialized until asked
+        //-------------------------------------------------
+        if (object_list.size () > cell_count)
+        {
+            show_more_cells.setCaption ("Show more cells (" + (object_list.size () - cell_count) + " left)");
+            content.addComponent (show_more_cells);
+        }
+
         log.info ("synchronize_cell_view: COMPLETE");
     }
 
     private Object insert_new_cell (String canonical_name, int index)
     {
+        if (index != -1 && index < visible_cells)
+        {
+            // Don't push the last cell shown out of the page
+            visible_cells++;
+        }
+
         Object new_object = insert_new_object (canonical_name, index);
         synchronize_cell_view ();
         return (new_object);
@@ -680,6 +716,18 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
 
         insert_here_cell = new Cell (null);
 
+        show_more_cells = new Button ();
+        show_more_cells.addStyleName ("link");
+        show_more_cells.addClickListener (new Button.ClickListener ()
+        {
+            @Override
+            public void buttonClick (Button.ClickEvent clickEvent)
+            {
+                visible_cells += CELL_PAGE;
+                synchronize_cell_view ();
+            }
+        });
+
         // TODO: THIS BLOCK IS ACTUALLY A FILE HEADER OBJECT
         //+++
         HorizontalLayout header = new HorizontalLayout ();
@@ -801,7 +849,7 @@ public class BrowserView extends VerticalLayout implements View, ApplicationInte
 
         // We have a valid embedding!
         object_list = Aggregate.adapt (List.class, root_object);
-        log.info ("object_list: {}", object_list);
+        log.info ("object_list: {} objects", object_list.size ());
         return (true);
     }
 
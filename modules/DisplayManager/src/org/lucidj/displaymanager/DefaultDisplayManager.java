@@ -20,55 +20,216 @@ import org.lucidj.api.core.DisplayManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/* The displayed objects double as a pipe between cells.
+ *
+ * Readers consume objects from the front of the list, blocking on a
+ * condition until something is shown or the pipe is closed (EOF). With
+ * a capacity set, showObject() waits for readers to make room, so a fast
+ * producer is paced by its consumer instead of piling up objects. All
+ * list access happens under pipe_lock. Listener events are queued under
+ * the lock, in list order, and delivered once it is released by one
+ * thread at a time, so listeners still see the order readers see, but
+ * one taking another lock (eg. the Vaadin session) can't deadlock with
+ * a reader or writer holding pipe_lock.
+ */
 public class DefaultDisplayManager implements DisplayManager
 {
     private final static Logger log = LoggerFactory.getLogger (DefaultDisplayManager.class);
 
-    private List<DisplayManager.ObjectEventListener> objectevent_listeners = new ArrayList<> ();
+    private final static DisplayManager.ObjectEventListener[] NO_LISTENERS = new DisplayManager.ObjectEventListener [0];
+
+    private List<DisplayManager.ObjectEventListener> objectevent_listeners = new CopyOnWriteArrayList<> ();
+    private final ArrayDeque<ObjectEvent> pending_events = new ArrayDeque<> ();    // Guarded by pipe_lock
+    private final AtomicBoolean delivering = new AtomicBoolean ();
 
-    private List<Object> object_list = Collections.synchronizedList (new ArrayList<> ()); // Ugly :P
+    private final ReentrantLock pipe_lock = new ReentrantLock ();
+    private final Condition not_empty = pipe_lock.newCondition ();
+    private final Condition not_full = pipe_lock.newCondition ();
+    private List<Object> object_list = new ObjectQueue ();
+    private int capacity = 0;           // Unbounded
+    private boolean closed = false;
     private Map<String, Object> tagged_objects = new HashMap<> ();
     private Set<Object> dirty_objects = new HashSet<> ();
 
+    private static class ObjectEvent
+    {
+        final DisplayManager.ObjectEventListener[] listeners;
+        final boolean adding;
+        final Object obj;
+        final int index;
+
+        ObjectEvent (DisplayManager.ObjectEventListener[] listeners, boolean adding, Object obj, int index)
+        {
+            this.listeners = listeners;
+            this.adding = adding;
+            this.obj = obj;
+            this.index = index;
+        }
+
+        void deliver ()
+        {
+            for (DisplayManager.ObjectEventListener listener: listeners)
+            {
+                // TODO: MAKE ALL THESE Throables BE VISIBLE WHEN SHOWING OBJECTS
+                try
+                {
+                    if (adding)
+                    {
+                        listener.addingObject (obj, index);
+                    }
+                    else
+                    {
+                        listener.removingObject (obj, index);
+                    }
+                }
+                catch (Throwable ignore) {};
+            }
+        }
+    }
+
     private String get_object_hash (Object obj)
     {
         return (obj.getClass().getName() + "#" + Integer.toHexString (obj.hashCode()));
     }
 
+    // Must be called holding pipe_lock
+    private void queue_event (boolean adding, Object obj, int index)
+    {
+        // Listeners as of now: one added later gets this object from its own replay
+        queue_event (objectevent_listeners.toArray (NO_LISTENERS), adding, obj, index);
+    }
+
+    // Must be called holding pipe_lock
+    private void queue_event (DisplayManager.ObjectEventListener[] listeners, boolean adding, Object obj, int index)
+    {
+        if (listeners.length > 0)
+        {
+            pending_events.add (new ObjectEvent (listeners, adding, obj, index));
+        }
+    }
+
+    private ObjectEvent next_event (boolean remove)
+    {
+        pipe_lock.lock ();
+        try
+        {
+            return (remove? pending_events.poll (): pending_events.peek ());
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+    }
+
+    private void deliver_events ()
+    {
+        if (pipe_lock.isHeldByCurrentThread ())
+        {
+            // The outermost call delivers, never under pipe_lock
+            return;
+        }
+
+        // Whoever finds the way clear delivers everything queued, in order. The others
+        // leave their events to it instead of waiting, so nobody ever blocks in here
+        while (next_event (false) != null && delivering.compareAndSet (false, true))
+        {
+            try
+            {
+                ObjectEvent event;
+
+                while ((event = next_event (true)) != null)
+                {
+                    event.deliver ();
+                }
+            }
+            finally
+            {
+                delivering.set (false);
+            }
+        }
+    }
+
     public void showObject (Object obj)
     {
         log.info ("### DisplayManager {} showObject ({})", this, get_object_hash (obj));
 
         // TODO: SUPPORT SHOW NULL OBJECTS
 
-        // Add only NEW objects
-        if (object_list.indexOf (obj) == -1)
+        pipe_lock.lock ();
+        try
+        {
+            // Add only NEW objects
+            if (object_list.indexOf (obj) == -1)
+            {
+                showObject (-1, obj);
+            }
+        }
+        finally
         {
-            showObject (object_list.size (), obj);
+            pipe_lock.unlock ();
         }
+        deliver_events ();
     }
 
     public void showObject (int index, Object obj)
     {
-        for (DisplayManager.ObjectEventListener listener: objectevent_listeners)
+        pipe_lock.lock ();
+        try
         {
-            // TODO: MAKE ALL THESE Throables BE VISIBLE WHEN SHOWING OBJECTS
-            try
+            wait_for_room ();
+
+            // Negative index means append, the list may have changed while we waited
+            if (index < 0 || index > object_list.size ())
             {
-                listener.addingObject (obj, index);
+                index = object_list.size ();
             }
-            catch (Throwable ignore) {};
+
+            queue_event (true, obj, index);
+            object_list.add (index, obj);
+            not_empty.signalAll ();
         }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+        deliver_events ();
+    }
 
-        object_list.add (index, obj);
+    // Must be called holding pipe_lock
+    private void wait_for_room ()
+    {
+        while (capacity > 0 && object_list.size () >= capacity && !closed)
+        {
+            DisplayManager.PipeWaits.enter ();
+            try
+            {
+                not_full.await ();
+            }
+            catch (InterruptedException e)
+            {
+                // Don't lose the object, but let the interrupted run stop on its next blocking call
+                Thread.currentThread ().interrupt ();
+                break;
+            }
+            finally
+            {
+                DisplayManager.PipeWaits.leave ();
+            }
+        }
     }
 
     @Override
@@ -89,42 +250,65 @@ public class DefaultDisplayManager implements DisplayManager
 
     public void removeObject (Object obj)
     {
-        for (DisplayManager.ObjectEventListener listener: objectevent_listeners)
+        pipe_lock.lock ();
+        try
         {
-            try
+            int index = object_list.indexOf (obj);
+
+            queue_event (false, obj, index);
+
+            if (index != -1)
             {
-                listener.removingObject (obj, object_list.indexOf (obj));
+                object_list.remove (index);
+                not_full.signalAll ();
             }
-            catch (Throwable ignore) {};
         }
-        object_list.remove (obj);
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+        deliver_events ();
     }
 
     public void clearObjects ()
     {
-        for (int i = 0; i < object_list.size (); i++)
+        List<Clearable> clearables = new ArrayList<> ();
+
+        pipe_lock.lock ();
+        try
         {
-            if (object_list.get (i) != null)
+            for (int i = 0; i < object_list.size (); i++)
             {
-                for (DisplayManager.ObjectEventListener listener: objectevent_listeners)
+                if (object_list.get (i) != null)
                 {
-                    try
-                    {
-                        listener.removingObject (object_list.get (i), i);
-                    }
-                    catch (Throwable ignore) {};
+                    queue_event (false, object_list.get (i), i);
                 }
             }
-        }
-        for (Object tagged: tagged_objects.values ())
-        {
-            if (tagged instanceof Clearable)
+            for (Object tagged: tagged_objects.values ())
             {
-                ((Clearable)tagged).clear ();
+                if (tagged instanceof Clearable)
+                {
+                    clearables.add ((Clearable)tagged);
+                }
             }
+            object_list.clear ();
+            tagged_objects.clear ();
+
+            // A new run starts a new stream
+            closed = false;
+            not_full.signalAll ();
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+        deliver_events ();
+
+        // Component code too, so also out of the lock
+        for (Clearable clearable: clearables)
+        {
+            clearable.clear ();
         }
-        object_list.clear ();
-        tagged_objects.clear ();
     }
 
     public void restrain ()
@@ -153,53 +337,209 @@ public class DefaultDisplayManager implements DisplayManager
 
     public int available ()
     {
-        return (object_list.size ());
+        pipe_lock.lock ();
+        try
+        {
+            return (object_list.size ());
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+    }
+
+    // Must be called holding pipe_lock
+    private Object remove_first ()
+    {
+        Object obj = object_list.get (0);
+
+        queue_event (false, obj, 0);
+        object_list.remove (0);
+        not_full.signalAll ();
+        return (obj);
     }
 
-    public Object read ()
+    // Returns null on EOF or timeout
+    private Object take (boolean timed, long timeout_nanos, boolean skip_throwables)
         throws InterruptedException
     {
-        for (;;)
+        try
         {
-            try
+            return (take_locked (timed, timeout_nanos, skip_throwables));
+        }
+        finally
+        {
+            deliver_events ();
+        }
+    }
+
+    private Object take_locked (boolean timed, long timeout_nanos, boolean skip_throwables)
+        throws InterruptedException
+    {
+        pipe_lock.lockInterruptibly ();
+        try
+        {
+            for (;;)
             {
-                Object obj = object_list.remove (0);
-                removeObject (obj);
+                while (object_list.isEmpty ())
+                {
+                    if (closed)
+                    {
+                        return (null);
+                    }
+
+                    if (timed && timeout_nanos <= 0)
+                    {
+                        return (null);
+                    }
+
+                    // Tell the executor we wait on another run, not on the CPU or I/O
+                    DisplayManager.PipeWaits.enter ();
+                    try
+                    {
+                        if (!timed)
+                        {
+                            not_empty.await ();
+                        }
+                        else
+                        {
+                            timeout_nanos = not_empty.awaitNanos (timeout_nanos);
+                        }
+                    }
+                    finally
+                    {
+                        DisplayManager.PipeWaits.leave ();
+                    }
+                }
+
+                Object obj = remove_first ();
 
                 // Do NOT pipe throwables
-                if (!(obj instanceof Throwable))
+                if (!skip_throwables || !(obj instanceof Throwable))
                 {
                     return (obj);
                 }
             }
-            catch (IndexOutOfBoundsException ignore) {};
-
-            Thread.sleep (10);
         }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+    }
+
+    public Object read ()
+        throws InterruptedException
+    {
+        return (take (false, 0, true));
+    }
+
+    public Object read (long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return (take (true, unit.toNanos (timeout), true));
     }
 
     public Object readAll ()
-            throws InterruptedException
+        throws InterruptedException
+    {
+        // Pipe everything, including throwables
+        return (take (false, 0, false));
+    }
+
+    public int drainTo (Collection<Object> target, int max_objects)
     {
-        for (;;)
+        pipe_lock.lock ();
+        try
         {
-            try
+            int count = 0;
+
+            while (count < max_objects && !object_list.isEmpty ())
             {
-                Object obj = object_list.remove (0);
-                removeObject (obj);
+                Object obj = remove_first ();
 
-                // Pipe everything, including throwables
-                return (obj);
+                // Same as read(), throwables are consumed but not piped
+                if (!(obj instanceof Throwable))
+                {
+                    target.add (obj);
+                    count++;
+                }
             }
-            catch (IndexOutOfBoundsException ignore) {};
+            return (count);
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+            deliver_events ();
+        }
+    }
+
+    public void setCapacity (int capacity)
+    {
+        pipe_lock.lock ();
+        try
+        {
+            this.capacity = Math.max (0, capacity);
+            not_full.signalAll ();
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+    }
 
-            Thread.sleep (10);
+    public int getCapacity ()
+    {
+        pipe_lock.lock ();
+        try
+        {
+            return (capacity);
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+    }
+
+    public void close ()
+    {
+        pipe_lock.lock ();
+        try
+        {
+            // Readers get EOF once the remaining objects are consumed
+            closed = true;
+            not_empty.signalAll ();
+            not_full.signalAll ();
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
+    }
+
+    public boolean isClosed ()
+    {
+        pipe_lock.lock ();
+        try
+        {
+            return (closed);
+        }
+        finally
+        {
+            pipe_lock.unlock ();
         }
     }
 
     public Object getObject (int index)
     {
-        return (object_list.get (index));
+        pipe_lock.lock ();
+        try
+        {
+            return (object_list.get (index));
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
     }
 
     public Object getObject (String tag)
@@ -209,7 +549,15 @@ public class DefaultDisplayManager implements DisplayManager
 
     public Object[] getObjects ()
     {
-        return (object_list.toArray ());
+        pipe_lock.lock ();
+        try
+        {
+            return (object_list.toArray ());
+        }
+        finally
+        {
+            pipe_lock.unlock ();
+        }
     }
 
     public void markAsDirty (Object obj)
@@ -245,16 +593,27 @@ public class DefaultDisplayManager implements DisplayManager
     @Override
     public void setObjectEventListener (DisplayManager.ObjectEventListener listener)
     {
-        objectevent_listeners.add (listener);
+        DisplayManager.ObjectEventListener[] only_this = { listener };
 
-        log.info ("setObjectEventListener: {} object_list.size={}", listener, object_list.size ());
+        pipe_lock.lock ();
+        try
+        {
+            objectevent_listeners.add (listener);
+
+            log.info ("setObjectEventListener: {} object_list.size={}", listener, object_list.size ());
 
-        // Add all existing objects
-        for (int i = 0; i < object_list.size (); i++)
+            // Add all existing objects, queued behind whatever the others have yet to see
+            for (int i = 0; i < object_list.size (); i++)
+            {
+                log.info ("setObjectEventListener: adding {} {}", i, object_list.get (i));
+                queue_event (only_this, true, object_list.get (i), i);
+            }
+        }
+        finally
         {
-            log.info ("setObjectEventListener: adding {} {}", i, object_list.get (i));
-            listener.addingObject (object_list.get (i), i);
+            pipe_lock.unlock ();
         }
+        deliver_events ();
     }
 }
 
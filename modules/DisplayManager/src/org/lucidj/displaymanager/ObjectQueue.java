@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.displaymanager;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/* An indexed object list that is cheap to consume from the front.
+ *
+ * Objects read off the head are only skipped over, and the backing list
+ * is compacted once the skipped part is at least half of it, so piping
+ * a long stream of objects costs amortized O(1) per object instead of
+ * shifting the whole list on every read.
+ */
+class ObjectQueue extends AbstractList<Object> implements RandomAccess
+{
+    private final static int MIN_COMPACT = 32;
+
+    private ArrayList<Object> items = new ArrayList<> ();
+    private int head = 0;
+
+    @Override
+    public Object get (int index)
+    {
+        check_index (index);
+        return (items.get (head + index));
+    }
+
+    @Override
+    public int size ()
+    {
+        return (items.size () - head);
+    }
+
+    @Override
+    public Object set (int index, Object element)
+    {
+        check_index (index);
+        return (items.set (head + index, element));
+    }
+
+    @Override
+    public void add (int index, Object element)
+    {
+        if (index < 0 || index > size ())
+        {
+            throw (new IndexOutOfBoundsException ("Index: " + index + ", Size: " + size ()));
+        }
+        items.add (head + index, element);
+        modCount++;
+    }
+
+    @Override
+    public Object remove (int index)
+    {
+        if (index != 0)
+        {
+            check_index (index);
+            modCount++;
+            return (items.remove (head + index));
+        }
+
+        Object first = get (0);
+        removeRange (0, 1);
+        return (first);
+    }
+
+    @Override
+    protected void removeRange (int from, int to)
+    {
+        if (from != 0)
+        {
+            super.removeRange (from, to);
+            return;
+        }
+
+        // Skip the head instead of shifting everything after it
+        for (int i = head; i < head + to; i++)
+        {
+            items.set (i, null);
+        }
+        head += to;
+        modCount++;
+
+        if (head == items.size ())
+        {
+            items.clear ();
+            head = 0;
+        }
+        else if (head >= MIN_COMPACT && head * 2 >= items.size ())
+        {
+            items.subList (0, head).clear ();
+            head = 0;
+        }
+    }
+
+    @Override
+    public void clear ()
+    {
+        items.clear ();
+        head = 0;
+        modCount++;
+    }
+
+    private void check_index (int index)
+    {
+        if (index < 0 || index >= size ())
+        {
+            throw (new IndexOutOfBoundsException ("Index: " + index + ", Size: " + size ()));
+        }
+    }
+}
+
+// EOF
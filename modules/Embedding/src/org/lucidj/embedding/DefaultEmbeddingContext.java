@@ -27,33 +27,52 @@ import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.Bundle;
 
+/* Embeddings of all the files in a bundle.
+ *
+ * Each file runs its own pipeline on the manager's shared fork-join pool.
+ * A file whose handlers can't complete yet, usually for lack of a
+ * serializer, is parked instead of retried on a timer. New handlers and
+ * newly registered serializers wake the parked files, so they resolve as
+ * soon as their dependencies appear. The Future from updateEmbeddings()
+ * waits for that, for at most RESOLUTION_TIMEOUT_MS.
+ */
 public class DefaultEmbeddingContext implements EmbeddingContext, ManagedObject, EmbeddingManager.EmbeddingListener
 {
     private final static Logger log = LoggerFactory.getLogger (DefaultEmbeddingContext.class);
 
-    private List<EmbeddingImpl> embedded_files = new ArrayList<> ();
-    private ExecutorService background = Executors.newSingleThreadExecutor ();
+    private final static long RESOLUTION_TIMEOUT_MS = 10000;
+
+    private final List<EmbeddingImpl> embedded_files = new CopyOnWriteArrayList<> ();
+    private final Set<EmbeddingImpl> parked_files = ConcurrentHashMap.newKeySet ();
+    private final AtomicInteger in_flight = new AtomicInteger ();
+    private final AtomicLong dependency_generation = new AtomicLong ();
+    private final Object resolution_lock = new Object ();
+    private volatile boolean closed = false;
 
-    private EmbeddingManager embeddingManager;
+    private DefaultEmbeddingManager embeddingManager;
     private Bundle bundle;
 
-    public DefaultEmbeddingContext (EmbeddingManager embeddingManager)
+    public DefaultEmbeddingContext (DefaultEmbeddingManager embeddingManager)
     {
         this.embeddingManager = embeddingManager;
     }
 
-    private boolean contains_object_name (LinkedList<EmbeddingImpl> list, String name)
+    private boolean contains_object_name (List<EmbeddingImpl> list, String name)
     {
         for (EmbeddingImpl embedding: list)
         {
@@ -65,7 +84,7 @@ public class DefaultEmbeddingContext implements EmbeddingContext, ManagedObject,
         return (false);
     }
 
-    private boolean apply_handlers (String name, Object object, LinkedList<EmbeddingImpl> embedding_queue)
+    private boolean apply_handlers (String name, Object object, List<EmbeddingImpl> embedding_queue)
     {
         boolean missing_dependencies = false;
         EmbeddingHandler[] handler_list = embeddingManager.getHandlers (name, object);
@@ -95,7 +114,7 @@ public class DefaultEmbeddingContext implements EmbeddingContext, ManagedObject,
 
     private boolean update_file_embeddings (EmbeddingImpl file_embedding)
     {
-        LinkedList<EmbeddingImpl> embedding_queue = file_embedding.getChildren ();
+        List<EmbeddingImpl> embedding_queue = file_embedding.getChildren ();
         int current_embedding_pos = 0;
         boolean all_updated = true;
 
@@ -112,55 +131,100 @@ public class DefaultEmbeddingContext implements EmbeddingContext, ManagedObject,
         return (all_updated);
     }
 
-    private boolean update_all_file_embeddings ()
+    private void resolve_file (EmbeddingImpl file_embedding)
     {
-        boolean all_updated;
-        int delay = 1000;
-        int retries = 10;
+        long generation = dependency_generation.get ();
+        boolean resolved = false;
 
-        do
+        try
         {
-            all_updated = true;
-
-            // Scan all available files/embeddings for new embeddings
-            for (EmbeddingImpl embedded_file: embedded_files)
+            // Two wake ups may race on the same file, its handlers are applied one pass at a time
+            synchronized (file_embedding)
+            {
+                resolved = update_file_embeddings (file_embedding);
+            }
+        }
+        catch (Throwable t)
+        {
+            log.error ("Exception updating embeddings for {}", file_embedding.getName (), t);
+        }
+        finally
+        {
+            if (resolved)
             {
-                if (!update_file_embeddings (embedded_file))
+                parked_files.remove (file_embedding);
+            }
+            else
+            {
+                log.warn ("Missing dependencies found for: {}", file_embedding.getName ());
+                parked_files.add (file_embedding);
+
+                if (!closed && generation != dependency_generation.get ())
                 {
-                    log.warn ("Missing dependencies found for: {}", embedded_file.getName ());
-                    all_updated = false;
+                    // Something showed up while we were busy, the wake up may have missed us
+                    submit_file (file_embedding);
                 }
             }
 
-            if (all_updated)
-            {
-                break;
-            }
+            in_flight.decrementAndGet ();
+            signal_waiters ();
+        }
+    }
+
+    private Future submit_file (final EmbeddingImpl file_embedding)
+    {
+        in_flight.incrementAndGet ();
 
-            try
+        try
+        {
+            return (embeddingManager.getPool ().submit (new Runnable ()
             {
-                log.warn ("Missing dependencies found on {}, will retry update embeddings in {}ms", bundle, delay);
-                Thread.sleep (delay);
-            }
-            catch (Exception ignore) {};
+                @Override
+                public void run ()
+                {
+                    resolve_file (file_embedding);
+                }
+            }));
+        }
+        catch (RejectedExecutionException e)
+        {
+            // The manager is going away
+            log.warn ("Embedding pool unavailable, {} stays unresolved", file_embedding.getName ());
+            in_flight.decrementAndGet ();
+            signal_waiters ();
+            return (null);
         }
-        while (--retries > 0);
+    }
 
-        if (!all_updated)
+    private void signal_waiters ()
+    {
+        synchronized (resolution_lock)
         {
-            log.error ("Missing dependencies on {}, will NOT retry update", bundle);
+            resolution_lock.notifyAll ();
+        }
+    }
+
+    void dependencyAvailable ()
+    {
+        dependency_generation.incrementAndGet ();
+
+        for (EmbeddingImpl parked_file: parked_files)
+        {
+            submit_file (parked_file);
         }
-        return (all_updated);
     }
 
     @Override // EmbeddingContext
     public Future updateEmbeddings ()
     {
-        // The Future might be used to wait
-        return (background.submit ((Runnable)() ->
+        // Scan all available files/embeddings for new embeddings
+        for (EmbeddingImpl embedded_file: embedded_files)
         {
-            update_all_file_embeddings ();
-        }));
+            submit_file (embedded_file);
+        }
+
+        // The Future might be used to wait
+        return (new Resolution ());
     }
 
     // TODO: WE NEED SOME CONSTRUCT TO WAIT FOR A SPECIFIC SERVICE/HANDLER
@@ -186,20 +250,20 @@ public class DefaultEmbeddingContext implements EmbeddingContext, ManagedObject,
     public void close ()
     {
         embeddingManager.removeListener (this);
+        closed = true;
         embedded_files.clear ();
+        parked_files.clear ();
+        signal_waiters ();
         bundle = null;
     }
 
     @Override // EmbeddingContext
     public Future addFile (URL file)
     {
-        return (background.submit ((Runnable)() ->
-        {
-            // Create the new embedding and update its handlers
-            EmbeddingImpl file_embedding = new EmbeddingImpl (file.toString (), file);
-            embedded_files.add (file_embedding);
-            update_file_embeddings (file_embedding);
-        }));
+        // Create the new embedding and update its handlers
+        EmbeddingImpl file_embedding = new EmbeddingImpl (file.toString (), file);
+        embedded_files.add (file_embedding);
+        return (submit_file (file_embedding));
     }
 
     @Override // EmbeddingContext
@@ -299,6 +363,7 @@ public class DefaultEmbeddingContext implements EmbeddingContext, ManagedObject,
     {
         // Apply and refresh all embeddings, since we may have dependencies between embeddings
         log.info ("*** Updating embeddings from {}", bundle);
+        dependency_generation.incrementAndGet ();
         updateEmbeddings ();
     }
 
@@ -318,7 +383,87 @@ public class DefaultEmbeddingContext implements EmbeddingContext, ManagedObject,
     public void invalidate (ManagedObjectInstance instance)
     {
         // TODO: GRACEFUL OR NOT...?
-        background.shutdownNow ();
+        closed = true;
+        signal_waiters ();
+    }
+
+    // Done when no pipeline is running and nothing is parked, or when we gave up waiting
+    class Resolution implements Future<Boolean>
+    {
+        private final long deadline = System.currentTimeMillis () + RESOLUTION_TIMEOUT_MS;
+        private boolean reported = false;
+
+        private boolean is_resolved ()
+        {
+            return (closed || (in_flight.get () == 0 && parked_files.isEmpty ()));
+        }
+
+        private boolean await (long wait_until)
+            throws InterruptedException
+        {
+            synchronized (resolution_lock)
+            {
+                long remaining;
+
+                while (!is_resolved () && (remaining = wait_until - System.currentTimeMillis ()) > 0)
+                {
+                    resolution_lock.wait (remaining);
+                }
+            }
+            return (is_resolved ());
+        }
+
+        private Boolean result ()
+        {
+            boolean resolved = is_resolved ();
+
+            if (!resolved && !reported)
+            {
+                // They are still parked and will resolve whenever the dependencies arrive
+                log.error ("Missing dependencies on {}, {} files still waiting", bundle, parked_files.size ());
+                reported = true;
+            }
+            return (resolved);
+        }
+
+        @Override
+        public boolean cancel (boolean mayInterruptIfRunning)
+        {
+            return (false);
+        }
+
+        @Override
+        public boolean isCancelled ()
+        {
+            return (false);
+        }
+
+        @Override
+        public boolean isDone ()
+        {
+            return (is_resolved () || System.currentTimeMillis () >= deadline);
+        }
+
+        @Override
+        public Boolean get ()
+            throws InterruptedException
+        {
+            await (deadline);
+            return (result ());
+        }
+
+        @Override
+        public Boolean get (long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException
+        {
+            long wait_until = System.currentTimeMillis () + unit.toMillis (timeout);
+
+            if (!await (Math.min (wait_until, deadline)) && wait_until < deadline)
+            {
+                throw (new TimeoutException ());
+            }
+            return (result ());
+        }
     }
 }
 
@@ -20,17 +20,24 @@ import org.lucidj.api.artdeployer.BundleManager;
 import org.lucidj.api.core.EmbeddingContext;
 import org.lucidj.api.core.EmbeddingHandler;
 import org.lucidj.api.core.EmbeddingManager;
+import org.lucidj.api.core.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
 import org.osgi.util.tracker.BundleTracker;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Context;
@@ -48,8 +55,12 @@ public class DefaultEmbeddingManager implements EmbeddingManager
     private final static Logger log = LoggerFactory.getLogger (DefaultEmbeddingManager.class);
 
     private BundleTracker bundle_cleaner;
-    private List<EmbeddingHandler> embedding_handlers = new ArrayList<> ();
-    private List<EmbeddingListener> listener_list = new ArrayList<> ();
+    private final List<EmbeddingHandler> embedding_handlers = new CopyOnWriteArrayList<> ();
+    private final List<EmbeddingListener> listener_list = new CopyOnWriteArrayList<> ();
+
+    // File pipelines from all embedding contexts run here
+    private volatile ForkJoinPool embedding_pool;
+    private ServiceListener serializer_listener;
 
     @Requires
     private BundleManager bundleManager;
@@ -63,6 +74,18 @@ public class DefaultEmbeddingManager implements EmbeddingManager
         return (new DefaultEmbeddingContext (this));
     }
 
+    ForkJoinPool getPool ()
+    {
+        ForkJoinPool pool = embedding_pool;
+
+        if (pool == null)
+        {
+            // Invalidated, pipelines must not leak into the common pool
+            throw (new RejectedExecutionException ("Embedding manager is not active"));
+        }
+        return (pool);
+    }
+
     @Override
     public void registerHandler (EmbeddingHandler handler)
     {
@@ -70,7 +93,7 @@ public class DefaultEmbeddingManager implements EmbeddingManager
         embedding_handlers.add (handler);
 
         // Notify the listeners of the new handler
-        for (EmbeddingListener listener: listener_list.toArray (new EmbeddingListener [listener_list.size ()]))
+        for (EmbeddingListener listener: listener_list)
         {
             listener.addingHandler (handler);
         }
@@ -109,32 +132,25 @@ public class DefaultEmbeddingManager implements EmbeddingManager
         // also creating a listing of them. This list will be used to notify
         // the remaining listeners.
         List<EmbeddingHandler> removed_handlers = new ArrayList<> ();
-        Iterator<EmbeddingHandler> ith = embedding_handlers.iterator ();
 
-        while (ith.hasNext ())
+        for (EmbeddingHandler handler: embedding_handlers)
         {
-            EmbeddingHandler handler = ith.next ();
-
             if (bnd.equals (FrameworkUtil.getBundle (handler.getClass ())))
             {
                 log.info ("Removing embedded handler: {}", handler.getPrefix ());
                 removed_handlers.add (handler);
-                ith.remove ();
+                embedding_handlers.remove (handler);
             }
         }
 
         // Now we remove all listeners beloging to the gone bundle, while
         // also notifying all the remaining listeners.
-        Iterator<EmbeddingListener> itl = listener_list.iterator ();
-
-        while (itl.hasNext ())
+        for (EmbeddingListener listener: listener_list)
         {
-            EmbeddingListener listener = itl.next ();
-
             if (bnd.equals (FrameworkUtil.getBundle (listener.getClass ())))
             {
                 // This listener is being deactivated, just remove
-                itl.remove ();
+                listener_list.remove (listener);
             }
             else
             {
@@ -147,9 +163,54 @@ public class DefaultEmbeddingManager implements EmbeddingManager
         }
     }
 
+    private void serializer_registered ()
+    {
+        // Embeddings parked on a missing serializer may go ahead now
+        for (EmbeddingListener listener: listener_list)
+        {
+            if (listener instanceof DefaultEmbeddingContext)
+            {
+                ((DefaultEmbeddingContext)listener).dependencyAvailable ();
+            }
+        }
+    }
+
     @Validate
     private void validate ()
     {
+        embedding_pool = new ForkJoinPool (Runtime.getRuntime ().availableProcessors (),
+            new ForkJoinPool.ForkJoinWorkerThreadFactory ()
+            {
+                @Override
+                public ForkJoinWorkerThread newThread (ForkJoinPool pool)
+                {
+                    ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread (pool);
+                    worker.setName ("Embedding-" + worker.getPoolIndex ());
+                    return (worker);
+                }
+            }, null, false);
+
+        serializer_listener = new ServiceListener ()
+        {
+            @Override
+            public void serviceChanged (ServiceEvent event)
+            {
+                if (event.getType () == ServiceEvent.REGISTERED)
+                {
+                    serializer_registered ();
+                }
+            }
+        };
+
+        try
+        {
+            ctx.addServiceListener (serializer_listener, "(objectClass=" + Serializer.class.getName () + ")");
+        }
+        catch (InvalidSyntaxException e)
+        {
+            log.error ("Invalid serializer filter", e);
+        }
+
         bundle_cleaner = new BundleCleanup (ctx);
         bundle_cleaner.open ();
     }
@@ -159,6 +220,9 @@ public class DefaultEmbeddingManager implements EmbeddingManager
     {
         bundle_cleaner.close ();
         bundle_cleaner = null;
+        ctx.removeServiceListener (serializer_listener);
+        embedding_pool.shutdownNow ();
+        embedding_pool = null;
     }
 
     class BundleCleanup extends BundleTracker
@@ -18,13 +18,15 @@ package org.lucidj.embedding;
 
 import org.lucidj.api.core.Embedding;
 
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class EmbeddingImpl implements Embedding
 {
     private String name;
     private Object object;
-    private LinkedList<EmbeddingImpl> children = null;
+    // Appended by the file pipeline while others may be reading
+    private final List<EmbeddingImpl> children = new CopyOnWriteArrayList<> ();
 
     public EmbeddingImpl (String name, Object object)
     {
@@ -44,12 +46,8 @@ public class EmbeddingImpl implements Embedding
         return (object);
     }
 
-    public LinkedList<EmbeddingImpl> getChildren ()
+    public List<EmbeddingImpl> getChildren ()
     {
-        if (children == null)
-        {
-            children = new LinkedList<> ();
-        }
         return (children);
     }
 }
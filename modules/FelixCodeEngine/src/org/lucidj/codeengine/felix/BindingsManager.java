@@ -22,18 +22,40 @@ import org.lucidj.api.core.ServiceBindingsManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Context;
 import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
 
+/* Resolves script identifiers into services.
+ *
+ * Resolving a name may scan the whole service registry, and scripts ask
+ * for the same names over and over (every global lookup on some engines).
+ * So both outcomes are cached: names found become OSGiBindings, names not
+ * found go to a negative cache. A name only ever resolves through the
+ * @instance property or the simple name of an objectClass, so a service
+ * event touches just the names its service may answer to. A new service
+ * empties the negative cache and drops the bindings it could make
+ * ambiguous; a departing one drops the bindings pointing at it and the
+ * misses it may have caused by ambiguity. Property changes are ignored,
+ * as neither of those are expected to change on a live service. Lookups
+ * start over lazily, and explicitly registered bindings are never dropped.
+ */
 @Component (immediate = true, publicFactory = false)
 @Instantiate
 @Provides
@@ -41,10 +63,127 @@ public class BindingsManager implements ServiceBindingsManager
 {
     private final static Logger log = LoggerFactory.getLogger (BindingsManager.class);
     private Map<String, ServiceBinding> bindings = new ConcurrentHashMap<> ();
+    private Set<String> not_found = ConcurrentHashMap.newKeySet ();
+
+    // Bumped on every service coming or going, so a lookup racing with it won't cache a stale answer
+    private final AtomicLong registry_generation = new AtomicLong ();
 
     @Context
     private BundleContext context;
 
+    private ServiceListener registry_listener = new ServiceListener ()
+    {
+        @Override
+        public void serviceChanged (ServiceEvent event)
+        {
+            if (event.getType () == ServiceEvent.REGISTERED)
+            {
+                service_registered (event.getServiceReference ());
+            }
+            else if (event.getType () == ServiceEvent.UNREGISTERING)
+            {
+                service_unregistering (event.getServiceReference ());
+            }
+            // MODIFIED is ignored, it happens a lot and changes no name we resolve
+        }
+    };
+
+    @Validate
+    private void validate ()
+    {
+        context.addServiceListener (registry_listener);
+    }
+
+    @Invalidate
+    private void invalidate ()
+    {
+        context.removeServiceListener (registry_listener);
+        flush_resolution_cache ();
+    }
+
+    private void flush_resolution_cache ()
+    {
+        registry_generation.incrementAndGet ();
+        not_found.clear ();
+
+        for (Map.Entry<String, ServiceBinding> entry: bindings.entrySet ())
+        {
+            if (entry.getValue () instanceof OSGiBinding)
+            {
+                bindings.remove (entry.getKey (), entry.getValue ());
+            }
+        }
+    }
+
+    private static Set<String> names_of (ServiceReference ref)
+    {
+        // Every binding name find_service() could resolve to this service
+        Set<String> names = new HashSet<> ();
+        Object instance = ref.getProperty ("@instance");
+
+        if (instance instanceof String[])
+        {
+            names.addAll (Arrays.asList ((String[])instance));
+        }
+        else if (instance != null)
+        {
+            names.add (instance.toString ());
+        }
+
+        String[] object_classes = (String[])ref.getProperty (Constants.OBJECTCLASS);
+
+        if (object_classes != null)
+        {
+            for (String object_class: object_classes)
+            {
+                String simple_name = object_class.substring (object_class.lastIndexOf ('.') + 1);
+
+                if (!simple_name.isEmpty ())
+                {
+                    // SomeService -> someService
+                    names.add (Character.toLowerCase (simple_name.charAt (0)) + simple_name.substring (1));
+                }
+            }
+        }
+        return (names);
+    }
+
+    private void service_registered (ServiceReference ref)
+    {
+        registry_generation.incrementAndGet ();
+
+        // Anything missing may be here now
+        not_found.clear ();
+
+        // And names it answers to may have become ambiguous or taken by its @instance
+        for (String name: names_of (ref))
+        {
+            ServiceBinding binding = bindings.get (name);
+
+            if (binding instanceof OSGiBinding)
+            {
+                bindings.remove (name, binding);
+            }
+        }
+    }
+
+    private void service_unregistering (ServiceReference ref)
+    {
+        registry_generation.incrementAndGet ();
+
+        for (Map.Entry<String, ServiceBinding> entry: bindings.entrySet ())
+        {
+            if (entry.getValue () instanceof OSGiBinding
+                && ((OSGiBinding)entry.getValue ()).ref.equals (ref))
+            {
+                bindings.remove (entry.getKey (), entry.getValue ());
+            }
+        }
+
+        // Names made ambiguous by this service may resolve to the ones left
+        not_found.removeAll (names_of (ref));
+    }
+
     @Override
     public void register (ServiceBinding binding)
     {
@@ -164,29 +303,51 @@ public class BindingsManager implements ServiceBindingsManager
         return (found_ref);
     }
 
-    private boolean locate_and_add_osgi_service_binding (String binding_name)
+    private ServiceBinding locate_and_add_osgi_service_binding (String binding_name)
     {
+        if (not_found.contains (binding_name))
+        {
+            return (null);
+        }
+
+        long generation = registry_generation.get ();
         ServiceReference ref = find_service (binding_name);
 
         if (ref == null)
         {
-            return (false);
+            not_found.add (binding_name);
+
+            if (registry_generation.get () != generation)
+            {
+                // The registry changed meanwhile, so we can't be sure
+                not_found.remove (binding_name);
+            }
+            return (null);
+        }
+
+        OSGiBinding binding = new OSGiBinding (binding_name, ref);
+        register (binding);
+
+        if (registry_generation.get () != generation)
+        {
+            // Same as above, but the binding is still good for this lookup
+            bindings.remove (binding_name, binding);
         }
-        register (new OSGiBinding (binding_name, ref));
-        return (true);
+        return (binding);
     }
 
     @Override
     public ServiceBinding getService (String name)
     {
-        return (serviceExists (name)? bindings.get (name): null);
+        ServiceBinding binding = bindings.get (name);
+        return ((binding != null)? binding: locate_and_add_osgi_service_binding (name));
     }
 
     @Override
     public boolean serviceExists (String name)
     {
-        log.info ("# serviceExists (name={})", name);
-        return (bindings.containsKey (name) || locate_and_add_osgi_service_binding (name));
+        log.debug ("# serviceExists (name={})", name);
+        return (bindings.containsKey (name) || locate_and_add_osgi_service_binding (name) != null);
     }
 
     class OSGiBinding implements ServiceBinding
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2017 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.codeengine.felix;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/* Captures a PrintStream into a ring buffer drained by a shared dispatcher.
+ *
+ * The producer side is the PrintStream, which already serializes all its
+ * writers, so the ring has a single producer and a single consumer and
+ * needs no locks: each side only advances its own counter. Writes that
+ * arrive while a drain is pending are coalesced into the same print(),
+ * and bytes are decoded with a CharsetDecoder that keeps incomplete
+ * multibyte sequences for the next drain. When the ring is full the
+ * producer waits for the consumer, so a runaway writer is slowed down
+ * instead of buffering without bounds; for the same reason a drain
+ * that keeps finding new bytes delivers its text a ring's worth at a
+ * time rather than all at once when the ring finally runs dry.
+ */
+public class CaptureStream extends OutputStream
+{
+    private final static Logger log = LoggerFactory.getLogger (CaptureStream.class);
+
+    public final static int DEFAULT_CAPACITY = 64 * 1024;
+    private final static Charset CHARSET = Charset.forName ("UTF-8");
+    private final static long DRAIN_DELAY_MS = 5;
+    private final static long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos (1);
+    private final static int CHUNK_SIZE = 8 * 1024;
+
+    private final byte[] ring;
+    private final int mask;
+    private volatile long head = 0;         // Next byte to read, owned by the consumer
+    private volatile long tail = 0;         // Next byte to write, owned by the producer
+    private volatile boolean closed = false;
+    private volatile Thread waiting_producer = null;
+
+    private final ScheduledExecutorService dispatcher;
+    private final AtomicBoolean drain_scheduled = new AtomicBoolean ();
+    private final Runnable drain_task;
+    private final PrintStream print_stream;
+    private volatile PrintListener listener = null;
+
+    // Consumer side state, guarded by the decoder
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate (CHUNK_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate (CHUNK_SIZE);
+    private final StringBuilder text = new StringBuilder ();
+    private boolean input_ended = false;
+
+    public CaptureStream (ScheduledExecutorService dispatcher)
+    {
+        this (dispatcher, DEFAULT_CAPACITY);
+    }
+
+    public CaptureStream (ScheduledExecutorService dispatcher, int capacity)
+    {
+        // Round capacity up to a power of two so positions are a simple mask
+        int size = Integer.highestOneBit (Math.max (capacity, CHUNK_SIZE) - 1) << 1;
+
+        this.ring = new byte [size];
+        this.mask = size - 1;
+        this.dispatcher = dispatcher;
+        this.decoder = CHARSET.newDecoder ()
+            .onMalformedInput (CodingErrorAction.REPLACE)
+            .onUnmappableCharacter (CodingErrorAction.REPLACE);
+        this.drain_task = new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                drain ();
+            }
+        };
+
+        try
+        {
+            print_stream = new PrintStream (this, false, CHARSET.name ());
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always available
+            throw (new IllegalStateException (e));
+        }
+    }
+
+    public PrintStream getPrintStream ()
+    {
+        return (print_stream);
+    }
+
+    public void setPrintListener (PrintListener listener)
+    {
+        this.listener = listener;
+    }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // Producer
+    //-----------------------------------------------------------------------------------------------------------------
+
+    @Override
+    public void write (int b)
+        throws IOException
+    {
+        write (new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write (byte[] b, int off, int len)
+        throws IOException
+    {
+        while (len > 0)
+        {
+            if (closed)
+            {
+                throw (new IOException ("Stream closed"));
+            }
+
+            long current_tail = tail;
+            int free = ring.length - (int)(current_tail - head);
+
+            if (free == 0)
+            {
+                wait_for_space ();
+                continue;
+            }
+
+            int chunk = Math.min (len, free);
+            int pos = (int)(current_tail & mask);
+            int first = Math.min (chunk, ring.length - pos);
+
+            System.arraycopy (b, off, ring, pos, first);
+            System.arraycopy (b, off + first, ring, 0, chunk - first);
+
+            // Publish the bytes to the consumer
+            tail = current_tail + chunk;
+            off += chunk;
+            len -= chunk;
+        }
+
+        schedule_drain (DRAIN_DELAY_MS);
+    }
+
+    private void wait_for_space ()
+        throws IOException
+    {
+        waiting_producer = Thread.currentThread ();
+        schedule_drain (0);
+
+        // Re-check after publishing ourselves, the consumer may have just made room
+        if (tail - head == ring.length && !closed)
+        {
+            LockSupport.parkNanos (this, PARK_NANOS);
+        }
+
+        waiting_producer = null;
+
+        if (Thread.interrupted ())
+        {
+            // Let a cancelled run break out of a blocked print
+            Thread.currentThread ().interrupt ();
+            throw (new InterruptedIOException ("Interrupted waiting for output buffer"));
+        }
+    }
+
+    @Override
+    public void flush ()
+    {
+        schedule_drain (0);
+    }
+
+    @Override
+    public void close ()
+    {
+        if (!closed)
+        {
+            closed = true;
+
+            // Final drain on the caller thread, so all output is delivered before close() returns
+            drain ();
+        }
+    }
+
+    //-----------------------------------------------------------------------------------------------------------------
+    // Consumer
+    //-----------------------------------------------------------------------------------------------------------------
+
+    private void schedule_drain (long delay_ms)
+    {
+        if (drain_scheduled.compareAndSet (false, true))
+        {
+            try
+            {
+                dispatcher.schedule (drain_task, delay_ms, TimeUnit.MILLISECONDS);
+            }
+            catch (Exception e)
+            {
+                // Dispatcher is gone, deliver what we have right here
+                drain_scheduled.set (false);
+                drain ();
+            }
+        }
+    }
+
+    private void drain ()
+    {
+        synchronized (decoder)
+        {
+            // Writes from now on will schedule a new drain
+            drain_scheduled.set (false);
+
+            long available;
+
+            while ((available = tail - head) > 0)
+            {
+                long current_head = head;
+                int chunk = (int)Math.min (available, bytes.remaining ());
+                int pos = (int)(current_head & mask);
+                int first = Math.min (chunk, ring.length - pos);
+
+                bytes.put (ring, pos, first);
+                bytes.put (ring, 0, chunk - first);
+
+                // Release the space to the producer
+                head = current_head + chunk;
+                wake_producer ();
+
+                bytes.flip ();
+                decode (false);
+                bytes.compact ();
+
+                if (text.length () >= ring.length)
+                {
+                    // Producer is keeping up with us, don't hold its output back
+                    deliver_text ();
+                }
+            }
+
+            if (closed && !input_ended)
+            {
+                // Only once: a drain still scheduled from before close() finds a flushed decoder
+                input_ended = true;
+                bytes.flip ();
+                decode (true);
+                decoder.flush (chars);
+                append_chars ();
+                bytes.clear ();
+            }
+
+            deliver_text ();
+        }
+    }
+
+    private void deliver_text ()
+    {
+        if (text.length () > 0)
+        {
+            String output = text.toString ();
+            text.setLength (0);
+            deliver (output);
+        }
+    }
+
+    private void decode (boolean end_of_input)
+    {
+        // Incomplete sequences stay on bytes until the next chunk arrives
+        while (decoder.decode (bytes, chars, end_of_input).isOverflow ())
+        {
+            append_chars ();
+        }
+        append_chars ();
+    }
+
+    private void append_chars ()
+    {
+        chars.flip ();
+        text.append (chars);
+        chars.clear ();
+    }
+
+    private void wake_producer ()
+    {
+        Thread producer = waiting_producer;
+
+        if (producer != null)
+        {
+            LockSupport.unpark (producer);
+        }
+    }
+
+    private void deliver (String output)
+    {
+        PrintListener current_listener = listener;
+
+        if (current_listener != null)
+        {
+            try
+            {
+                current_listener.print (output);
+            }
+            catch (Throwable t)
+            {
+                log.error ("Exception delivering captured output", t);
+            }
+        }
+    }
+
+    interface PrintListener
+    {
+        void print (String str);
+    }
+}
+
+// EOF
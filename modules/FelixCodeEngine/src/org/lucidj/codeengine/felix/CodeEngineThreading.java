@@ -28,6 +28,8 @@ import org.slf4j.LoggerFactory;
 import javax.lang.model.type.TypeKind;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledExecutorService;
 
 // TODO: CodeRunner MAY BE RUNNING!!!!
 public class CodeEngineThreading implements CodeEngine
@@ -35,64 +37,91 @@ public class CodeEngineThreading implements CodeEngine
     private final Logger log = LoggerFactory.getLogger (CodeEngineThreading.class);
 
     private final CodeEngineBase code_engine;
-    private ExecThread exec_thread;
+    private final FelixCodeEngineManager engine_manager;
+    private final String engine_name;
+    private boolean released = false;
+    private volatile ExecJob exec_job;
     private Object output = TypeKind.NONE;
-    private boolean interrupt_requested;
 
-    public CodeEngineThreading (CodeEngineBase code_engine)
+    // Prepared form of the last script run, reused until the code changes
+    private String prepared_code;
+    private int prepared_hash;
+    private Object prepared_script;
+
+    public CodeEngineThreading (CodeEngineBase code_engine, FelixCodeEngineManager engine_manager, String engine_name)
     {
         this.code_engine = code_engine;
+        this.engine_manager = engine_manager;
+        this.engine_name = engine_name;
     }
 
-    private CodeContext perform_exec (Object code, CodeContext context)
+    public String getEngineName ()
     {
-        // TODO: context => which smartbox. context MAY be running.
+        return (engine_name);
+    }
 
-        // Ensure a valid context to use
-        if (context == null)
+    // Hands the base engine back for reuse, only once
+    synchronized CodeEngineBase release ()
+    {
+        if (released)
         {
-            context = code_engine.getContext ();
+            return (null);
         }
 
-        final CodeContext.Callbacks context_callbacks = (CodeContext.Callbacks)context;
+        released = true;
+        prepared_code = null;
+        prepared_script = null;
+        return (code_engine);
+    }
+
+    private CodeContext perform_exec (Object code, CodeContext context)
+    {
+        // TODO: context => which smartbox. context MAY be running.
 
-        // Setup capture listeners
-        PipeListener stdout_pipe = new PipeListener ();
-        stdout_pipe.setPrintListener (new PipeListener.PrintListener ()
+        synchronized (this)
         {
-            @Override
-            public void print (String output)
+            if (released)
             {
-                context_callbacks.stdoutPrint (output);
+                throw (new IllegalStateException ("CodeEngine already released"));
             }
-        });
-        context.setStdout (stdout_pipe.getPrintStream ());
+        }
 
-        PipeListener stderr_pipe = new PipeListener ();
-        stderr_pipe.setPrintListener (new PipeListener.PrintListener ()
+        // Ensure a valid context to use
+        if (context == null)
         {
-            @Override
-            public void print (String output)
-            {
-                context_callbacks.stderrPrint (output);
-            }
-        });
-        context.setStderr (stderr_pipe.getPrintStream ());
+            context = code_engine.getContext ();
+        }
 
-        // Setup beanshell thread
-        exec_thread = new ExecThread (code, context);
+        // Queue the run on the shared executor, it starts as soon as limits allow
+        ExecJob job = new ExecJob (code, context);
+        ExecutionRegistry registry = engine_manager.getExecutionRegistry ();
+        exec_job = job;
+        registry.submitted (job.metrics);
 
-        // Set classloader from CodeContext
-        exec_thread.setContextClassLoader (context.getClassLoader ());
+        try
+        {
+            engine_manager.getExecutor ().submit (job);
+        }
+        catch (RuntimeException e)
+        {
+            registry.finished (job.metrics);
+            throw (e);
+        }
+        return (context);
+    }
 
-        // Start the gang
-        interrupt_requested = false;
-        stdout_pipe.start ();
-        stderr_pipe.start ();
-        exec_thread.start ();
+    private synchronized Object get_prepared (String code, CodeContext context)
+    {
+        int hash = code.hashCode ();
 
-        // TODO: INSTEAD WAITING, PUT THE THREAD ON THE "PROCESS POOL" TO MONITOR IT
-        return (context);
+        if (prepared_code == null || prepared_hash != hash || !prepared_code.equals (code))
+        {
+            // New or edited code, the previous parse is useless now
+            prepared_script = code_engine.prepare (code, context);
+            prepared_code = code;
+            prepared_hash = hash;
+        }
+        return (prepared_script);
     }
 
     //-----------------------------------------------------------------------------------------------------------------
@@ -114,7 +143,14 @@ public class CodeEngineThreading implements CodeEngine
     @Override // CodeEngine
     public Thread getThread ()
     {
-        return (exec_thread);
+        ExecJob job = exec_job;
+        return ((job == null)? null: job.getThread ());
+    }
+
+    @Override // CodeEngine
+    public Task getTask ()
+    {
+        return (exec_job);
     }
 
     //-----------------------------------------------------------------------------------------------------------------
@@ -133,6 +169,18 @@ public class CodeEngineThreading implements CodeEngine
         return (code_engine.eval (reader, context));
     }
 
+    @Override // CodeEngineBase
+    public Object prepare (String script, CodeContext context)
+    {
+        return (code_engine.prepare (script, context));
+    }
+
+    @Override // CodeEngineBase
+    public Object evalPrepared (Object prepared, CodeContext context)
+    {
+        return (code_engine.evalPrepared (prepared, context));
+    }
+
     @Override // CodeEngineBase
     public CodeContext getContext ()
     {
@@ -163,22 +211,84 @@ public class CodeEngineThreading implements CodeEngine
         // Nop
     }
 
-    class ExecThread extends Thread
+    class ExecJob extends CodeExecutor.Job
     {
         private Object code;
         private CodeContext context;
         private CodeContext.Callbacks context_callbacks;
+        private final ExecutionRecord metrics;
 
-        public ExecThread (Object code, CodeContext context)
+        public ExecJob (Object code, CodeContext context)
         {
+            super (engine_manager.getCurrentOwner (), CodeEngine.PRIORITY_NORMAL, context.getClassLoader ());
             this.code = code;
             this.context = context;
             context_callbacks = (CodeContext.Callbacks)context;
+            metrics = new ExecutionRecord (this, engine_name, code);
+        }
+
+        private void setup_capture ()
+        {
+            ScheduledExecutorService dispatcher = engine_manager.getExecutor ().getOutputDispatcher ();
+
+            // Setup capture streams, drained by the shared output dispatcher
+            CaptureStream stdout_capture = new CaptureStream (dispatcher);
+            stdout_capture.setPrintListener (new CaptureStream.PrintListener ()
+            {
+                @Override
+                public void print (String output)
+                {
+                    metrics.addStdout (output.length ());
+                    context_callbacks.stdoutPrint (output);
+                }
+            });
+            context.setStdout (stdout_capture.getPrintStream ());
+
+            CaptureStream stderr_capture = new CaptureStream (dispatcher);
+            stderr_capture.setPrintListener (new CaptureStream.PrintListener ()
+            {
+                @Override
+                public void print (String output)
+                {
+                    metrics.addStderr (output.length ());
+                    context_callbacks.stderrPrint (output);
+                }
+            });
+            context.setStderr (stderr_capture.getPrintStream ());
         }
 
         @Override
-        public void run ()
+        protected void cancelled ()
         {
+            metrics.finished ();
+            engine_manager.getExecutionRegistry ().finished (metrics);
+
+            // Never started: report the cancellation so the caller can leave the running state
+            context_callbacks.outputObject (new CancellationException ("Cancelled before start"));
+            context_callbacks.terminated ();
+        }
+
+        @Override
+        protected void execute ()
+        {
+            metrics.started ();
+
+            try
+            {
+                run_code ();
+            }
+            finally
+            {
+                metrics.finished ();
+                engine_manager.getExecutionRegistry ().finished (metrics);
+            }
+        }
+
+        private void run_code ()
+        {
+            // Capture is only set when we have a worker
+            setup_capture ();
+
             log.info("run() {} START code_engine={} statements={}", this, code_engine, code);
 
             context_callbacks.started ();
@@ -202,7 +312,16 @@ public class CodeEngineThreading implements CodeEngine
                 }
                 else
                 {
-                    result = code_engine.eval ((String)code, context);
+                    Object prepared = get_prepared ((String)code, context);
+
+                    if (prepared != null)
+                    {
+                        result = code_engine.evalPrepared (prepared, context);
+                    }
+                    else
+                    {
+                        result = code_engine.eval ((String)code, context);
+                    }
                 }
             }
             catch (Throwable e)
@@ -210,7 +329,7 @@ public class CodeEngineThreading implements CodeEngine
                 result = e;
             }
 
-            // End capture and close handles, so listener threads can be finished
+            // End capture, closing drains everything still buffered before we report termination
             capture_out.flush ();
             capture_out.close ();
             capture_err.flush();
@@ -222,7 +341,7 @@ public class CodeEngineThreading implements CodeEngine
             // Thread about to terminate
             context_callbacks.terminated ();
 
-            log.info("run() {} FINISH code_engine={} result={}", this, code_engine, result);
+            log.info("run() {} FINISH code_engine={} result={} {}", this, code_engine, result, metrics);
         }
     }
 }
@@ -0,0 +1,550 @@
+/*
+ * Copyright 2017 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.codeengine.felix;
+
+import org.lucidj.api.core.CodeEngine;
+import org.lucidj.api.core.DisplayManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Shared execution service for the code engines.
+ *
+ * Runs wait on a single queue ordered by priority (FIFO within the same
+ * priority) and are handed to a bounded set of workers. No owner may hold
+ * more than user_limit workers at once, so a "run all" from one session
+ * queues behind itself instead of starving everybody else.
+ *
+ * The caps alone could deadlock cells piped through a DisplayManager:
+ * readers blocked on an empty pipe would hold every slot of their owner
+ * while the producer cell waits in the queue. So a run found blocked on
+ * a pipe (see DisplayManager.PipeWaits) on two stall checks in a row is
+ * parked: it stops counting against the caps, and the pool grows by one
+ * thread for it, until it is seen running again or finishes. Sleeping or
+ * doing I/O doesn't count, and at most max_threads runs are parked at
+ * once, so the pool never grows past twice its size. A pipe chain with
+ * more blocked readers than that waits for some of them to be cancelled.
+ */
+class CodeExecutor
+{
+    private final static Logger log = LoggerFactory.getLogger (CodeExecutor.class);
+
+    private final static int QUEUED = 0;
+    private final static int RUNNING = 1;
+    private final static int DONE = 2;
+
+    private final static int OUTPUT_THREADS = 2;
+    private final static long STALL_CHECK_MS = 500;
+    private final static int PARK_CHECKS = 2;
+
+    private final static Comparator<Job> PRIORITY_ORDER = new Comparator<Job> ()
+    {
+        @Override
+        public int compare (Job a, Job b)
+        {
+            if (a.priority != b.priority)
+            {
+                return ((a.priority > b.priority)? -1: 1);
+            }
+            return (Long.compare (a.sequence, b.sequence));
+        }
+    };
+
+    private final int max_threads;
+    private final int user_limit;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService output_dispatcher;
+
+    private final TreeSet<Job> pending = new TreeSet<> (PRIORITY_ORDER);
+    private final Set<Job> running = new HashSet<> ();
+    private final Map<String, Integer> running_by_owner = new HashMap<> ();
+    private final Map<String, Integer> parked_by_owner = new HashMap<> ();
+    private int parked_total = 0;
+    private long next_sequence = 0;
+    private boolean shutdown = false;
+
+    CodeExecutor (int max_threads, int user_limit, boolean virtual_threads)
+    {
+        this.max_threads = Math.max (1, max_threads);
+        this.user_limit = Math.max (1, user_limit);
+
+        ExecutorService virtual_workers = virtual_threads? new_virtual_executor (): null;
+
+        if (virtual_workers != null)
+        {
+            // The limits above still apply, virtual threads only make the workers cheap
+            workers = virtual_workers;
+        }
+        else
+        {
+            // We never submit more than max_threads jobs, the queue only absorbs worker turnover
+            ThreadPoolExecutor pool = new ThreadPoolExecutor (this.max_threads, this.max_threads,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable> (), new WorkerFactory ("CodeEngine-"));
+            pool.allowCoreThreadTimeOut (true);
+            workers = pool;
+        }
+
+        // Captured output from all runs is drained by these few threads
+        ScheduledThreadPoolExecutor dispatcher = new ScheduledThreadPoolExecutor (OUTPUT_THREADS,
+            new WorkerFactory ("CodeEngine-Output-"));
+        dispatcher.setRemoveOnCancelPolicy (true);
+        output_dispatcher = dispatcher;
+
+        // Stall checks are cheap, they share the output threads
+        dispatcher.scheduleWithFixedDelay (new Runnable ()
+        {
+            @Override
+            public void run ()
+            {
+                check_stalls ();
+            }
+        }, STALL_CHECK_MS, STALL_CHECK_MS, TimeUnit.MILLISECONDS);
+
+        log.info ("CodeExecutor: max_threads={} user_limit={} workers={}", this.max_threads, this.user_limit, workers);
+    }
+
+    private static ExecutorService new_virtual_executor ()
+    {
+        try
+        {
+            // Only available on newer runtimes, we are still built for Java 8
+            Method factory = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+            return ((ExecutorService)factory.invoke (null));
+        }
+        catch (Exception e)
+        {
+            log.warn ("Virtual threads not available on this runtime, using platform threads");
+            return (null);
+        }
+    }
+
+    public int getMaxThreads ()
+    {
+        return (max_threads);
+    }
+
+    public int getUserLimit ()
+    {
+        return (user_limit);
+    }
+
+    public ScheduledExecutorService getOutputDispatcher ()
+    {
+        return (output_dispatcher);
+    }
+
+    public void submit (Job job)
+    {
+        synchronized (this)
+        {
+            if (shutdown)
+            {
+                throw (new RejectedExecutionException ("CodeExecutor is shut down"));
+            }
+
+            job.executor = this;
+            job.sequence = next_sequence++;
+            pending.add (job);
+            dispatch ();
+        }
+    }
+
+    public synchronized List<Job> getJobs ()
+    {
+        List<Job> jobs = new ArrayList<> (running);
+        jobs.addAll (pending);
+        return (jobs);
+    }
+
+    public void shutdown ()
+    {
+        List<Job> cancelled;
+
+        synchronized (this)
+        {
+            shutdown = true;
+            cancelled = new ArrayList<> (pending);
+            pending.clear ();
+
+            for (Job job: cancelled)
+            {
+                job.state = DONE;
+            }
+
+            for (Job job: running)
+            {
+                job.interrupt ();
+            }
+        }
+
+        workers.shutdown ();
+        output_dispatcher.shutdown ();
+
+        for (Job job: cancelled)
+        {
+            job.notify_cancelled ();
+        }
+    }
+
+    private static int count (Map<String, Integer> by_owner, String owner)
+    {
+        Integer count = by_owner.get (owner);
+        return ((count == null)? 0: count);
+    }
+
+    private static void add (Map<String, Integer> by_owner, String owner, int delta)
+    {
+        int count = count (by_owner, owner) + delta;
+
+        if (count > 0)
+        {
+            by_owner.put (owner, count);
+        }
+        else
+        {
+            by_owner.remove (owner);
+        }
+    }
+
+    private int count_running (String owner)
+    {
+        return (count (running_by_owner, owner));
+    }
+
+    // Must be called holding the lock
+    private void dispatch ()
+    {
+        Iterator<Job> it = pending.iterator ();
+
+        // Parked runs hold a worker but don't count against the caps
+        while (running.size () - parked_total < max_threads && it.hasNext ())
+        {
+            Job job = it.next ();
+
+            if (count_running (job.owner) - count (parked_by_owner, job.owner) >= user_limit)
+            {
+                // This owner is saturated, lower priority jobs from others may pass
+                continue;
+            }
+
+            it.remove ();
+            running.add (job);
+            add (running_by_owner, job.owner, 1);
+            job.state = RUNNING;
+            workers.execute (job);
+        }
+    }
+
+    // Must be called holding the lock
+    private void set_parked (Job job, boolean parked)
+    {
+        if (parked && !job.parked && parked_total >= max_threads)
+        {
+            if (job.idle_checks == PARK_CHECKS)
+            {
+                log.warn ("Too many runs blocked on pipes, {} run {} keeps its slot", job.owner, job);
+            }
+
+            // Out of extra threads, this one waits until some other run unparks
+            return;
+        }
+
+        if (job.parked != parked)
+        {
+            log.debug ("{} {} run {}", parked? "Parking": "Unparking", job.owner, job);
+            job.parked = parked;
+            add (parked_by_owner, job.owner, parked? 1: -1);
+            parked_total += parked? 1: -1;
+
+            if (workers instanceof ThreadPoolExecutor)
+            {
+                // One more platform thread for each run sitting on its worker
+                ThreadPoolExecutor pool = (ThreadPoolExecutor)workers;
+                int pool_size = max_threads + parked_total;
+
+                if (pool_size > pool.getMaximumPoolSize ())
+                {
+                    pool.setMaximumPoolSize (pool_size);
+                    pool.setCorePoolSize (pool_size);
+                }
+                else
+                {
+                    pool.setCorePoolSize (pool_size);
+                    pool.setMaximumPoolSize (pool_size);
+                }
+            }
+        }
+    }
+
+    private void check_stalls ()
+    {
+        synchronized (this)
+        {
+            if (shutdown)
+            {
+                return;
+            }
+
+            int parked_before = parked_total;
+
+            for (Job job: running)
+            {
+                // Only a pipe wait depends on another run getting a slot
+                boolean waiting = DisplayManager.PipeWaits.isWaiting (job.thread);
+
+                job.idle_checks = waiting? job.idle_checks + 1: 0;
+                set_parked (job, job.idle_checks >= PARK_CHECKS);
+            }
+
+            if (parked_total > parked_before)
+            {
+                // Slots were freed, maybe for the very run the parked ones wait for
+                dispatch ();
+            }
+        }
+    }
+
+    private void finished (Job job)
+    {
+        synchronized (this)
+        {
+            running.remove (job);
+            set_parked (job, false);
+            job.state = DONE;
+            add (running_by_owner, job.owner, -1);
+
+            if (!shutdown)
+            {
+                dispatch ();
+            }
+        }
+    }
+
+    static abstract class Job implements Runnable, CodeEngine.Task
+    {
+        private volatile CodeExecutor executor;
+        private final String owner;
+        private final ClassLoader class_loader;
+        private volatile int priority;
+        private volatile int state = QUEUED;
+        private volatile Thread thread;
+        private volatile boolean interrupt_requested = false;
+        private long sequence;
+        private int idle_checks = 0;                // Guarded by the executor
+        private boolean parked = false;             // Guarded by the executor
+
+        Job (String owner, int priority, ClassLoader class_loader)
+        {
+            this.owner = owner;
+            this.priority = priority;
+            this.class_loader = class_loader;
+        }
+
+        protected abstract void execute ();
+
+        protected abstract void cancelled ();
+
+        @Override
+        public final void run ()
+        {
+            Thread current = Thread.currentThread ();
+            ClassLoader saved_loader = current.getContextClassLoader ();
+
+            thread = current;
+
+            if (interrupt_requested)
+            {
+                // Cancelled between dispatch and start
+                current.interrupt ();
+            }
+
+            try
+            {
+                current.setContextClassLoader (class_loader);
+                execute ();
+            }
+            catch (Throwable t)
+            {
+                log.error ("Unhandled exception running {}", this, t);
+            }
+            finally
+            {
+                thread = null;
+
+                // Don't leak a pending interrupt into the next job
+                Thread.interrupted ();
+                current.setContextClassLoader (saved_loader);
+                executor.finished (this);
+            }
+        }
+
+        private void interrupt ()
+        {
+            interrupt_requested = true;
+            Thread running_thread = thread;
+
+            if (running_thread != null)
+            {
+                running_thread.interrupt ();
+            }
+        }
+
+        private void notify_cancelled ()
+        {
+            try
+            {
+                cancelled ();
+            }
+            catch (Throwable t)
+            {
+                log.error ("Exception cancelling {}", this, t);
+            }
+        }
+
+        @Override
+        public boolean isQueued ()
+        {
+            return (state == QUEUED);
+        }
+
+        @Override
+        public boolean isRunning ()
+        {
+            return (state == RUNNING);
+        }
+
+        @Override
+        public boolean isDone ()
+        {
+            return (state == DONE);
+        }
+
+        @Override
+        public boolean cancel ()
+        {
+            if (executor == null)
+            {
+                // Not submitted yet, nothing to cancel
+                return (false);
+            }
+
+            synchronized (executor)
+            {
+                if (state == RUNNING)
+                {
+                    interrupt ();
+                    return (true);
+                }
+
+                if (state != QUEUED)
+                {
+                    return (false);
+                }
+
+                executor.pending.remove (this);
+                state = DONE;
+            }
+
+            // Never started, so nobody else will tell the context it's over
+            notify_cancelled ();
+            return (true);
+        }
+
+        @Override
+        public int getPriority ()
+        {
+            return (priority);
+        }
+
+        @Override
+        public void setPriority (int priority)
+        {
+            if (executor == null)
+            {
+                // Not submitted yet
+                this.priority = priority;
+                return;
+            }
+
+            synchronized (executor)
+            {
+                // The queue is ordered by priority, so we need to reinsert
+                boolean requeue = executor.pending.remove (this);
+                this.priority = priority;
+
+                if (requeue)
+                {
+                    executor.pending.add (this);
+                    executor.dispatch ();
+                }
+            }
+        }
+
+        @Override
+        public String getOwner ()
+        {
+            return (owner);
+        }
+
+        @Override
+        public Thread getThread ()
+        {
+            return (thread);
+        }
+    }
+
+    static class WorkerFactory implements ThreadFactory
+    {
+        private final AtomicInteger counter = new AtomicInteger ();
+        private final String prefix;
+
+        WorkerFactory (String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread (Runnable r)
+        {
+            Thread worker = new Thread (r, prefix + counter.incrementAndGet ());
+            worker.setDaemon (true);
+            return (worker);
+        }
+    }
+}
+
+// EOF
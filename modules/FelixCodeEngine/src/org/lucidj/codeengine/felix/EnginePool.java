@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.codeengine.felix;
+
+import org.lucidj.api.core.CodeContext;
+import org.lucidj.api.core.CodeEngineBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/* Warm instances of a single code engine name.
+ *
+ * Creating a JSR-223 engine and running its first script may take a
+ * good while, which a notebook would otherwise pay once per cell when
+ * it opens. Released engines come back after getting a new, clean
+ * context and are kept up to the pool size. Pools created with warm set
+ * also keep that many engines already created, bound to a fresh context
+ * and primed with an empty script, refilling in the background as they
+ * are handed out.
+ */
+class EnginePool
+{
+    private final static Logger log = LoggerFactory.getLogger (EnginePool.class);
+
+    private final String name;
+    private final int size;
+    private final boolean warm;
+    private final FelixCodeEngineManager manager;
+    private final Executor warmup_executor;
+
+    private final ArrayDeque<CodeEngineBase> idle = new ArrayDeque<> ();
+    private int warming = 0;
+    private boolean closed = false;
+
+    EnginePool (String name, int size, boolean warm, FelixCodeEngineManager manager, Executor warmup_executor)
+    {
+        this.name = name;
+        this.size = Math.max (0, size);
+        this.warm = warm;
+        this.manager = manager;
+        this.warmup_executor = warmup_executor;
+    }
+
+    public int getSize ()
+    {
+        return (size);
+    }
+
+    public boolean isWarm ()
+    {
+        return (warm);
+    }
+
+    public synchronized int getIdleCount ()
+    {
+        return (idle.size ());
+    }
+
+    // Returns an idle engine, or null if none is ready yet
+    public CodeEngineBase take ()
+    {
+        CodeEngineBase engine;
+
+        synchronized (this)
+        {
+            engine = idle.pollFirst ();
+        }
+
+        fill ();
+        return (engine);
+    }
+
+    public void fill ()
+    {
+        int missing;
+
+        synchronized (this)
+        {
+            missing = (closed || !warm)? 0: size - idle.size () - warming;
+
+            if (missing <= 0)
+            {
+                return;
+            }
+            warming += missing;
+        }
+
+        for (int i = 0; i < missing; i++)
+        {
+            try
+            {
+                warmup_executor.execute (new Runnable ()
+                {
+                    @Override
+                    public void run ()
+                    {
+                        warm_one ();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Shutting down
+                synchronized (this)
+                {
+                    warming--;
+                }
+            }
+        }
+    }
+
+    private void warm_one ()
+    {
+        CodeEngineBase engine = null;
+
+        try
+        {
+            engine = manager.newBaseEngine (name);
+
+            if (engine != null)
+            {
+                prime (engine);
+            }
+        }
+        catch (Throwable t)
+        {
+            log.warn ("Exception warming up engine '{}'", name, t);
+            engine = null;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                warming--;
+
+                if (engine != null && !closed)
+                {
+                    idle.addLast (engine);
+                }
+            }
+        }
+    }
+
+    private void prime (CodeEngineBase engine)
+    {
+        CodeContext context = engine.getContext ();
+        Thread current = Thread.currentThread ();
+        ClassLoader saved_loader = current.getContextClassLoader ();
+
+        try
+        {
+            // An empty script is valid anywhere and gets the engine through its first eval
+            current.setContextClassLoader (context.getClassLoader ());
+            engine.eval ("", context);
+        }
+        finally
+        {
+            current.setContextClassLoader (saved_loader);
+        }
+    }
+
+    // Takes back an engine no longer in use, true if it was kept
+    public boolean recycle (CodeEngineBase engine)
+    {
+        synchronized (this)
+        {
+            if (closed || idle.size () >= size)
+            {
+                return (false);
+            }
+        }
+
+        // Drop everything the previous owner left behind
+        manager.resetBaseEngine (engine);
+
+        synchronized (this)
+        {
+            if (closed || idle.size () >= size)
+            {
+                return (false);
+            }
+            idle.addLast (engine);
+            return (true);
+        }
+    }
+
+    public synchronized void close ()
+    {
+        closed = true;
+        idle.clear ();
+    }
+}
+
+// EOF
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2017 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.codeengine.felix;
+
+import org.lucidj.api.core.CodeEngine;
+import org.lucidj.api.core.CodeEngineMonitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Resource usage of a single exec() on the shared executor.
+ *
+ * The worker thread marks start and end, and the CPU time and allocation
+ * counters of the thread are read at both points, since the same worker
+ * goes on to run other jobs. While the run is in progress the counters are
+ * read live from its thread, so a monitor sees a looping cell climbing.
+ * Allocated bytes come from the HotSpot extension of ThreadMXBean, looked
+ * up by reflection because com.sun.management is not visible to bundles.
+ */
+class ExecutionRecord implements CodeEngineMonitor.Execution
+{
+    private final static int SUMMARY_LENGTH = 60;
+
+    private final static AtomicLong next_id = new AtomicLong ();
+    private final static ThreadMXBean thread_bean = ManagementFactory.getThreadMXBean ();
+    private final static Method allocated_bytes_method = find_allocated_bytes_method ();
+
+    private final long id = next_id.incrementAndGet ();
+    private final CodeEngine.Task task;
+    private final String engine_name;
+    private final String summary;
+    private final long submit_time = System.currentTimeMillis ();
+    private final long submit_nanos = System.nanoTime ();
+
+    private Thread thread;
+    private long start_nanos = -1;
+    private long end_nanos = -1;
+    private long cpu_start = -1;
+    private long cpu_time = -1;
+    private long allocated_start = -1;
+    private long allocated_bytes = -1;
+
+    private final AtomicLong stdout_chars = new AtomicLong ();
+    private final AtomicLong stderr_chars = new AtomicLong ();
+
+    ExecutionRecord (CodeEngine.Task task, String engine_name, Object code)
+    {
+        this.task = task;
+        this.engine_name = engine_name;
+        this.summary = summarize (code);
+    }
+
+    private static String summarize (Object code)
+    {
+        if (!(code instanceof String))
+        {
+            return ("(stream)");
+        }
+
+        // The first line with something on it is usually enough to spot the cell
+        for (String line: ((String)code).split ("\n"))
+        {
+            line = line.trim ();
+
+            if (!line.isEmpty ())
+            {
+                return ((line.length () > SUMMARY_LENGTH)? line.substring (0, SUMMARY_LENGTH) + "...": line);
+            }
+        }
+        return ("");
+    }
+
+    private static Method find_allocated_bytes_method ()
+    {
+        for (Class<?> cls = thread_bean.getClass (); cls != null; cls = cls.getSuperclass ())
+        {
+            for (Class<?> iface: cls.getInterfaces ())
+            {
+                // The implementation class is not public, only the interface method may be invoked
+                if (Modifier.isPublic (iface.getModifiers ()))
+                {
+                    try
+                    {
+                        return (iface.getMethod ("getThreadAllocatedBytes", long.class));
+                    }
+                    catch (NoSuchMethodException ignore) {};
+                }
+            }
+        }
+        return (null);
+    }
+
+    private static long read_cpu_time (Thread thread)
+    {
+        try
+        {
+            if (thread_bean.isThreadCpuTimeSupported () && thread_bean.isThreadCpuTimeEnabled ())
+            {
+                return (thread_bean.getThreadCpuTime (thread.getId ()));
+            }
+        }
+        catch (Exception ignore) {};
+        return (-1);
+    }
+
+    private static long read_allocated_bytes (Thread thread)
+    {
+        if (allocated_bytes_method != null)
+        {
+            try
+            {
+                return ((Long)allocated_bytes_method.invoke (thread_bean, thread.getId ()));
+            }
+            catch (Exception ignore) {};
+        }
+        return (-1);
+    }
+
+    private static long delta (long start, long now)
+    {
+        // Virtual threads and disabled counters report -1
+        return ((start < 0 || now < 0)? -1: now - start);
+    }
+
+    // Called on the worker thread as the job leaves the queue
+    synchronized void started ()
+    {
+        thread = Thread.currentThread ();
+        start_nanos = System.nanoTime ();
+        cpu_start = read_cpu_time (thread);
+        allocated_start = read_allocated_bytes (thread);
+    }
+
+    // Called on the worker thread before it moves on to another job
+    synchronized void finished ()
+    {
+        end_nanos = System.nanoTime ();
+
+        if (thread != null)
+        {
+            cpu_time = delta (cpu_start, read_cpu_time (thread));
+            allocated_bytes = delta (allocated_start, read_allocated_bytes (thread));
+            thread = null;
+        }
+    }
+
+    void addStdout (int chars)
+    {
+        stdout_chars.addAndGet (chars);
+    }
+
+    void addStderr (int chars)
+    {
+        stderr_chars.addAndGet (chars);
+    }
+
+    @Override
+    public long getId ()
+    {
+        return (id);
+    }
+
+    @Override
+    public String getOwner ()
+    {
+        return (task.getOwner ());
+    }
+
+    @Override
+    public String getEngineName ()
+    {
+        return (engine_name);
+    }
+
+    @Override
+    public String getSummary ()
+    {
+        return (summary);
+    }
+
+    @Override
+    public CodeEngine.Task getTask ()
+    {
+        return (task);
+    }
+
+    @Override
+    public long getSubmitTime ()
+    {
+        return (submit_time);
+    }
+
+    @Override
+    public synchronized long getQueueWaitTime ()
+    {
+        if (start_nanos >= 0)
+        {
+            return (start_nanos - submit_nanos);
+        }
+
+        // Still queued, or cancelled before it ever started
+        return (((end_nanos >= 0)? end_nanos: System.nanoTime ()) - submit_nanos);
+    }
+
+    @Override
+    public synchronized long getWallTime ()
+    {
+        if (start_nanos < 0)
+        {
+            return (0);
+        }
+        return (((end_nanos >= 0)? end_nanos: System.nanoTime ()) - start_nanos);
+    }
+
+    @Override
+    public synchronized long getCpuTime ()
+    {
+        if (thread != null)
+        {
+            return (delta (cpu_start, read_cpu_time (thread)));
+        }
+        return ((start_nanos < 0)? 0: cpu_time);
+    }
+
+    @Override
+    public synchronized long getAllocatedBytes ()
+    {
+        if (thread != null)
+        {
+            return (delta (allocated_start, read_allocated_bytes (thread)));
+        }
+        return ((start_nanos < 0)? 0: allocated_bytes);
+    }
+
+    @Override
+    public long getStdoutChars ()
+    {
+        return (stdout_chars.get ());
+    }
+
+    @Override
+    public long getStderrChars ()
+    {
+        return (stderr_chars.get ());
+    }
+
+    @Override
+    public String toString ()
+    {
+        return ("queue_wait=" + getQueueWaitTime () / 1000000 + "ms wall=" + getWallTime () / 1000000
+            + "ms cpu=" + getCpuTime () / 1000000 + "ms allocated=" + getAllocatedBytes ()
+            + " stdout=" + getStdoutChars () + " stderr=" + getStderrChars ());
+    }
+}
+
+// EOF
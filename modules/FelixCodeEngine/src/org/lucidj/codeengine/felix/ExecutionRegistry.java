@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.codeengine.felix;
+
+import org.lucidj.api.core.CodeEngineMonitor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/* Keeps the executions still queued or running, in submission order, and
+ * a bounded history of the finished ones, newest first.
+ */
+class ExecutionRegistry implements CodeEngineMonitor
+{
+    private final static int MAX_RECENT = 100;
+
+    private final Set<ExecutionRecord> active = new LinkedHashSet<> ();
+    private final ArrayDeque<ExecutionRecord> recent = new ArrayDeque<> ();
+
+    synchronized void submitted (ExecutionRecord record)
+    {
+        active.add (record);
+    }
+
+    synchronized void finished (ExecutionRecord record)
+    {
+        if (active.remove (record))
+        {
+            recent.addFirst (record);
+
+            while (recent.size () > MAX_RECENT)
+            {
+                recent.removeLast ();
+            }
+        }
+    }
+
+    @Override
+    public synchronized List<Execution> getExecutions ()
+    {
+        List<Execution> executions = new ArrayList<Execution> (active);
+        executions.addAll (recent);
+        return (executions);
+    }
+}
+
+// EOF
@@ -21,39 +21,64 @@ import org.lucidj.api.core.CodeContext;
 import org.lucidj.api.core.CodeEngine;
 import org.lucidj.api.core.CodeEngineBase;
 import org.lucidj.api.core.CodeEngineManager;
+import org.lucidj.api.core.CodeEngineMonitor;
 import org.lucidj.api.core.CodeEngineProvider;
+import org.lucidj.api.core.SecurityEngine;
+import org.lucidj.api.core.SecuritySubject;
 import org.lucidj.api.core.ServiceBindingsManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.script.ScriptEngineFactory;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.util.tracker.BundleTracker;
+import org.apache.felix.ipojo.annotations.Bind;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Context;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Unbind;
 import org.apache.felix.ipojo.annotations.Validate;
 
 @Component (immediate = true, publicFactory = false)
 @Instantiate
 @Provides
-public class FelixCodeEngineManager implements CodeEngineManager
+public class FelixCodeEngineManager implements CodeEngineManager, CodeEngineMonitor
 {
     private final static Logger log = LoggerFactory.getLogger (FelixCodeEngineManager.class);
 
+    // Framework properties to tune the shared executor
+    public final static String PROP_MAX_THREADS = "lucidj.codeengine.maxThreads";
+    public final static String PROP_USER_LIMIT = "lucidj.codeengine.userLimit";
+    public final static String PROP_VIRTUAL_THREADS = "lucidj.codeengine.virtualThreads";
+    public final static String PROP_WARM_POOL = "lucidj.codeengine.warmPool";     // warmPool.<engine name> also warms it
+
+    private final static int DEFAULT_WARM_POOL = 2;
+
+    private final static String SYSTEM_OWNER = "system";
+
     private BundleTracker bundle_cleaner;
+    private volatile CodeExecutor code_executor;
+    private volatile SecurityEngine security_engine;
+    private int warm_pool_size = DEFAULT_WARM_POOL;
+    private volatile ExecutorService warmup_executor;
+    private final ExecutionRegistry execution_registry = new ExecutionRegistry ();
 
     private final Map<String, CodeEngineProvider> name_to_provider = new HashMap<> ();
+    private final Map<String, EnginePool> engine_pools = new ConcurrentHashMap<> ();
 
     @Context
     private BundleContext ctx;
@@ -67,6 +92,15 @@ public class FelixCodeEngineManager implements CodeEngineManager
     @Validate
     private void validate ()
     {
+        int cpus = Runtime.getRuntime ().availableProcessors ();
+        int max_threads = get_int_property (PROP_MAX_THREADS, Math.max (8, cpus * 4));
+        // Runs waiting on a pipe are parked by CodeExecutor, so a low limit can't deadlock piped cells
+        int user_limit = get_int_property (PROP_USER_LIMIT, Math.max (2, cpus));
+        boolean virtual_threads = Boolean.parseBoolean (ctx.getProperty (PROP_VIRTUAL_THREADS));
+
+        code_executor = new CodeExecutor (max_threads, user_limit, virtual_threads);
+        warm_pool_size = get_int_property (PROP_WARM_POOL, DEFAULT_WARM_POOL);
+        warmup_executor = Executors.newSingleThreadExecutor (new CodeExecutor.WorkerFactory ("CodeEngine-Warmup-"));
         log.info ("FelixCodeEngineManager started.");
         bundle_cleaner = new BundleCleanup (ctx);
         bundle_cleaner.open ();
@@ -77,9 +111,78 @@ public class FelixCodeEngineManager implements CodeEngineManager
     {
         bundle_cleaner.close ();
         bundle_cleaner = null;
+
+        for (EnginePool pool: engine_pools.values ())
+        {
+            pool.close ();
+        }
+        engine_pools.clear ();
+        warmup_executor.shutdownNow ();
+        code_executor.shutdown ();
         log.info ("FelixCodeEngineManager terminated.");
     }
 
+    private int get_int_property (String name, int default_value)
+    {
+        String value = ctx.getProperty (name);
+
+        if (value != null)
+        {
+            try
+            {
+                return (Integer.parseInt (value.trim ()));
+            }
+            catch (NumberFormatException e)
+            {
+                log.warn ("Invalid value for {}: {}", name, value);
+            }
+        }
+        return (default_value);
+    }
+
+    @Bind (optional = true, specification = SecurityEngine.class)
+    private void bindSecurityEngine (SecurityEngine engine)
+    {
+        security_engine = engine;
+    }
+
+    @Unbind
+    private void unbindSecurityEngine (SecurityEngine engine)
+    {
+        security_engine = null;
+    }
+
+    CodeExecutor getExecutor ()
+    {
+        return (code_executor);
+    }
+
+    ExecutionRegistry getExecutionRegistry ()
+    {
+        return (execution_registry);
+    }
+
+    String getCurrentOwner ()
+    {
+        SecurityEngine engine = security_engine;
+
+        // Runs are accounted to the user logged on the calling thread
+        if (engine != null)
+        {
+            try
+            {
+                SecuritySubject subject = engine.getSubject ();
+
+                if (subject != null && subject.getPrincipal () != null)
+                {
+                    return (subject.getPrincipal ());
+                }
+            }
+            catch (Exception ignore) {};
+        }
+        return (SYSTEM_OWNER);
+    }
+
     @Override
     public CodeContext newContext (Bundle parentBundle)
     {
@@ -91,6 +194,17 @@ public class FelixCodeEngineManager implements CodeEngineManager
     public void registerEngineName (String shortName, CodeEngineProvider provider)
     {
         name_to_provider.put (shortName, provider);
+
+        // Engines from a previous provider must not be handed out anymore
+        EnginePool old_pool = engine_pools.remove (shortName);
+
+        if (old_pool != null)
+        {
+            old_pool.close ();
+        }
+
+        // Only names configured explicitly are warmed, others just recycle released engines
+        get_pool (shortName).fill ();
     }
 
     @Override
@@ -110,42 +224,120 @@ public class FelixCodeEngineManager implements CodeEngineManager
         }
     }
 
+    @Override // CodeEngineMonitor
+    public List<Execution> getExecutions ()
+    {
+        return (execution_registry.getExecutions ());
+    }
+
     @Override
     public Set<String> getEngines ()
     {
         return (name_to_provider.keySet ());
     }
 
+    private EnginePool get_pool (String shortName)
+    {
+        EnginePool pool = engine_pools.get (shortName);
+
+        if (pool == null)
+        {
+            String warm_property = PROP_WARM_POOL + "." + shortName;
+            boolean warm = ctx.getProperty (warm_property) != null;
+            int size = get_int_property (warm_property, warm_pool_size);
+            EnginePool new_pool = new EnginePool (shortName, size, warm, this, warmup_executor);
+
+            pool = engine_pools.putIfAbsent (shortName, new_pool);
+            pool = (pool == null)? new_pool: pool;
+        }
+        return (pool);
+    }
+
+    private CodeContext new_engine_context (CodeEngineProvider provider)
+    {
+        CodeContext context = newContext (FrameworkUtil.getBundle (provider.getClass ()));
+
+        // Set default bundle/service-aware classloader
+        context.setClassLoader (classManager.getClassLoader ());
+        return (context);
+    }
+
+    // Creates a base engine bound to its own fresh context
+    CodeEngineBase newBaseEngine (String shortName)
+    {
+        CodeEngineProvider provider = name_to_provider.get (shortName);
+
+        if (provider == null)
+        {
+            return (null);
+        }
+
+        CodeContext context = new_engine_context (provider);
+        CodeEngineBase new_engine = provider.newCodeEngine (shortName, context);
+
+        // Default context and optional JSR223 context wrapping
+        new_engine.setContext (context);
+        return (new_engine);
+    }
+
+    // Gives a recycled engine a clean context
+    void resetBaseEngine (CodeEngineBase engine)
+    {
+        engine.setContext (new_engine_context (engine.getProvider ()));
+    }
+
     @Override
     public CodeEngine getEngineByName (String shortName)
     {
-        if (name_to_provider.containsKey (shortName))
+        if (!name_to_provider.containsKey (shortName))
         {
-            // Create engine instance
-            CodeEngineProvider provider = name_to_provider.get (shortName);
-            CodeContext context = newContext (FrameworkUtil.getBundle (provider.getClass ()));
-            CodeEngineBase new_engine = provider.newCodeEngine (shortName, context);
-            CodeEngine full_engine;
+            return (null);
+        }
 
-            if (new_engine instanceof CodeEngine)
-            {
-                // Engine is fully featured
-                full_engine = (CodeEngine)new_engine;
-            }
-            else
-            {
-                // Upgrade base engine to full engine
-                full_engine = new CodeEngineThreading (new_engine);
-            }
+        CodeEngineBase new_engine = get_pool (shortName).take ();
+
+        if (new_engine == null)
+        {
+            // Nothing warm yet, build one right here
+            new_engine = newBaseEngine (shortName);
+        }
+
+        if (new_engine instanceof CodeEngine)
+        {
+            // Engine is fully featured
+            return ((CodeEngine)new_engine);
+        }
+
+        // Upgrade base engine to full engine
+        return (new CodeEngineThreading (new_engine, this, shortName));
+    }
+
+    @Override
+    public void releaseEngine (CodeEngine engine)
+    {
+        if (!(engine instanceof CodeEngineThreading))
+        {
+            // Fully featured engines manage themselves
+            return;
+        }
 
-            // Set default bundle/service-aware classloader
-            context.setClassLoader (classManager.getClassLoader ());
+        CodeEngineThreading wrapper = (CodeEngineThreading)engine;
+        CodeEngine.Task task = wrapper.getTask ();
 
-            // Default context and optional JSR223 context wrapping
-            full_engine.setContext (context);
-            return (full_engine);
+        if (task != null && !task.isDone ())
+        {
+            // Still busy, stop it and let it go
+            task.cancel ();
+            return;
+        }
+
+        CodeEngineBase base_engine = wrapper.release ();
+        EnginePool pool = engine_pools.get (wrapper.getEngineName ());
+
+        if (base_engine != null && pool != null)
+        {
+            pool.recycle (base_engine);
         }
-        return (null);
     }
 
     private void clear_components_by_bundle (Bundle provider_bundle)
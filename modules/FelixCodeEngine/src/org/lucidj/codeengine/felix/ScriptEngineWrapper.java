@@ -21,6 +21,8 @@ import org.lucidj.api.core.CodeEngineBase;
 import org.lucidj.api.core.CodeEngineProvider;
 import org.lucidj.api.core.ManagedObjectInstance;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import java.io.Reader;
@@ -66,6 +68,35 @@ public class ScriptEngineWrapper implements CodeEngineBase
         }
     }
 
+    @Override
+    public Object prepare (String code, CodeContext context)
+    {
+        if (script_engine instanceof Compilable)
+        {
+            try
+            {
+                return (((Compilable)script_engine).compile (code));
+            }
+            catch (Throwable ignore) {};
+        }
+
+        // Either not compilable or failed to, eval() will handle it
+        return (null);
+    }
+
+    @Override
+    public Object evalPrepared (Object prepared, CodeContext context)
+    {
+        try
+        {
+            return (((CompiledScript)prepared).eval (script_context));
+        }
+        catch (Throwable t)
+        {
+            return (t);
+        }
+    }
+
     @Override
     public CodeEngineProvider getProvider ()
     {
@@ -75,6 +106,12 @@ public class ScriptEngineWrapper implements CodeEngineBase
     @Override
     public void setContext (CodeContext context)
     {
+        if (code_context != null)
+        {
+            // Reused engine, start over with empty globals
+            script_engine.setBindings (script_engine.createBindings (), ScriptContext.ENGINE_SCOPE);
+        }
+
         code_context = context;
         script_context = context.wrapContext (script_engine.getContext ());
     }
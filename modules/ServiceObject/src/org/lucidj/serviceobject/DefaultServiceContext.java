@@ -22,22 +22,17 @@ import org.lucidj.api.core.ServiceObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.ref.WeakReference;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -66,11 +61,13 @@ public class DefaultServiceContext implements ServiceContext
 
     private BundleTracker bundle_cleaner;
 
-    private Map<Bundle, Set<WeakReference<Object>>> instance_set_cache = new HashMap<> ();
-    private Map<String, Long> service_classes_to_bundleid = new HashMap<> ();
-    private Map<String, ServiceObject.Provider> service_object_providers = new HashMap<> ();
-    private Map<Long, Map<String, Object>> properties_by_bundleid = new HashMap<> ();
-    private Set<ServiceObject.Listener> listener_list = new HashSet<> ();
+    // All of these are touched from iPOJO and UI threads alike
+    private final InstanceRegistry instance_registry = new InstanceRegistry ();
+    private final Map<String, Long> service_classes_to_bundleid = new ConcurrentHashMap<> ();
+    private final Map<String, ServiceObject.Provider> service_object_providers = new ConcurrentHashMap<> ();
+    private final ConcurrentHashMap<Long, Map<String, Object>> properties_by_bundleid = new ConcurrentHashMap<> ();
+    private final Set<ServiceObject.Listener> listener_list = new CopyOnWriteArraySet<> ();
+    private volatile ClassValue<InjectionPlan> injection_plans = new_injection_plans ();
 
     @Context
     private BundleContext context;
@@ -81,61 +78,52 @@ public class DefaultServiceContext implements ServiceContext
         return (new ServiceLocatorWrapper (context));
     }
 
-    private void call_annotated (Class annotation, Object obj, Object... args)
-        throws Exception
+    private ClassValue<InjectionPlan> new_injection_plans ()
     {
-        for (Method m: obj.getClass ().getDeclaredMethods ())
+        return (new ClassValue<InjectionPlan> ()
         {
-            if (m.isAnnotationPresent (annotation))
+            @Override
+            protected InjectionPlan computeValue (Class<?> type)
             {
-                try
-                {
-                    m.setAccessible (true);
-                    m.invoke (obj, args);
-                }
-                catch (InvocationTargetException e)
-                {
-                    if (e.getCause() instanceof Exception)
-                    {
-                        // Rethrow the actual exception received from the method
-                        throw ((Exception)e.getCause());
-                    }
-                }
-                catch (IllegalAccessException e)
-                {
-                    log.error ("Exception injecting ServiceContext on {}", obj, e);
-                }
-                catch (IllegalArgumentException e)
-                {
-                    log.error ("Illegal arguments calling @{} on {}: {}", annotation.getSimpleName (), obj, e.getMessage ());
-                }
-                catch (Throwable e)
-                {
-                    log.error ("Unhandled exception from Validate on {}", obj, e);
-                }
-                return;
+                return (new InjectionPlan (type));
             }
-        }
+        });
     }
 
-    private void broadcast_event (int type, Object service_object)
+    private void call_annotated (Class annotation, Object obj)
+        throws Exception
     {
-        for (ServiceObject.Listener listener: listener_list)
+        InjectionPlan plan = injection_plans.get (obj.getClass ());
+        MethodHandle m = (annotation == ServiceObject.Validate.class)?
+            plan.getValidateMethod (): plan.getInvalidateMethod ();
+
+        if (m == null)
         {
-            listener.event (type, service_object);
+            return;
+        }
+
+        try
+        {
+            // Signature was checked by the plan, whatever comes out is from the method itself
+            m.invokeExact (obj);
+        }
+        catch (Exception e)
+        {
+            // Rethrow the actual exception received from the method
+            throw (e);
+        }
+        catch (Throwable e)
+        {
+            log.error ("Unhandled exception from @{} on {}", annotation.getSimpleName (), obj, e);
         }
     }
 
-    private synchronized Set<WeakReference<Object>> get_instance_set (Bundle bnd, boolean create)
+    private void broadcast_event (int type, Object service_object)
     {
-        Set<WeakReference<Object>> instance_set = instance_set_cache.get (bnd);
-
-        if (instance_set == null && create)
+        for (ServiceObject.Listener listener: listener_list)
         {
-            instance_set = new HashSet<> ();
-            instance_set_cache.put (bnd, instance_set);
+            listener.event (type, service_object);
         }
-        return (instance_set);
     }
 
     private void store_service_object_ref (Object obj)
@@ -154,14 +142,7 @@ public class DefaultServiceContext implements ServiceContext
             return;
         }
 
-        Set<WeakReference<Object>> instance_set = get_instance_set (obj_bundle, true);
-
-        if (instance_set == null)
-        {
-            log.error ("Object registration failed: {} from {}", obj, obj_bundle);
-            return;
-        }
-        instance_set.add (new WeakReference<> (obj));
+        instance_registry.add (obj_bundle, obj);
     }
 
     private Object internal_wrap_object (Object serviceObject)
@@ -169,21 +150,7 @@ public class DefaultServiceContext implements ServiceContext
         //---------------------------
         // INIT ALL ANNOTATED FIELDS
         //---------------------------
-        for (Field f: serviceObject.getClass ().getDeclaredFields ())
-        {
-            if (f.isAnnotationPresent (ServiceObject.Context.class))
-            {
-                try
-                {
-                    f.setAccessible (true);
-                    f.set (serviceObject, this);
-                }
-                catch (IllegalAccessException e)
-                {
-                    log.error ("Exception injecting ServiceContext on {}", serviceObject, e);
-                }
-            }
-        }
+        injection_plans.get (serviceObject.getClass ()).injectContext (serviceObject, this);
 
         //------------------------------
         // REGISTER THE OBJECT INSTANCE
@@ -207,6 +174,12 @@ public class DefaultServiceContext implements ServiceContext
         return (serviceObject);
     }
 
+    @Override // ServiceContext
+    public Map<String, Integer> getInstanceCounts ()
+    {
+        return (instance_registry.getLiveCounts ());
+    }
+
     @Override // ServiceContext
     public <T> T wrapObject (Class<T> serviceClass, Object serviceObject)
     {
@@ -233,69 +206,16 @@ public class DefaultServiceContext implements ServiceContext
         listener_list.add (listener);
     }
 
-    static Class[] VALID_PARAMETERS = new Class[]
-    {
-        ServiceContext.class,
-        BundleContext.class,
-        Map.class
-    };
-
-    private Constructor find_constructor (Class cls)
-    {
-        Constructor[] constructors = cls.getConstructors ();
-        Constructor best_match = null;
-        int best_match_num_parms = 0;
-
-        for (Constructor c: constructors)
-        {
-            int num_matches = 0;
-
-            // Verify if every parameter on the constructor is compatible
-            for (Class param_class: c.getParameterTypes ())
-            {
-                boolean match_found = false;
-
-                for (int i = 0; i < VALID_PARAMETERS.length; i++)
-                {
-                    if (param_class.isAssignableFrom (VALID_PARAMETERS [i]))
-                    {
-                        match_found = true;
-                        break;
-                    }
-                }
-
-                if (match_found)
-                {
-                    num_matches++;
-                }
-                else
-                {
-                    // We found a incompatible class, this is a wrong match
-                    num_matches = 0;
-                    break;
-                }
-            }
-
-            // Assign only if we have more parameters matching for this constructor
-            if (num_matches > best_match_num_parms)
-            {
-                best_match = c;
-                best_match_num_parms = num_matches;
-            }
-        }
-        // TODO: CACHE THIS?
-        return (best_match);
-    }
-
     private Object create_using_reflection (String objectClassName, Map<String, Object> properties)
     {
-        if (!service_classes_to_bundleid.containsKey (objectClassName))
+        Long bundleid = service_classes_to_bundleid.get (objectClassName);
+
+        if (bundleid == null)
         {
             log.error ("ServiceObject {} not found", objectClassName);
             return (null);
         }
 
-        long bundleid = service_classes_to_bundleid.get (objectClassName);
         Bundle source_bundle = context.getBundle (bundleid);
         Class serviceClass;
 
@@ -313,58 +233,14 @@ public class DefaultServiceContext implements ServiceContext
 
         try
         {
-            Constructor constructor;
-
-            if ((constructor = find_constructor (serviceClass)) != null)
-            {
-                Class[] arg_types = constructor.getParameterTypes ();
-                Object[] arg_list = new Object [arg_types.length];
-
-                log.info ("FOUND constructor = {} / {}", constructor, arg_types);
-
-                // Fill in all the arguments regardless of ordering
-                for (int i = 0; i < arg_list.length; i++)
-                {
-                    if (arg_types [i].equals (ServiceContext.class))
-                    {
-                        arg_list [i] = this;
-                    }
-                    else if (arg_types [i].equals (BundleContext.class))
-                    {
-                        arg_list [i] = source_bundle.getBundleContext ();
-                    }
-                    else if (arg_types [i].equals (Map.class))
-                    {
-                        arg_list [i] = properties;
-                    }
-                    else
-                    {
-                        // Will stay null, but issue a warning anyway
-                        log.warn ("Unknown type inside constructor {}: {}",
-                                objectClassName, arg_types [i].getName ());
-                    }
-                }
-                log.info ("NEW INSTANCE: {} / {}", constructor, arg_list);
-                new_object = constructor.newInstance (arg_list);
-                log.info ("NEW INSTANCE = {}", new_object);
-            }
-            else // TODO: IS THIS NEEDED??
-            {
-                log.info ("_NO_ CONSTRUCTOR");
-                new_object = serviceClass.newInstance ();
-            }
-        }
-        catch (InstantiationException e)
-        {
-            log.error ("Exception creating ServiceObject {}: {}", objectClassName, e.getCause ().toString ());
-        }
-        catch (IllegalAccessException | InvocationTargetException e)
-        {
-            log.error ("Exception creating ServiceObject {}", objectClassName, e);
+            // Constructor and argument layout are found once per class
+            InjectionPlan plan = injection_plans.get (serviceClass);
+            new_object = plan.newInstance (this, source_bundle.getBundleContext (), properties);
+            log.debug ("NEW INSTANCE = {}", new_object);
         }
         catch (Throwable e)
         {
-            log.error ("Unhandled exception creating ServiceObject {}", objectClassName, e);
+            log.error ("Exception creating ServiceObject {}", objectClassName, e);
         }
         return (new_object);
     }
@@ -373,10 +249,10 @@ public class DefaultServiceContext implements ServiceContext
     public Object newServiceObject (String objectClassName, Map<String, Object> properties)
     {
         Object new_object = null;
+        ServiceObject.Provider provider = service_object_providers.get (objectClassName);
 
-        if (service_object_providers.containsKey (objectClassName))
+        if (provider != null)
         {
-            ServiceObject.Provider provider = service_object_providers.get (objectClassName);
             new_object = provider.newObject (objectClassName, properties);
         }
         else
@@ -404,14 +280,18 @@ public class DefaultServiceContext implements ServiceContext
         return (serviceClass.cast (newServiceObject (serviceClass.getName ())));
     }
 
-    private synchronized Map<String, Object> get_properties (long bundle_id)
+    private Map<String, Object> get_properties (long bundle_id)
     {
         Map<String, Object> properties = properties_by_bundleid.get (bundle_id);
 
         if (properties == null)
         {
-            properties = new ConcurrentHashMap<> ();
-            properties_by_bundleid.put (bundle_id, properties);
+            Map<String, Object> new_properties = new ConcurrentHashMap<> ();
+
+            if ((properties = properties_by_bundleid.putIfAbsent (bundle_id, new_properties)) == null)
+            {
+                properties = new_properties;
+            }
         }
         return (properties);
     }
@@ -503,7 +383,7 @@ public class DefaultServiceContext implements ServiceContext
     // TODO: AUTOCLEANUP THESE OBJECTS
     public class BroadcastingServiceTracker extends ServiceTracker
     {
-        private Map<ServiceReference, ServiceReferenceEx> reference_map = new HashMap<> ();
+        private Map<ServiceReference, ServiceReferenceEx> reference_map = new ConcurrentHashMap<> ();
         private ServiceContext.TrackerListener listener;
 
         public BroadcastingServiceTracker (BundleContext context, ServiceContext.TrackerListener listener, Filter filter)
@@ -547,16 +427,25 @@ public class DefaultServiceContext implements ServiceContext
         // CLEAR LISTENERS
         //-----------------
 
-        Iterator<ServiceObject.Listener> it_provider = listener_list.iterator ();
-
-        while (it_provider.hasNext ())
+        for (ServiceObject.Listener entry: listener_list)
         {
-            ServiceObject.Listener entry = it_provider.next ();
-
             if (FrameworkUtil.getBundle (entry.getClass ()) == departing_bundle)
             {
                 log.info ("Cleaning listener: {}", entry);
-                it_provider.remove ();
+                listener_list.remove (entry);
+            }
+        }
+
+        //------------------------------------------
+        // CLEAR PROVIDERS FROM THE DEPARTING BUNDLE
+        //------------------------------------------
+
+        for (Map.Entry<String, ServiceObject.Provider> entry: service_object_providers.entrySet ())
+        {
+            if (FrameworkUtil.getBundle (entry.getValue ().getClass ()) == departing_bundle)
+            {
+                log.info ("Cleaning provider: {}", entry.getValue ());
+                service_object_providers.remove (entry.getKey (), entry.getValue ());
             }
         }
 
@@ -564,36 +453,26 @@ public class DefaultServiceContext implements ServiceContext
         // CLEAR ALL SERVICE OBJECTS FROM DEPARTING BUNDLE
         //-------------------------------------------------
 
-        Set<WeakReference<Object>> instance_set = get_instance_set (departing_bundle, false);
+        List<Object> live_objects = instance_registry.removeBundle (departing_bundle);
 
-        log.info ("bundle_cleanup: instance_set={} size={}",
-            instance_set, instance_set == null? 0: instance_set.size ());
+        log.info ("bundle_cleanup: bundle={} live instances={}", departing_bundle, live_objects.size ());
 
-        if (instance_set != null)
+        for (Object obj: live_objects)
         {
-            instance_set_cache.remove (departing_bundle);
-
-            for (WeakReference<Object> obj_wref: instance_set)
+            log.info ("Cleaning {}", obj);
+            broadcast_event (ServiceObject.INVALIDATE, obj);
+            try
+            {
+                call_annotated (ServiceObject.Invalidate.class, obj);
+            }
+            catch (Exception e)
             {
-                Object obj = obj_wref.get ();
-
-                log.info ("WR: {} obj: {}", obj_wref, obj);
-
-                if (obj != null)
-                {
-                    log.info ("Cleaning {}", obj);
-                    broadcast_event (ServiceObject.INVALIDATE, obj);
-                    try
-                    {
-                        call_annotated (ServiceObject.Invalidate.class, obj);
-                    }
-                    catch (Exception e)
-                    {
-                        log.error ("Exception while invoking @ServiceObject.Invalidate method", e);
-                    }
-                }
+                log.error ("Exception while invoking @ServiceObject.Invalidate method", e);
             }
         }
+
+        // Plans hold handles into the departing classes, rebuild them on demand
+        injection_plans = new_injection_plans ();
     }
 
     @Validate
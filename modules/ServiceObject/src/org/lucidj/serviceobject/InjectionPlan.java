@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.serviceobject;
+
+import org.lucidj.api.core.ServiceContext;
+import org.lucidj.api.core.ServiceObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.BundleContext;
+
+/* Everything newServiceObject() needs to know about a class, found once.
+ *
+ * Holds the chosen constructor and where each of its arguments comes from,
+ * plus handles for the @ServiceObject.Context fields and the Validate and
+ * Invalidate methods. Members are made accessible and unreflected into
+ * MethodHandles here, so creating and wrapping an object afterwards costs
+ * a few direct invocations instead of scanning the class every time.
+ */
+class InjectionPlan
+{
+    private final static Logger log = LoggerFactory.getLogger (InjectionPlan.class);
+
+    final static int ARG_SERVICE_CONTEXT = 0;
+    final static int ARG_BUNDLE_CONTEXT = 1;
+    final static int ARG_PROPERTIES = 2;
+    final static int ARG_NULL = 3;
+
+    private final static Class[] VALID_PARAMETERS = new Class[]
+    {
+        ServiceContext.class,
+        BundleContext.class,
+        Map.class
+    };
+
+    private final static MethodType GENERIC_CONSTRUCTOR = MethodType.methodType (Object.class, Object[].class);
+    private final static MethodType GENERIC_SETTER = MethodType.methodType (void.class, Object.class, Object.class);
+    private final static MethodType GENERIC_CALLBACK = MethodType.methodType (void.class, Object.class);
+
+    private final Class type;
+    private MethodHandle constructor;
+    private int[] arg_layout = new int [0];
+    private final List<MethodHandle> context_setters = new ArrayList<> ();
+    private final MethodHandle validate_method;
+    private final MethodHandle invalidate_method;
+
+    InjectionPlan (Class type)
+    {
+        this.type = type;
+        plan_constructor ();
+        plan_context_fields ();
+        validate_method = find_annotated (ServiceObject.Validate.class);
+        invalidate_method = find_annotated (ServiceObject.Invalidate.class);
+    }
+
+    private static Constructor find_constructor (Class cls)
+    {
+        Constructor[] constructors = cls.getConstructors ();
+        Constructor best_match = null;
+        int best_match_num_parms = 0;
+
+        for (Constructor c: constructors)
+        {
+            int num_matches = 0;
+
+            // Verify if every parameter on the constructor is compatible
+            for (Class param_class: c.getParameterTypes ())
+            {
+                boolean match_found = false;
+
+                for (int i = 0; i < VALID_PARAMETERS.length; i++)
+                {
+                    if (param_class.isAssignableFrom (VALID_PARAMETERS [i]))
+                    {
+                        match_found = true;
+                        break;
+                    }
+                }
+
+                if (match_found)
+                {
+                    num_matches++;
+                }
+                else
+                {
+                    // We found a incompatible class, this is a wrong match
+                    num_matches = 0;
+                    break;
+                }
+            }
+
+            // Assign only if we have more parameters matching for this constructor
+            if (num_matches > best_match_num_parms)
+            {
+                best_match = c;
+                best_match_num_parms = num_matches;
+            }
+        }
+        return (best_match);
+    }
+
+    private void plan_constructor ()
+    {
+        try
+        {
+            Constructor c = find_constructor (type);
+
+            if (c == null)
+            {
+                // Nothing we can fill, fall back to the default constructor
+                c = type.getConstructor ();
+            }
+
+            Class[] arg_types = c.getParameterTypes ();
+            arg_layout = new int [arg_types.length];
+
+            // Fill in all the arguments regardless of ordering
+            for (int i = 0; i < arg_types.length; i++)
+            {
+                if (arg_types [i].equals (ServiceContext.class))
+                {
+                    arg_layout [i] = ARG_SERVICE_CONTEXT;
+                }
+                else if (arg_types [i].equals (BundleContext.class))
+                {
+                    arg_layout [i] = ARG_BUNDLE_CONTEXT;
+                }
+                else if (arg_types [i].equals (Map.class))
+                {
+                    arg_layout [i] = ARG_PROPERTIES;
+                }
+                else
+                {
+                    // Will stay null, but issue a warning anyway
+                    arg_layout [i] = ARG_NULL;
+                    log.warn ("Unknown type inside constructor {}: {}", type.getName (), arg_types [i].getName ());
+                }
+            }
+
+            constructor = MethodHandles.lookup ().unreflectConstructor (c)
+                .asSpreader (Object[].class, arg_types.length)
+                .asType (GENERIC_CONSTRUCTOR);
+            log.debug ("Planned constructor for {}: {}", type.getName (), c);
+        }
+        catch (NoSuchMethodException e)
+        {
+            log.error ("No usable constructor for ServiceObject {}", type.getName ());
+        }
+        catch (IllegalAccessException e)
+        {
+            log.error ("Exception accessing constructor of {}", type.getName (), e);
+        }
+    }
+
+    private void plan_context_fields ()
+    {
+        for (Field f: type.getDeclaredFields ())
+        {
+            if (f.isAnnotationPresent (ServiceObject.Context.class))
+            {
+                try
+                {
+                    f.setAccessible (true);
+                    context_setters.add (MethodHandles.lookup ().unreflectSetter (f).asType (GENERIC_SETTER));
+                }
+                catch (Exception e)
+                {
+                    log.error ("Exception injecting ServiceContext on {}", type.getName (), e);
+                }
+            }
+        }
+    }
+
+    private MethodHandle find_annotated (Class annotation)
+    {
+        for (Method m: type.getDeclaredMethods ())
+        {
+            if (m.isAnnotationPresent (annotation))
+            {
+                if (m.getParameterTypes ().length != 0)
+                {
+                    // Validate and Invalidate are always called without arguments
+                    log.error ("Illegal arguments on @{} {}.{}: none expected",
+                        annotation.getSimpleName (), type.getName (), m.getName ());
+                    return (null);
+                }
+
+                try
+                {
+                    m.setAccessible (true);
+                    MethodHandle handle = MethodHandles.lookup ().unreflect (m);
+
+                    if (Modifier.isStatic (m.getModifiers ()))
+                    {
+                        // Called like the others, just ignoring the object
+                        handle = MethodHandles.dropArguments (handle, 0, Object.class);
+                    }
+                    return (handle.asType (GENERIC_CALLBACK));
+                }
+                catch (Exception e)
+                {
+                    log.error ("Exception accessing @{} on {}", annotation.getSimpleName (), type.getName (), e);
+                }
+
+                // Only the first annotated method is ever called
+                return (null);
+            }
+        }
+        return (null);
+    }
+
+    Object newInstance (ServiceContext service_context, BundleContext bundle_context, Map<String, Object> properties)
+        throws Throwable
+    {
+        if (constructor == null)
+        {
+            return (null);
+        }
+
+        Object[] arg_list = new Object [arg_layout.length];
+
+        for (int i = 0; i < arg_list.length; i++)
+        {
+            switch (arg_layout [i])
+            {
+                case ARG_SERVICE_CONTEXT: arg_list [i] = service_context; break;
+                case ARG_BUNDLE_CONTEXT:  arg_list [i] = bundle_context;  break;
+                case ARG_PROPERTIES:      arg_list [i] = properties;      break;
+            }
+        }
+        return ((Object)constructor.invokeExact (arg_list));
+    }
+
+    void injectContext (Object obj, ServiceContext service_context)
+    {
+        for (MethodHandle setter: context_setters)
+        {
+            try
+            {
+                setter.invokeExact (obj, (Object)service_context);
+            }
+            catch (Throwable e)
+            {
+                log.error ("Exception injecting ServiceContext on {}", obj, e);
+            }
+        }
+    }
+
+    MethodHandle getValidateMethod ()
+    {
+        return (validate_method);
+    }
+
+    MethodHandle getInvalidateMethod ()
+    {
+        return (invalidate_method);
+    }
+}
+
+// EOF
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.serviceobject;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Bundle;
+
+/* Weakly held service object instances, grouped by the bundle of their class.
+ *
+ * Any thread may add instances. References cleared by the GC are queued
+ * and purged on the next call, so the sets only ever hold live objects
+ * plus whatever died since. Removing a bundle hands back its live
+ * instances in one go, so they can all be invalidated.
+ */
+class InstanceRegistry
+{
+    private final ConcurrentHashMap<Bundle, Set<InstanceRef>> instances_by_bundle = new ConcurrentHashMap<> ();
+    private final ReferenceQueue<Object> cleared_refs = new ReferenceQueue<> ();
+
+    void add (Bundle bundle, Object obj)
+    {
+        purge ();
+
+        Set<InstanceRef> instance_set = instances_by_bundle.get (bundle);
+
+        if (instance_set == null)
+        {
+            Set<InstanceRef> new_set = ConcurrentHashMap.newKeySet ();
+
+            if ((instance_set = instances_by_bundle.putIfAbsent (bundle, new_set)) == null)
+            {
+                instance_set = new_set;
+            }
+        }
+        instance_set.add (new InstanceRef (bundle, obj, cleared_refs));
+    }
+
+    // Drops the bundle and returns the instances still alive
+    List<Object> removeBundle (Bundle bundle)
+    {
+        purge ();
+
+        List<Object> live_objects = new ArrayList<> ();
+        Set<InstanceRef> instance_set = instances_by_bundle.remove (bundle);
+
+        if (instance_set != null)
+        {
+            for (InstanceRef ref: instance_set)
+            {
+                Object obj = ref.get ();
+
+                if (obj != null)
+                {
+                    live_objects.add (obj);
+                }
+            }
+        }
+        return (live_objects);
+    }
+
+    // Live instances per class name, for diagnostics
+    Map<String, Integer> getLiveCounts ()
+    {
+        purge ();
+
+        Map<String, Integer> counts = new TreeMap<> ();
+
+        for (Set<InstanceRef> instance_set: instances_by_bundle.values ())
+        {
+            for (InstanceRef ref: instance_set)
+            {
+                if (ref.get () != null)
+                {
+                    Integer count = counts.get (ref.class_name);
+                    counts.put (ref.class_name, (count == null)? 1: count + 1);
+                }
+            }
+        }
+        return (counts);
+    }
+
+    private void purge ()
+    {
+        Reference<?> ref;
+
+        while ((ref = cleared_refs.poll ()) != null)
+        {
+            InstanceRef dead = (InstanceRef)ref;
+            Set<InstanceRef> instance_set = instances_by_bundle.get (dead.bundle);
+
+            if (instance_set != null)
+            {
+                instance_set.remove (dead);
+            }
+        }
+    }
+
+    private static class InstanceRef extends WeakReference<Object>
+    {
+        // The name only, holding the class would pin its bundle after the object is gone
+        final Bundle bundle;
+        final String class_name;
+
+        InstanceRef (Bundle bundle, Object obj, ReferenceQueue<Object> queue)
+        {
+            super (obj, queue);
+            this.bundle = bundle;
+            this.class_name = obj.getClass ().getName ();
+        }
+    }
+}
+
+// EOF
@@ -43,6 +43,8 @@ import java.io.Serializable;
 import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
 	The BeanShell script interpreter.
@@ -729,6 +731,147 @@ public class Interpreter
 		return Primitive.unwrap( retVal );
     }
 
+	/**
+		Parse a script without evaluating it.  The returned ParsedScript
+		can be evaluated repeatedly with eval( ParsedScript, ... ), which
+		skips tokenizing and parsing on every run.
+		<p>
+		Note that unlike eval( Reader, ... ), a parse error anywhere in the
+		script means that no part of it is evaluated.
+
+		@param sourceFileInfo is for information purposes only.  It is used to
+		display error messages.
+		@throws EvalError on parse errors
+	*/
+	public ParsedScript parse( Reader in, String sourceFileInfo )
+		throws EvalError
+	{
+		Interpreter localInterpreter = new Interpreter(
+			in, out, err, false, globalNameSpace, this, sourceFileInfo );
+		List nodes = new ArrayList();
+
+		boolean eof = false;
+		while ( !eof )
+		{
+			try
+			{
+				eof = localInterpreter.Line();
+				if ( localInterpreter.get_jjtree().nodeArity() > 0 )
+				{
+					SimpleNode node =
+						(SimpleNode)localInterpreter.get_jjtree().rootNode();
+
+					// nodes remember from where they were sourced
+					node.setSourceFile( sourceFileInfo );
+					nodes.add( node );
+				}
+			} catch ( ParseException e ) {
+				if ( DEBUG )
+					// show extra "expecting..." info
+					error( e.getMessage(DEBUG) );
+
+				// add the source file info and throw again
+				e.setErrorSourceFile( sourceFileInfo );
+				throw e;
+			} catch ( TokenMgrError e ) {
+				final EvalError evalError = new EvalError("Sourced file: " + sourceFileInfo + " Token Parsing Error: " + e.getMessage(), null, null);
+				evalError.initCause(e);
+				throw evalError;
+			} finally {
+				localInterpreter.get_jjtree().reset();
+			}
+		}
+		return new ParsedScript( nodes, sourceFileInfo );
+	}
+
+	/**
+		Evaluate a script previously parsed with parse(), in the given
+		namespace and with the given output streams.  Behaves like
+		eval( Reader, PrintStream, PrintStream, NameSpace, String ) for
+		the same source.
+
+		@throws EvalError on script problems
+		@throws TargetError on unhandled exceptions from the script
+	*/
+	public Object eval( ParsedScript script, PrintStream pout,
+						PrintStream perr, NameSpace nameSpace )
+		throws EvalError
+	{
+		Object retVal = null;
+		String sourceFileInfo = script.getSourceFileInfo();
+		if ( Interpreter.DEBUG ) debug("eval parsed: nameSpace = "+nameSpace);
+
+		// The local interpreter never reads, it only provides out/err
+		Interpreter localInterpreter =
+			new Interpreter(
+				new StringReader( "" ), pout, perr, false, nameSpace, this,
+				sourceFileInfo );
+
+		CallStack callstack = new CallStack( nameSpace );
+
+		SimpleNode [] nodes = script.getNodes();
+		for ( int i = 0; i < nodes.length; i++ )
+		{
+			SimpleNode node = nodes[i];
+			try
+			{
+				// quick filter for when we're running as a compiler only
+				if ( getSaveClasses()
+					&& !(node instanceof BSHClassDeclaration)
+					&& !(node instanceof BSHImportDeclaration )
+					&& !(node instanceof BSHPackageDeclaration )
+				)
+					continue;
+
+				if ( TRACE )
+					println( "// " +node.getText() );
+
+				retVal = node.eval( callstack, localInterpreter );
+
+				// sanity check during development
+				if ( callstack.depth() > 1 )
+					throw new InterpreterError(
+						"Callstack growing: "+callstack);
+
+				if ( retVal instanceof ReturnControl ) {
+					retVal = ((ReturnControl)retVal).value;
+					break; // non-interactive, return control now
+				}
+
+				if ( localInterpreter.showResults
+					&& retVal != Primitive.VOID )
+					println("<" + retVal + ">");
+			} catch ( InterpreterError e ) {
+				final EvalError evalError = new EvalError("Sourced file: " + sourceFileInfo + " internal Error: " + e.getMessage(), node, callstack);
+				evalError.initCause(e);
+				throw evalError;
+			} catch ( TargetError e ) {
+				// failsafe, set the Line as the origin of the error.
+				if ( e.getNode()==null )
+					e.setNode( node );
+				e.reThrow("Sourced file: "+sourceFileInfo);
+			} catch ( EvalError e) {
+				if ( DEBUG)
+					e.printStackTrace();
+				// failsafe, set the Line as the origin of the error.
+				if ( e.getNode()==null )
+					e.setNode( node );
+				e.reThrow( "Sourced file: "+sourceFileInfo );
+			} catch ( Exception e) {
+				final EvalError evalError = new EvalError("Sourced file: " + sourceFileInfo + " unknown error: " + e.getMessage(), node, callstack);
+				evalError.initCause(e);
+				throw evalError;
+			} finally {
+				// reinit the callstack
+				if ( callstack.depth() > 1 ) {
+					callstack.clear();
+					callstack.push( nameSpace );
+				}
+			}
+		}
+		return Primitive.unwrap( retVal );
+	}
+
 	/**
 		Evaluate the inputstream in this interpreter's global namespace.
 	*/
@@ -0,0 +1,67 @@
+/*****************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one                *
+ * or more contributor license agreements.  See the NOTICE file              *
+ * distributed with this work for additional information                     *
+ * regarding copyright ownership.  The ASF licenses this file                *
+ * to you under the Apache License, Version 2.0 (the                         *
+ * "License"); you may not use this file except in compliance                *
+ * with the License.  You may obtain a copy of the License at                *
+ *                                                                           *
+ *     http://www.apache.org/licenses/LICENSE-2.0                            *
+ *                                                                           *
+ * Unless required by applicable law or agreed to in writing,                *
+ * software distributed under the License is distributed on an               *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY                    *
+ * KIND, either express or implied.  See the License for the                 *
+ * specific language governing permissions and limitations                   *
+ * under the License.                                                        *
+ *                                                                           *
+ *                                                                           *
+ * This file is part of the BeanShell Java Scripting distribution.           *
+ * Documentation and updates may be found at http://www.beanshell.org/       *
+ * Patrick Niemeyer (pat@pat.net)                                            *
+ * Author of Learning Java, O'Reilly & Associates                            *
+ *                                                                           *
+ *****************************************************************************/
+
+
+
+package bsh;
+
+import java.util.List;
+
+/**
+	A script parsed ahead of evaluation by Interpreter.parse().
+	<p>
+	Holds the top level nodes of the script, which may be evaluated any
+	number of times (in any namespace) with Interpreter.eval( ParsedScript,
+	... ) without tokenizing and parsing the source again.  Nodes are
+	re-entrant, so sharing them between evaluations is safe.
+*/
+public final class ParsedScript
+{
+	private final SimpleNode [] nodes;
+	private final String sourceFileInfo;
+
+	ParsedScript( List nodes, String sourceFileInfo )
+	{
+		this.nodes = (SimpleNode [])nodes.toArray( new SimpleNode [nodes.size()] );
+		this.sourceFileInfo = sourceFileInfo;
+	}
+
+	SimpleNode [] getNodes() {
+		return nodes;
+	}
+
+	public String getSourceFileInfo() {
+		return sourceFileInfo;
+	}
+
+	/**
+		The number of top level statements in the script.
+	*/
+	public int getStatementCount() {
+		return nodes.length;
+	}
+}
+
@@ -72,7 +72,10 @@ public class BshScriptEngine extends AbstractScriptEngine
 			new WriterOutputStream( scriptContext.getErrorWriter() ) ) );
 
 		try {
-			if ( source instanceof Reader )
+			if ( source instanceof ParsedScript )
+				return bsh.eval( (ParsedScript) source, bsh.getOut(),
+					bsh.getErr(), contextNameSpace );
+			else if ( source instanceof Reader )
 				return bsh.eval( (Reader) source );
 			else
 				return bsh.eval( (String) source );
@@ -151,7 +154,9 @@ public class BshScriptEngine extends AbstractScriptEngine
 	public CompiledScript compile( String script ) throws
 		ScriptException
 	{
-		return compile( new StringReader( script ) );
+		// Same as eval(), tack on a trailing semicolon if necessary
+		String s = ( script.endsWith(";") ? script : script+";" );
+		return compile( new StringReader( s ) );
 	}
 
 	/**
@@ -171,8 +176,30 @@ public class BshScriptEngine extends AbstractScriptEngine
 	public CompiledScript compile( Reader script ) throws
 		ScriptException
 	{
-		// todo
-		throw new Error("unimplemented");
+		final ParsedScript parsed;
+
+		try {
+			parsed = getInterpreter().parse( script, "compiled script" );
+		} catch ( ParseException e ) {
+			throw new ScriptException(
+				e.toString(), e.getErrorSourceFile(), e.getErrorLineNumber() );
+		} catch ( EvalError e ) {
+			throw new ScriptException(
+				e.toString(), e.getErrorSourceFile(), e.getErrorLineNumber() );
+		}
+
+		return new CompiledScript()
+		{
+			public Object eval( ScriptContext scriptContext )
+				throws ScriptException
+			{
+				return evalSource( parsed, scriptContext );
+			}
+
+			public ScriptEngine getEngine() {
+				return BshScriptEngine.this;
+			}
+		};
 	}
 
 	/**
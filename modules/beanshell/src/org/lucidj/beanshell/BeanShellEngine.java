@@ -18,6 +18,7 @@ package org.lucidj.beanshell;
 
 import bsh.Interpreter;
 import bsh.NameSpace;
+import bsh.ParsedScript;
 import bsh.UtilEvalError;
 import bsh.Variable;
 import org.lucidj.api.core.CodeContext;
@@ -95,6 +96,39 @@ public class BeanShellEngine implements CodeEngineBase
         return (eval (new StringReader (code + ";"), context));
     }
 
+    @Override
+    public Object prepare (String code, CodeContext context)
+    {
+        try
+        {
+            // Same trailing semicolon as eval (String)
+            return (parent_interpreter.parse (new StringReader (code + ";"), context.getContextId ()));
+        }
+        catch (Throwable t)
+        {
+            // Leave it to eval() to report the error as usual
+            return (null);
+        }
+    }
+
+    @Override
+    public Object evalPrepared (Object prepared, CodeContext context)
+    {
+        // Clear mapped service variables
+        service_vars.clear ();
+
+        try
+        {
+            return (parent_interpreter.eval ((ParsedScript)prepared, context.getStdout (), context.getStderr (),
+                                             local_namespace));
+        }
+        catch (Throwable t)
+        {
+            // It's valid to return the throwable object
+            return (t);
+        }
+    }
+
     @Override
     public void validate (ManagedObjectInstance instance)
     {
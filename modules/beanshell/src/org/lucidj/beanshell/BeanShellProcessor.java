@@ -18,6 +18,7 @@ package org.lucidj.beanshell;
 
 import org.lucidj.api.stddef.Aggregate;
 import org.lucidj.api.core.CodeEngine;
+import org.lucidj.api.core.CodeEngineManager;
 import org.lucidj.api.core.ComponentInterface;
 import org.lucidj.api.core.ManagedObject;
 import org.lucidj.api.core.ManagedObjectInstance;
@@ -26,11 +27,14 @@ public class BeanShellProcessor implements ManagedObject, Aggregate
 {
     private ComponentInterface code_container;
     private CodeEngine code_engine;
+    private CodeEngineManager engine_manager;
 
-    public BeanShellProcessor (ComponentInterface code_container, CodeEngine code_engine)
+    public BeanShellProcessor (ComponentInterface code_container, CodeEngine code_engine,
+                               CodeEngineManager engine_manager)
     {
         this.code_container = code_container;
         this.code_engine = code_engine;
+        this.engine_manager = engine_manager;
     }
 
     @Override
@@ -54,7 +58,8 @@ public class BeanShellProcessor implements ManagedObject, Aggregate
     @Override
     public void invalidate (ManagedObjectInstance instance)
     {
-        // Nop
+        // The engine may be reused by other cells
+        engine_manager.releaseEngine (code_engine);
     }
 }
 
@@ -97,7 +97,7 @@ public class BeanShellProcessorProvider implements Serializer, ServiceObject.Pro
         code_container.setProperty (CodeEngine.CODE_ENGINE, code_engine);
 
         // Build the processor
-        return (new BeanShellProcessor (code_container, code_engine));
+        return (new BeanShellProcessor (code_container, code_engine, engineManager));
     }
 
     @Override
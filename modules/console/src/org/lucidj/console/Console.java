@@ -22,26 +22,222 @@ import org.lucidj.api.core.Stdio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Console output kept as an append-only list of immutable lines.
+ *
+ * Every line records the version in which it was added and its offset
+ * into the raw buffer, so observers can ask for only what changed since
+ * the version they last rendered instead of the whole buffer. The only
+ * in-place edit, the stray newline fix, is kept on a short log; when an
+ * observer is older than the log, or the buffer was cleared or truncated,
+ * the delta simply starts over from line zero.
+ *
+ * This is the only place cell output is bounded: past max_contents the
+ * head is kept and the middle elided as output arrives, so a runaway cell
+ * keeps showing its latest lines. Publishes go straight to the event
+ * helper, which coalesces bursts into one renderer update per frame.
+ */
 public class Console implements Stdio, Renderer.Observable
 {
     private final static Logger log = LoggerFactory.getLogger (Console.class);
 
-    private SimpleDateFormat timestamp_format = new SimpleDateFormat ("yyyy-MM-dd HH:mm:ss.SSS");
+    // Larger contents keep their first and last lines, the middle is elided
+    public final static int DEFAULT_MAX_CONTENTS = 1024 * 1024;
+    private final static int MAX_EDITS = 64;
+
+    private final static DateTimeFormatter TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern ("yyyy-MM-dd HH:mm:ss.SSS").withZone (ZoneId.systemDefault ());
 
     private EventHelper event_helper;
-    private StringBuilder contents = new StringBuilder ();
+    private int max_contents;
+
+    // Finished lines never change, except for the stray newline fix
+    private ArrayList<String> lines = new ArrayList<> ();
+    private int[] line_offsets = new int [256];
+    private long[] line_versions = new long [256];
+    private int total_chars = 0;
+    private StringBuilder open_line = new StringBuilder ();
+
+    private long version = 0;
+    private long reset_version = 0;
+    private ArrayDeque<long[]> edits = new ArrayDeque<> ();
+    private long edits_floor = 0;
+
+    private int elided_index = -1;
+    private long elided_lines = 0;
+
+    private long last_timestamp_ms = -1;
+    private String last_timestamp;
 
     private boolean append_line;
     private String last_tag;
     private String last_unfinished_tag;
-    private int last_unfinished_tag_pos;
+    private int last_unfinished_index;
 
     public Console (EventHelper event_helper)
+    {
+        this (event_helper, DEFAULT_MAX_CONTENTS);
+    }
+
+    // A max_contents <= 0 keeps everything
+    public Console (EventHelper event_helper, int max_contents)
     {
         this.event_helper = event_helper;
+        this.max_contents = max_contents;
+    }
+
+    private void publish_update ()
+    {
+        event_helper.publish (this);
+    }
+
+    private String timestamp ()
+    {
+        long now = System.currentTimeMillis ();
+
+        // Bursts of output share the same millisecond most of the time
+        if (now != last_timestamp_ms)
+        {
+            last_timestamp = TIMESTAMP_FORMAT.format (Instant.ofEpochMilli (now));
+            last_timestamp_ms = now;
+        }
+        return (last_timestamp);
+    }
+
+    // Must be called holding the lock
+    private void add_line (String line, long line_version)
+    {
+        int index = lines.size ();
+
+        if (index == line_offsets.length)
+        {
+            line_offsets = Arrays.copyOf (line_offsets, index * 2);
+            line_versions = Arrays.copyOf (line_versions, index * 2);
+        }
+
+        lines.add (line);
+        line_offsets [index] = total_chars;
+        line_versions [index] = line_version;
+        total_chars += line.length ();
+    }
+
+    // Must be called holding the lock
+    private void finish_line (long line_version)
+    {
+        add_line (open_line.toString (), line_version);
+        open_line.setLength (0);
+    }
+
+    // Must be called holding the lock
+    private void rewrite_line (int index, String line, long line_version)
+    {
+        int shift = line.length () - lines.get (index).length ();
+
+        lines.set (index, line);
+        total_chars += shift;
+
+        for (int i = index + 1; i < lines.size (); i++)
+        {
+            line_offsets [i] += shift;
+        }
+
+        edits.addLast (new long[] { line_version, index });
+
+        if (edits.size () > MAX_EDITS)
+        {
+            // Observers older than this can't be patched anymore, they get everything
+            edits_floor = edits.removeFirst ()[0];
+        }
+    }
+
+    // Must be called holding the lock
+    private void rebuild_index (ArrayList<String> new_lines, long line_version)
+    {
+        lines = new ArrayList<> (Math.max (new_lines.size (), 16));
+        line_offsets = new int [Math.max (new_lines.size () * 2, 256)];
+        line_versions = new long [line_offsets.length];
+        total_chars = 0;
+
+        for (String line: new_lines)
+        {
+            add_line (line, line_version);
+        }
+
+        // Nothing before this version can be patched
+        reset_version = line_version;
+        edits.clear ();
+    }
+
+    private void reset_elided ()
+    {
+        elided_index = -1;
+        elided_lines = 0;
+    }
+
+    // First line starting at or past the given offset
+    private int line_at_offset (int offset)
+    {
+        int index = Arrays.binarySearch (line_offsets, 0, lines.size (), offset);
+        return ((index >= 0)? index: -index - 1);
+    }
+
+    // Must be called holding the lock
+    private void limit_contents (long line_version)
+    {
+        if (max_contents <= 0 || total_chars + open_line.length () <= max_contents)
+        {
+            return;
+        }
+
+        int head_end = elided_index;
+
+        if (head_end == -1)
+        {
+            // The head is made of the full lines within the first quarter
+            head_end = line_at_offset (max_contents / 4 + 1) - 1;
+            head_end = Math.max (head_end, 0);
+        }
+
+        // Cut whole lines so that about half of the limit remains as tail
+        int cut_from = (elided_index == -1)? head_end: elided_index + 1;
+        int cut_end = line_at_offset (total_chars + open_line.length () - max_contents / 2);
+
+        if (cut_end <= cut_from)
+        {
+            // A single huge line, nothing we can cut yet
+            return;
+        }
+
+        elided_lines += cut_end - cut_from;
+
+        // No separators here, so the renderer shows the marker as a plain grey line
+        ArrayList<String> new_lines = new ArrayList<> (head_end + 1 + lines.size () - cut_end);
+        new_lines.addAll (lines.subList (0, head_end));
+        new_lines.add ("[... " + elided_lines + " lines elided ...]\n");
+        new_lines.addAll (lines.subList (cut_end, lines.size ()));
+        elided_index = head_end;
+
+        if (last_unfinished_tag != null)
+        {
+            if (last_unfinished_index >= cut_end)
+            {
+                last_unfinished_index -= cut_end - head_end - 1;
+            }
+            else if (last_unfinished_index >= head_end)
+            {
+                // The unfinished line is gone
+                last_unfinished_tag = null;
+            }
+        }
+
+        rebuild_index (new_lines, line_version);
     }
 
     // TODO: AUTODISCOVERY DATA STRUCTURE FROM TEXT (EX. CSV, TABLE, SERIES, ETC)
@@ -57,15 +253,14 @@ public class Console implements Stdio, Renderer.Observable
 
         synchronized (this)
         {
-            if (contents == null)
-            {
-                contents = new StringBuilder (1024);
-            }
+            long next_version = version + 1;
 
             // Special case: stray newline
             if (text.equals ("\n") && tag.equals (last_unfinished_tag))
             {
-                contents.insert (last_unfinished_tag_pos, "\\n");
+                String line = lines.get (last_unfinished_index);
+                line = line.substring (0, line.length () - 1) + "\\n\n";
+                rewrite_line (last_unfinished_index, line, next_version);
                 text = "";
             }
 
@@ -77,13 +272,14 @@ public class Console implements Stdio, Renderer.Observable
                     // call, then sometimes if we do out.println (bla);err.println(bla2) the
                     // out ln arrives after the err output: [OUTTXT][ERRTXT][OUTLN][ERRLN]
                     // So, keep track of the last unfinished line in case we need a simple fix.
-                    last_unfinished_tag_pos = contents.length ();
+                    last_unfinished_index = lines.size ();
                     last_unfinished_tag = last_tag;
 
                     // We don't have a newline following the last tag (OUT, ERR, etc),
                     // but we have different log entries since the tags changed
                     append_line = false;
-                    contents.append ('\n');
+                    open_line.append ('\n');
+                    finish_line (next_version);
                 }
 
                 last_tag = tag;
@@ -99,16 +295,16 @@ public class Console implements Stdio, Renderer.Observable
                 // Avoid inserting timestamp?
                 if (!append_line)
                 {
-                    contents.append (timestamp_format.format (new Date ()));
-                    contents.append (" | ");
-                    contents.append (tag);
-                    contents.append (" | ");
+                    open_line.append (timestamp ());
+                    open_line.append (" | ");
+                    open_line.append (tag);
+                    open_line.append (" | ");
                 }
 
                 // Just one line without \n
                 if (nl == -1)
                 {
-                    contents.append (text);
+                    open_line.append (text);
                     append_line = true;
 
                     if (tag.equals (last_unfinished_tag))
@@ -118,20 +314,21 @@ public class Console implements Stdio, Renderer.Observable
                     break;
                 }
 
-                String slice = text.substring (0, nl);
-                log.debug ("APPEND(+nl):>{}<", slice);
-                contents.append (slice);
-                contents.append ("\\n"); // Literal newline (a real newline is inserted)
-                contents.append ('\n');  // Logical newline (beautifier)
+                log.debug ("APPEND(+nl):>{}<", text.substring (0, nl));
+                open_line.append (text, 0, nl);
+                open_line.append ("\\n"); // Literal newline (a real newline is inserted)
+                open_line.append ('\n');  // Logical newline (beautifier)
+                finish_line (next_version);
                 append_line = false;
 
                 text = text.substring (nl + 1);
             }
-        }
 
-        log.debug ("contents={}", contents.toString ());
+            limit_contents (next_version);
+            version = next_version;
+        }
 
-        event_helper.publish (this);
+        publish_update ();
     }
 
     @Override // Stdio
@@ -155,22 +352,148 @@ public class Console implements Stdio, Renderer.Observable
     @Override // DisplayManager.Clearable
     public void clear ()
     {
-        contents = null;
-        append_line = false;
-        last_unfinished_tag = null;
-        event_helper.publish (this);
+        synchronized (this)
+        {
+            version++;
+            rebuild_index (new ArrayList<String> (), version);
+            open_line = new StringBuilder ();
+            append_line = false;
+            last_unfinished_tag = null;
+            reset_elided ();
+        }
+        publish_update ();
     }
 
     @Override // Stdio
-    public String getRawBuffer ()
+    public synchronized String getRawBuffer ()
     {
-        return (contents == null? "": contents.toString ());
+        StringBuilder contents = new StringBuilder (total_chars + open_line.length ());
+
+        for (String line: lines)
+        {
+            contents.append (line);
+        }
+        contents.append (open_line);
+        return (contents.toString ());
     }
 
     @Override // Stdio
     public void setRawBuffer (String value)
     {
-        contents = new StringBuilder (value);
+        synchronized (this)
+        {
+            ArrayList<String> new_lines = new ArrayList<> ();
+            int start = 0;
+            int nl;
+
+            while ((nl = value.indexOf ('\n', start)) != -1)
+            {
+                new_lines.add (value.substring (start, nl + 1));
+                start = nl + 1;
+            }
+
+            version++;
+            rebuild_index (new_lines, version);
+
+            // Whatever follows the last newline keeps being the open line
+            open_line = new StringBuilder (value.substring (start));
+            reset_elided ();
+        }
+    }
+
+    public synchronized long getVersion ()
+    {
+        return (version);
+    }
+
+    public synchronized int getLineCount ()
+    {
+        return (lines.size ());
+    }
+
+    public synchronized List<String> getLines (int from, int to)
+    {
+        return (new ArrayList<> (lines.subList (from, to)));
+    }
+
+    // Returns the finished lines added or changed after since_version, plus the open line
+    public synchronized Delta getDelta (long since_version)
+    {
+        int from;
+
+        if (since_version < reset_version || since_version < edits_floor)
+        {
+            // Cleared, truncated or too old to patch
+            from = 0;
+        }
+        else
+        {
+            // Line versions only grow, so the new lines are a suffix
+            int low = 0;
+            int high = lines.size ();
+
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+
+                if (line_versions [mid] > since_version)
+                {
+                    high = mid;
+                }
+                else
+                {
+                    low = mid + 1;
+                }
+            }
+            from = low;
+
+            for (long[] edit: edits)
+            {
+                if (edit [0] > since_version && edit [1] < from)
+                {
+                    from = (int)edit [1];
+                }
+            }
+        }
+
+        return (new Delta (version, from, new ArrayList<> (lines.subList (from, lines.size ())), open_line.toString ()));
+    }
+
+    public static class Delta
+    {
+        private final long version;
+        private final int from_index;
+        private final List<String> lines;
+        private final String open_line;
+
+        Delta (long version, int from_index, List<String> lines, String open_line)
+        {
+            this.version = version;
+            this.from_index = from_index;
+            this.lines = lines;
+            this.open_line = open_line;
+        }
+
+        public long getVersion ()
+        {
+            return (version);
+        }
+
+        // Lines before this index are the same the observer already has
+        public int getFromIndex ()
+        {
+            return (from_index);
+        }
+
+        public List<String> getLines ()
+        {
+            return (lines);
+        }
+
+        public String getOpenLine ()
+        {
+            return (open_line);
+        }
     }
 
     @Override // Renderer.Observable
@@ -23,6 +23,8 @@ import org.lucidj.api.core.SerializerInstance;
 import org.lucidj.api.core.ServiceContext;
 import org.lucidj.api.core.ServiceObject;
 import org.lucidj.api.core.Stdio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 
@@ -39,6 +41,8 @@ import org.apache.felix.ipojo.annotations.Validate;
 @Provides
 public class ConsoleProvider implements Serializer, ServiceObject.Provider
 {
+    private final static Logger log = LoggerFactory.getLogger (ConsoleProvider.class);
+
     @Context
     private BundleContext bundleContext;
 
@@ -51,9 +55,28 @@ public class ConsoleProvider implements Serializer, ServiceObject.Provider
     @Requires
     private EventHelper.Factory eventHelperFactory;
 
+    // Framework property, maximum chars kept by each console (<= 0 is unlimited)
+    public final static String PROP_MAX_CONTENTS = "lucidj.console.maxContents";
+
+    private int max_contents = Console.DEFAULT_MAX_CONTENTS;
+
     @Validate
     private void validate ()
     {
+        String value = bundleContext.getProperty (PROP_MAX_CONTENTS);
+
+        if (value != null)
+        {
+            try
+            {
+                max_contents = Integer.parseInt (value.trim ());
+            }
+            catch (NumberFormatException e)
+            {
+                log.warn ("Invalid value for {}: {}", PROP_MAX_CONTENTS, value);
+            }
+        }
+
         serviceContext.register (Console.class, this);
         serviceContext.register (Stdio.class, this);
         serializer.register (Console.class, this);
@@ -79,8 +102,9 @@ public class ConsoleProvider implements Serializer, ServiceObject.Provider
     @Override
     public Object newObject (String objectClassName, Map<String, Object> properties)
     {
-        EventHelper new_event_helper = eventHelperFactory.newInstance ();
-        return (serviceContext.wrapObject (Console.class, new Console (new_event_helper)));
+        // Keep renderer updates off the output dispatcher
+        EventHelper new_event_helper = eventHelperFactory.newAsyncInstance ();
+        return (serviceContext.wrapObject (Console.class, new Console (new_event_helper, max_contents)));
     }
 }
 
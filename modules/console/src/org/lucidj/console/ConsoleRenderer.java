@@ -23,23 +23,48 @@ import org.lucidj.api.vui.Renderer;
 import com.vaadin.server.Sizeable;
 import com.vaadin.shared.ui.label.ContentMode;
 import com.vaadin.ui.AbstractComponent;
+import com.vaadin.ui.CssLayout;
 import com.vaadin.ui.Label;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 
+/* Renders a console as a column of labels, one per chunk of lines.
+ *
+ * Updates fetch only the lines changed since the last rendered version,
+ * so only the last chunk (and any new one) travels to the client. Chunks
+ * are closed after CHUNK_LINES lines to keep each resent label small.
+ */
 public class ConsoleRenderer implements Renderer
 {
-    private Label console_out_err = new Label ();
+    private final static int CHUNK_LINES = 200;
+    private final static String CONSOLE_STYLE =
+        "white-space: pre-wrap; font: 14px/normal 'Monaco', 'Menlo', 'Ubuntu Mono', 'Consolas', 'source-code-pro', monospace";
+
+    private CssLayout console_out_err = new CssLayout ();
+    private Label open_line_label = new_label ();
+    private List<Chunk> chunks = new ArrayList<> ();
+    private long rendered_version = -1;
     private Stdio console;
 
     public ConsoleRenderer ()
     {
         console_out_err.setWidth (100, Sizeable.Unit.PERCENTAGE);
-        console_out_err.setContentMode (ContentMode.HTML);
         console_out_err.setHeightUndefined ();
+        console_out_err.addComponent (open_line_label);
+    }
+
+    private static Label new_label ()
+    {
+        Label label = new Label ();
+        label.setWidth (100, Sizeable.Unit.PERCENTAGE);
+        label.setContentMode (ContentMode.HTML);
+        label.setHeightUndefined ();
+        return (label);
     }
 
     public static boolean isCompatible (Object object)
@@ -51,12 +76,14 @@ public class ConsoleRenderer implements Renderer
     public void objectLinked (Object obj)
     {
         console = (Stdio)obj;
+        reset_chunks ();
     }
 
     @Override
     public void objectUnlinked ()
     {
         console = null;
+        reset_chunks ();
     }
 
     @Override
@@ -122,14 +149,106 @@ public class ConsoleRenderer implements Renderer
         return (parsed_content.toString ());
     }
 
+    private String wrap_html (String contents)
+    {
+        return ("<div style=\"" + CONSOLE_STYLE + "\">" + format_as_html (contents) + "</div>");
+    }
+
+    private void reset_chunks ()
+    {
+        for (Chunk chunk: chunks)
+        {
+            console_out_err.removeComponent (chunk.label);
+        }
+        chunks.clear ();
+        rendered_version = -1;
+    }
+
+    private int rendered_lines ()
+    {
+        return (chunks.isEmpty ()? 0: chunks.get (chunks.size () - 1).end);
+    }
+
+    private void update_chunks (Console.Delta delta)
+    {
+        int from = delta.getFromIndex ();
+        List<String> lines = new ArrayList<> ();
+
+        // Drop the chunks we need to redo, or the last one if still open for more lines
+        while (!chunks.isEmpty ())
+        {
+            Chunk last = chunks.get (chunks.size () - 1);
+
+            if (last.end <= from && (last.lines.size () >= CHUNK_LINES || delta.getLines ().isEmpty ()))
+            {
+                break;
+            }
+
+            if (last.start < from)
+            {
+                // Its first lines are still valid, reuse them
+                lines.addAll (0, last.lines.subList (0, Math.min (from, last.end) - last.start));
+            }
+
+            console_out_err.removeComponent (last.label);
+            chunks.remove (chunks.size () - 1);
+        }
+
+        int start = rendered_lines ();
+        lines.addAll (delta.getLines ());
+
+        for (int i = 0; i < lines.size (); i += CHUNK_LINES)
+        {
+            Chunk chunk = new Chunk (start + i, new ArrayList<> (lines.subList (i, Math.min (i + CHUNK_LINES, lines.size ()))));
+            StringBuilder contents = new StringBuilder ();
+
+            for (String line: chunk.lines)
+            {
+                contents.append (line);
+            }
+
+            chunk.label.setValue (wrap_html (contents.toString ()));
+            console_out_err.addComponent (chunk.label, chunks.size ());
+            chunks.add (chunk);
+        }
+    }
+
     @Override
     public void objectUpdated ()
     {
-        String html =
-            "<div style=\"white-space: pre-wrap; font: 14px/normal 'Monaco', 'Menlo', 'Ubuntu Mono', 'Consolas', 'source-code-pro', monospace\">" +
-                format_as_html (console.getRawBuffer ()) +
-            "</div>";
-        console_out_err.setValue (html);
+        if (console instanceof Console)
+        {
+            Console.Delta delta = ((Console)console).getDelta (rendered_version);
+
+            if (delta.getVersion () == rendered_version)
+            {
+                return;
+            }
+
+            update_chunks (delta);
+            open_line_label.setValue (wrap_html (delta.getOpenLine ()));
+            rendered_version = delta.getVersion ();
+        }
+        else
+        {
+            // Unknown Stdio, render everything
+            open_line_label.setValue (wrap_html (console.getRawBuffer ()));
+        }
+    }
+
+    private static class Chunk
+    {
+        final int start;
+        final int end;
+        final List<String> lines;
+        final Label label = new_label ();
+
+        Chunk (int start, List<String> lines)
+        {
+            this.start = start;
+            this.end = start + lines.size ();
+            this.lines = lines;
+        }
     }
 }
 
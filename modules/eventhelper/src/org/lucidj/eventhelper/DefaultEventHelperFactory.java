@@ -17,59 +17,219 @@
 package org.lucidj.eventhelper;
 
 import org.lucidj.api.core.EventHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
 
 @Component (immediate = true, publicFactory = false)
 @Instantiate
 @Provides
 public class DefaultEventHelperFactory implements EventHelper.Factory
 {
+    private final static Logger log = LoggerFactory.getLogger (DefaultEventHelperFactory.class);
+
+    // Async events published within the same frame are delivered once
+    private final static long FRAME_MS = 20;
+
+    private volatile ScheduledExecutorService dispatcher;
+
+    @Validate
+    private void validate ()
+    {
+        ScheduledThreadPoolExecutor new_dispatcher = new ScheduledThreadPoolExecutor (1, new ThreadFactory ()
+        {
+            @Override
+            public Thread newThread (Runnable r)
+            {
+                Thread thread = new Thread (r, "EventHelper-Dispatcher");
+                thread.setDaemon (true);
+                return (thread);
+            }
+        });
+        new_dispatcher.setRemoveOnCancelPolicy (true);
+        dispatcher = new_dispatcher;
+    }
+
+    @Invalidate
+    private void invalidate ()
+    {
+        ScheduledExecutorService old_dispatcher = dispatcher;
+        dispatcher = null;
+
+        if (old_dispatcher != null)
+        {
+            old_dispatcher.shutdown ();
+        }
+    }
+
     @Override
     public EventHelper newInstance ()
     {
         return (new DefaultEventHelper ());
     }
 
+    @Override
+    public EventHelper newAsyncInstance ()
+    {
+        return (new AsyncEventHelper ());
+    }
+
+    /* Subscribers are held weakly, on a copy-on-write list: publishing
+     * iterates a snapshot without locking, while (un)subscribing, which is
+     * rare, pays for the copy. Dead references are pruned as found.
+     */
     class DefaultEventHelper implements EventHelper
     {
-        private List<WeakReference<EventHelper.Subscriber>> subscribers = null;
+        private final CopyOnWriteArrayList<WeakReference<Subscriber>> subscribers = new CopyOnWriteArrayList<> ();
 
         public void publish (Object event)
         {
-            if (subscribers != null)
+            boolean found_dead = false;
+            Subscriber subscriber;
+
+            for (WeakReference<Subscriber> subscriber_ref: subscribers)
             {
-                Subscriber subscriber;
+                if ((subscriber = subscriber_ref.get ()) == null)
+                {
+                    found_dead = true;
+                    continue;
+                }
 
-                for (WeakReference<Subscriber> subscriber_ref: subscribers)
+                try
                 {
-                    if ((subscriber = subscriber_ref.get ()) != null)
+                    subscriber.event (event);
+                }
+                catch (Throwable t)
+                {
+                    // One broken subscriber shouldn't starve the others
+                    log.error ("Exception delivering event {} to {}", event, subscriber, t);
+                }
+            }
+
+            if (found_dead)
+            {
+                prune (null);
+            }
+        }
+
+        public void subscribe (Subscriber handler)
+        {
+            prune (null);
+            subscribers.add (new WeakReference<> (handler));
+        }
+
+        @Override
+        public void unsubscribe (Subscriber handler)
+        {
+            prune (handler);
+        }
+
+        // Removes the given handler, if any, along with all collected ones
+        private void prune (Subscriber handler)
+        {
+            List<WeakReference<Subscriber>> remove = null;
+
+            for (WeakReference<Subscriber> subscriber_ref: subscribers)
+            {
+                Subscriber subscriber = subscriber_ref.get ();
+
+                if (subscriber == null || subscriber == handler)
+                {
+                    if (remove == null)
                     {
-                        subscriber.event (event);
+                        remove = new ArrayList<> ();
                     }
+                    remove.add (subscriber_ref);
                 }
             }
+
+            if (remove != null)
+            {
+                subscribers.removeAll (remove);
+            }
         }
+    }
 
-        public void subscribe (Subscriber handler)
+    /* Delivers on the shared dispatcher instead of the publishing thread.
+     * Events are queued until the end of the current frame, and publishing
+     * the same event again meanwhile doesn't queue it twice, so a burst of
+     * updates from a busy producer becomes a single notification.
+     */
+    class AsyncEventHelper extends DefaultEventHelper implements Runnable
+    {
+        private final List<Object> pending_events = new ArrayList<> ();
+        private boolean scheduled = false;
+
+        @Override
+        public void publish (Object event)
         {
-            if (subscribers == null)
+            synchronized (pending_events)
+            {
+                for (Object pending: pending_events)
+                {
+                    if (pending == event)
+                    {
+                        // Already on its way
+                        return;
+                    }
+                }
+
+                pending_events.add (event);
+
+                if (scheduled)
+                {
+                    return;
+                }
+                scheduled = true;
+            }
+
+            ScheduledExecutorService current_dispatcher = dispatcher;
+
+            if (current_dispatcher != null)
             {
-                subscribers = new ArrayList<> ();
+                try
+                {
+                    current_dispatcher.schedule (this, FRAME_MS, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                catch (RejectedExecutionException ignore) {};
             }
-            subscribers.add (new WeakReference<> (handler));
+
+            // No dispatcher available, deliver right here
+            run ();
         }
 
         @Override
-        public void unsubscribe (Subscriber handler)
+        public void run ()
         {
+            List<Object> events;
 
+            synchronized (pending_events)
+            {
+                events = new ArrayList<> (pending_events);
+                pending_events.clear ();
+                scheduled = false;
+            }
+
+            for (Object event: events)
+            {
+                super.publish (event);
+            }
         }
     }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.gluon;
+
+public class GluonContent implements CharSequence
+{
+    private final static String LF = System.getProperty ("line.separator");
+
+    // A window over the buffer read by GluonReader, no copies until toString()
+    private char[] buffer;
+    private int start;
+    private int end;
+    private String materialized = null;
+    private int line_fix = -1;          // Unknown until first asked, then 0 or 1
+
+    public GluonContent (char[] buffer, int start, int end)
+    {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+    }
+
+    // With line endings rewritten, all views follow the materialized string
+    @Override
+    public int length ()
+    {
+        if (needs_line_fix ())
+        {
+            return (toString ().length ());
+        }
+        return (end - start);
+    }
+
+    @Override
+    public char charAt (int index)
+    {
+        if (needs_line_fix ())
+        {
+            return (toString ().charAt (index));
+        }
+
+        if (index < 0 || index >= end - start)
+        {
+            throw new IndexOutOfBoundsException ("index " + index + ", length " + (end - start));
+        }
+        return (buffer [start + index]);
+    }
+
+    @Override
+    public CharSequence subSequence (int from, int to)
+    {
+        if (needs_line_fix ())
+        {
+            return (toString ().subSequence (from, to));
+        }
+
+        if (from < 0 || to > end - start || from > to)
+        {
+            throw new IndexOutOfBoundsException ("from " + from + ", to " + to + ", length " + (end - start));
+        }
+        return (new GluonContent (buffer, start + from, start + to));
+    }
+
+    private boolean needs_line_fix ()
+    {
+        if (line_fix == -1)
+        {
+            line_fix = scan_line_fix ()? 1: 0;
+        }
+        return (line_fix == 1);
+    }
+
+    private boolean scan_line_fix ()
+    {
+        if (!LF.equals ("\n"))
+        {
+            // Any line break would be rewritten
+            for (int i = start; i < end; i++)
+            {
+                if (buffer [i] == '\n' || buffer [i] == '\r')
+                {
+                    return (true);
+                }
+            }
+            return (false);
+        }
+
+        for (int i = start; i < end; i++)
+        {
+            if (buffer [i] == '\r')
+            {
+                return (true);
+            }
+        }
+        return (false);
+    }
+
+    @Override
+    public String toString ()
+    {
+        if (materialized != null)
+        {
+            return (materialized);
+        }
+
+        if (!needs_line_fix ())
+        {
+            // Fast path, a single copy
+            materialized = new String (buffer, start, end - start);
+            return (materialized);
+        }
+
+        // Lines are joined using line.separator, the same as the former line-based reader
+        StringBuilder sb = new StringBuilder (end - start);
+        int pos = start;
+
+        while (pos < end)
+        {
+            int line_end = pos;
+
+            while (line_end < end && buffer [line_end] != '\n' && buffer [line_end] != '\r')
+            {
+                line_end++;
+            }
+
+            sb.append (buffer, pos, line_end - pos);
+
+            if (line_end < end)
+            {
+                sb.append (LF);
+                line_end += (buffer [line_end] == '\r' && line_end + 1 < end && buffer [line_end + 1] == '\n')? 2: 1;
+            }
+
+            pos = line_end;
+        }
+
+        materialized = sb.toString ();
+        return (materialized);
+    }
+}
+
+// EOF
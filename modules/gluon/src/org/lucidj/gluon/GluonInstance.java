@@ -31,6 +31,7 @@ public class GluonInstance implements SerializerInstance
 
     private Object backing_object = null;
     private String object_representation = null;
+    private CharSequence object_content = null;
     private String name = null;
     private GluonInstance root = null;
     private GluonInstance next = null;
@@ -289,6 +290,14 @@ public class GluonInstance implements SerializerInstance
     public void setValue (String representation)
     {
         this.object_representation = representation;
+        this.object_content = null;
+    }
+
+    public void setContent (CharSequence content)
+    {
+        // Lazy value: only becomes a String when getValue() is called
+        this.object_representation = null;
+        this.object_content = content;
     }
 
     public void _setValueObject (Object object)
@@ -298,6 +307,10 @@ public class GluonInstance implements SerializerInstance
 
     public String getValue ()
     {
+        if (object_representation == null && object_content != null)
+        {
+            object_representation = object_content.toString ();
+        }
         return (object_representation);
     }
 
@@ -380,6 +393,20 @@ public class GluonInstance implements SerializerInstance
         return (objects.toArray (new Object[0]));
     }
 
+    @Override
+    public SerializerInstance[] getObjectInstances ()
+    {
+        // Unresolved entries, each one is deserialized only on resolveObject()
+        List<GluonInstance> object_entries = getObjectEntries ();
+        return (object_entries.toArray (new SerializerInstance [object_entries.size ()]));
+    }
+
+    @Override
+    public Object resolveObject ()
+    {
+        return (_resolveObject ());
+    }
+
     public List<GluonInstance> getObjectEntries ()
     {
         List<GluonInstance> object_entries = new ArrayList<> ();
@@ -21,6 +21,12 @@ import org.lucidj.api.core.Serializer;
 public interface GluonPrimitive extends Serializer
 {
     boolean match (String charseq);
+
+    // Used to build the first char dispatch table, must be true for any char match() may accept
+    default boolean mayStartWith (char ch)
+    {
+        return (true);
+    }
 }
 
 // EOF
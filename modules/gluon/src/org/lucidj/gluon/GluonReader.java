@@ -19,10 +19,10 @@ package org.lucidj.gluon;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class GluonReader
@@ -30,7 +30,13 @@ public class GluonReader
     private final static Logger log = LoggerFactory.getLogger (GluonReader.class);
 
     private Reader reader;
-    private BufferedReader rd;
+
+    // The whole source is read once; object contents are slices of this buffer
+    private char[] buffer = null;
+    private int length;
+    private int pos;
+    private int line_start;
+    private int line_end;
 
     private String boundary = null;
     private String final_boundary = null;
@@ -38,7 +44,88 @@ public class GluonReader
     public GluonReader (Reader reader)
     {
         this.reader = reader;
-        rd = new BufferedReader (reader);
+    }
+
+    private void fill_buffer ()
+        throws IOException
+    {
+        char[] data = new char [16384];
+        int count = 0;
+        int n;
+
+        while ((n = reader.read (data, count, data.length - count)) != -1)
+        {
+            count += n;
+
+            if (count == data.length)
+            {
+                data = Arrays.copyOf (data, data.length * 2);
+            }
+        }
+
+        buffer = data;
+        length = count;
+        pos = 0;
+    }
+
+    private boolean scan_line ()
+    {
+        // Same line terminators as BufferedReader.readLine(): \n, \r or \r\n
+        if (pos >= length)
+        {
+            return (false);
+        }
+
+        line_start = pos;
+
+        while (pos < length && buffer [pos] != '\n' && buffer [pos] != '\r')
+        {
+            pos++;
+        }
+
+        line_end = pos;
+
+        if (pos < length)
+        {
+            pos += (buffer [pos] == '\r' && pos + 1 < length && buffer [pos + 1] == '\n')? 2: 1;
+        }
+        return (true);
+    }
+
+    private String read_line ()
+    {
+        return (scan_line ()? new String (buffer, line_start, line_end - line_start): null);
+    }
+
+    private boolean line_equals_trimmed (String str)
+    {
+        // Compares without allocating, the same as line.trim ().equals (str)
+        int from = line_start;
+        int to = line_end;
+
+        while (from < to && buffer [from] <= ' ')
+        {
+            from++;
+        }
+
+        while (to > from && buffer [to - 1] <= ' ')
+        {
+            to--;
+        }
+
+        if (to - from != str.length ())
+        {
+            return (false);
+        }
+
+        for (int i = 0; i < to - from; i++)
+        {
+            if (buffer [from + i] != str.charAt (i))
+            {
+                return (false);
+            }
+        }
+        return (true);
     }
 
     // Shamelessly copied from org.apache.felix.framework.util.manifestparser.ManifestParser.java
@@ -56,7 +143,7 @@ public class GluonReader
         int STARTQUOTE = 4;
         int ENDQUOTE = 8;
 
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder (value.length ());
 
         int expecting = (CHAR | DELIMITER | STARTQUOTE);
 
@@ -88,7 +175,7 @@ public class GluonReader
                 {
                     list.add(sb.toString());
                 }
-                sb.delete(0, sb.length());
+                sb.setLength (0);
                 expecting = (CHAR | DELIMITER | STARTQUOTE);
             }
             else if ((c == '"') && ((expecting & STARTQUOTE) > 0))
@@ -234,7 +321,7 @@ public class GluonReader
         String line;
 
         // The properties section comprises properties and comments and ends with a blank line
-        while ((line = rd.readLine()) != null)
+        while ((line = read_line ()) != null)
         {
             line = line.trim ();
 
@@ -265,7 +352,7 @@ public class GluonReader
         throws IOException
     {
         // The first string after the blank line is the section boundary of this file
-        if ((boundary = rd.readLine ()) == null)
+        if ((boundary = read_line ()) == null)
         {
             return (false);
         }
@@ -297,7 +384,10 @@ public class GluonReader
     public boolean readRepresentation (GluonInstance instance)
         throws IOException
     {
-        String lf = System.getProperty ("line.separator");
+        if (buffer == null)
+        {
+            fill_buffer ();
+        }
 
         // Root properties
         if (!read_properties_section (instance))
@@ -346,37 +436,31 @@ public class GluonReader
 
             check_for_embedded_object (reading_object);
 
-            StringBuilder reading_content = null;
-            String line = null;
-            reading_content = new StringBuilder ();
+            // Single scan for the next boundary, the content itself is not copied
+            int content_start = pos;
+            int content_end = pos;
+            boolean end_of_file = true;
 
-            while ((line = rd.readLine ()) != null)
+            while (scan_line ())
             {
-                if (line.trim ().equals (boundary))
+                if (line_equals_trimmed (boundary))
                 {
+                    end_of_file = false;
                     break;
                 }
-                else if (line.trim ().equals (final_boundary))
+                else if (line_equals_trimmed (final_boundary))
                 {
-                    line = null;
                     break;
                 }
 
-                // Append a newline if needed...
-                if (reading_content.length () != 0)
-                {
-                    reading_content.append (lf);
-                }
-
-                // ... and append the line itself
-                reading_content.append (line);
+                content_end = line_end;
             }
 
-            // The content was read
-            reading_object.setValue (reading_content.toString ());
+            // The content was read, it's materialized only if requested
+            reading_object.setContent (new GluonContent (buffer, content_start, content_end));
 
             // End of file?
-            if (line == null)
+            if (end_of_file)
             {
                 break;
             }
@@ -33,14 +33,17 @@ import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -64,6 +67,18 @@ public class GluonSerializer implements SerializerEngine
 
     private Map<String, Serializer> serializer_lookup = new ConcurrentHashMap<> ();
 
+    // Resolved serializers, including misses, dropped whenever the registry changes
+    private final static Resolution NOT_FOUND = new Resolution (null);
+    private volatile ClassValue<Resolution> class_resolution = new_class_resolution ();
+    private Map<String, Resolution> name_resolution = new ConcurrentHashMap<> ();
+
+    // Primitives indexed by the first char of the representations they may match
+    private final static int DISPATCH_SIZE = 128;
+    private volatile GluonPrimitive[][] primitive_dispatch = null;
+
+    // Bumped on every flush, so lookups racing with one don't cache stale results
+    private final AtomicLong resolution_generation = new AtomicLong ();
+
     @Context
     private BundleContext context;
 
@@ -87,25 +102,10 @@ public class GluonSerializer implements SerializerEngine
             // Shortest way, the object knows how to serialize itself
             serializer = (Serializer)obj;
         }
-        else if (serializer_lookup.containsKey (type_name))
-        {
-            // Easy way... the class have an explicit serializer
-            serializer = serializer_lookup.get (type_name);
-        }
         else
         {
-            // Hard way... we need to find some compatible serializer
-            for (Map.Entry<String, Serializer> entry: serializer_lookup.entrySet ())
-            {
-                Class entry_type = classManager.loadClassUsingObject (entry.getValue (), entry.getKey ());
-
-                if (entry_type != null && entry_type.isAssignableFrom (type))
-                {
-                    serializer = entry.getValue ();
-                    serializer_lookup.put (type_name, serializer);
-                    break;
-                }
-            }
+            // Explicit or compatible serializer, resolved once per class
+            serializer = class_resolution.get (type).serializer;
         }
 
         log.debug ("applySerializer: instance={} obj={} serializer={}", instance, obj, serializer);
@@ -193,28 +193,23 @@ public class GluonSerializer implements SerializerEngine
     {
         instance.setValue (representation);
 
-        // We need to walk the deserializers trying to match the representation
-        for (Map.Entry<String, Serializer> entry: serializer_lookup.entrySet ())
+        // We only walk the deserializers that may match the first char of the representation
+        for (GluonPrimitive deserializer: get_primitive_candidates (representation))
         {
-            if (entry.getValue () instanceof GluonPrimitive)
+            if (deserializer.match (representation))
             {
-                GluonPrimitive deserializer = (GluonPrimitive)entry.getValue ();
+                Object obj = deserializer.deserializeObject (instance);
 
-                if (deserializer.match (representation))
+                // Even with a match, eventually the representation might fail and yield null
+                if (obj == null)
                 {
-                    Object obj = deserializer.deserializeObject (instance);
-
-                    // Even with a match, eventually the representation might fail and yield null
-                    if (obj == null)
-                    {
-                        String message =
-                            deserializer.getClass ().getName () +   // The deserializer
-                            " failed to deserialize " +             // The problem
-                            "'" + representation + "'";             // The culprit
-                        throw (new IllegalStateException (message));
-                    }
-                    return (obj);
+                    String message =
+                        deserializer.getClass ().getName () +   // The deserializer
+                        " failed to deserialize " +             // The problem
+                        "'" + representation + "'";             // The culprit
+                    throw (new IllegalStateException (message));
                 }
+                return (obj);
             }
         }
         throw (new IllegalStateException ("No matching serializer for '" + representation + "'"));
@@ -224,38 +219,23 @@ public class GluonSerializer implements SerializerEngine
     {
         GluonObject object_ref = (GluonObject)instance._getProperty (GluonConstants.OBJECT_CLASS);
         String type_name = object_ref.getClassName ();
-        Serializer serializer = null;
+        Resolution resolved = name_resolution.get (type_name);
 
-        if (serializer_lookup.containsKey (type_name))
+        if (resolved == null)
         {
-            // Easy way... the class have an explicit serializer
-            serializer = serializer_lookup.get (type_name);
-        }
-        else
-        {
-            // Hard way... we need to find some compatible serializer
-            for (Map.Entry<String, Serializer> entry: serializer_lookup.entrySet ())
-            {
-                if (entry.getValue () instanceof GluonPrimitive)
-                {
-                    // Skip all primitives
-                    continue;
-                }
-
-                Class type = classManager.loadClassUsingObject (entry.getValue (), type_name);
-                Class entry_type = classManager.loadClassUsingObject (entry.getValue (), entry.getKey ());
+            long generation = resolution_generation.get ();
+            resolved = resolve_by_name (type_name);
+            name_resolution.put (type_name, resolved);
 
-                if (type != null
-                    && entry_type != null
-                    && entry_type.isAssignableFrom (type))
-                {
-                    serializer = entry.getValue ();
-                    serializer_lookup.put (type_name, serializer);
-                    break;
-                }
+            if (resolution_generation.get () != generation)
+            {
+                // The registry changed meanwhile, good for this lookup only
+                name_resolution.remove (type_name, resolved);
             }
         }
 
+        Serializer serializer = resolved.serializer;
+
         if (serializer == null)
         {
             throw (new IllegalStateException ("No matching serializer for '" + type_name + "'"));
@@ -423,6 +403,151 @@ public class GluonSerializer implements SerializerEngine
         }
     }
 
+    //------------------------------------------------------------------------------------------------------
+    // Serializer resolution
+    //------------------------------------------------------------------------------------------------------
+
+    private static class Resolution
+    {
+        final Serializer serializer;
+
+        Resolution (Serializer serializer)
+        {
+            this.serializer = serializer;
+        }
+    }
+
+    private ClassValue<Resolution> new_class_resolution ()
+    {
+        return (new ClassValue<Resolution> ()
+        {
+            @Override
+            protected Resolution computeValue (Class<?> type)
+            {
+                return (resolve_by_class (type));
+            }
+        });
+    }
+
+    private Resolution resolve_by_class (Class type)
+    {
+        Serializer serializer = serializer_lookup.get (type.getName ());
+
+        if (serializer != null)
+        {
+            // Easy way... the class have an explicit serializer
+            return (new Resolution (serializer));
+        }
+
+        // Hard way... we need to find some compatible serializer
+        for (Map.Entry<String, Serializer> entry: serializer_lookup.entrySet ())
+        {
+            Class entry_type = classManager.loadClassUsingObject (entry.getValue (), entry.getKey ());
+
+            if (entry_type != null && entry_type.isAssignableFrom (type))
+            {
+                return (new Resolution (entry.getValue ()));
+            }
+        }
+        return (NOT_FOUND);
+    }
+
+    private Resolution resolve_by_name (String type_name)
+    {
+        Serializer serializer = serializer_lookup.get (type_name);
+
+        if (serializer != null)
+        {
+            // Easy way... the class have an explicit serializer
+            return (new Resolution (serializer));
+        }
+
+        // Hard way... we need to find some compatible serializer
+        for (Map.Entry<String, Serializer> entry: serializer_lookup.entrySet ())
+        {
+            if (entry.getValue () instanceof GluonPrimitive)
+            {
+                // Skip all primitives
+                continue;
+            }
+
+            Class type = classManager.loadClassUsingObject (entry.getValue (), type_name);
+            Class entry_type = classManager.loadClassUsingObject (entry.getValue (), entry.getKey ());
+
+            if (type != null
+                && entry_type != null
+                && entry_type.isAssignableFrom (type))
+            {
+                return (new Resolution (entry.getValue ()));
+            }
+        }
+        return (NOT_FOUND);
+    }
+
+    private GluonPrimitive[] get_primitive_candidates (String representation)
+    {
+        GluonPrimitive[][] dispatch = primitive_dispatch;
+
+        if (dispatch == null)
+        {
+            long generation = resolution_generation.get ();
+            dispatch = build_primitive_dispatch ();
+            primitive_dispatch = dispatch;
+
+            if (resolution_generation.get () != generation)
+            {
+                // Same as above, rebuilt by the next lookup
+                primitive_dispatch = null;
+            }
+        }
+
+        // Empty or non-ASCII representations go through all primitives on the last slot
+        char ch = representation.isEmpty ()? (char)DISPATCH_SIZE: representation.charAt (0);
+        return (dispatch [ch < DISPATCH_SIZE? ch: DISPATCH_SIZE]);
+    }
+
+    private GluonPrimitive[][] build_primitive_dispatch ()
+    {
+        List<GluonPrimitive> primitives = new ArrayList<> ();
+
+        for (Serializer serializer: serializer_lookup.values ())
+        {
+            if (serializer instanceof GluonPrimitive && !primitives.contains (serializer))
+            {
+                primitives.add ((GluonPrimitive)serializer);
+            }
+        }
+
+        GluonPrimitive[][] dispatch = new GluonPrimitive [DISPATCH_SIZE + 1][];
+        List<GluonPrimitive> candidates = new ArrayList<> ();
+
+        for (char ch = 0; ch < DISPATCH_SIZE; ch++)
+        {
+            candidates.clear ();
+
+            for (GluonPrimitive primitive: primitives)
+            {
+                if (primitive.mayStartWith (ch))
+                {
+                    candidates.add (primitive);
+                }
+            }
+            dispatch [ch] = candidates.toArray (new GluonPrimitive [candidates.size ()]);
+        }
+
+        dispatch [DISPATCH_SIZE] = primitives.toArray (new GluonPrimitive [primitives.size ()]);
+        return (dispatch);
+    }
+
+    private void flush_resolution_cache ()
+    {
+        // In-flight lookups may still finish on the old tables, but no one will fetch them again
+        resolution_generation.incrementAndGet ();
+        class_resolution = new_class_resolution ();
+        name_resolution.clear ();
+        primitive_dispatch = null;
+    }
+
     //------------------------------------------------------------------------------------------------------
     // Serializers registry
     //------------------------------------------------------------------------------------------------------
@@ -431,6 +556,7 @@ public class GluonSerializer implements SerializerEngine
     {
         log.debug ("{} register: {} => {}", this, type, serializer);
         serializer_lookup.put (type, serializer);
+        flush_resolution_cache ();
         return (true);
     }
 
@@ -442,13 +568,15 @@ public class GluonSerializer implements SerializerEngine
     @Override
     public boolean register (String type, Serializer serializer)
     {
+        // The type must be resolvable before REGISTERED wakes anyone waiting for it
+        boolean registered = _register (type, serializer);
 
         Bundle service_bundle = FrameworkUtil.getBundle (serializer.getClass ());
         BundleContext service_context = service_bundle.getBundleContext ();
         Dictionary<String, Object> props = new Hashtable<> ();
         props.put ("@type", type);
         service_context.registerService (Serializer.class.getName (), serializer, props);
-        return (_register (type, serializer));
+        return (registered);
     }
 
     @Override
@@ -462,6 +590,7 @@ public class GluonSerializer implements SerializerEngine
     {
         // The serializer itself must call register() to set the classes it handles
         log.info ("Adding serializer: {}", serializer);
+        flush_resolution_cache ();
     }
 
     private void clear_serializers_by_bundle (Bundle bnd)
@@ -478,6 +607,7 @@ public class GluonSerializer implements SerializerEngine
                 it.remove ();
             }
         }
+        flush_resolution_cache ();
     }
 
     @Unbind
@@ -96,6 +96,12 @@ public class GluonUtil
 
     public static void dumpRepresentation (GluonInstance root, String filename)
     {
+        if (!log.isDebugEnabled ())
+        {
+            // The dump materializes and escapes every content, debug only
+            return;
+        }
+
         // TODO: THIS SHOULD BE RECONFIGURABLE
         Path userdir = get_data_dir ();
 
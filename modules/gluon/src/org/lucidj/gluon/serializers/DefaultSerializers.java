@@ -48,6 +48,12 @@ public class DefaultSerializers
         {
             return (charseq.equals ("null"));
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (ch == 'n');
+        }
     }
 
     public static class IntSerializer implements GluonPrimitive
@@ -72,6 +78,12 @@ public class DefaultSerializers
         {
             return (INT_PATTERN.matcher (charseq).matches ());
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (ch == '-' || (ch >= '0' && ch <= '9'));
+        }
     }
 
     public static class StringSerializer implements GluonPrimitive
@@ -95,6 +107,12 @@ public class DefaultSerializers
         {
             return (charseq.startsWith ("\"") && charseq.endsWith ("\""));
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (ch == '"');
+        }
     }
 
     public static class FloatSerializer implements GluonPrimitive
@@ -117,6 +135,12 @@ public class DefaultSerializers
         {
             return (false);
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (false);
+        }
     }
 
     public static class BooleanSerializer implements GluonPrimitive
@@ -186,6 +210,12 @@ public class DefaultSerializers
             // The special shorthand case (any valid java identifier)
             return (is_valid_identifier (charseq));
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (ch == '!' || Character.isJavaIdentifierStart (ch));
+        }
     }
 
     public static class ByteSerializer implements GluonPrimitive
@@ -207,6 +237,12 @@ public class DefaultSerializers
         {
             return (false);
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (false);
+        }
     }
 
     public static class CharSerializer implements GluonPrimitive
@@ -228,6 +264,12 @@ public class DefaultSerializers
         {
             return (false);
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (false);
+        }
     }
 
     public static class ShortSerializer implements GluonPrimitive
@@ -249,6 +291,12 @@ public class DefaultSerializers
         {
             return (false);
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (false);
+        }
     }
 
     public static class LongSerializer implements GluonPrimitive
@@ -274,6 +322,12 @@ public class DefaultSerializers
         {
             return (LONG_PATTERN.matcher (charseq).matches ());
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (ch == '-' || (ch >= '0' && ch <= '9'));
+        }
     }
 
     public static class DoubleSerializer implements GluonPrimitive
@@ -296,6 +350,12 @@ public class DefaultSerializers
         {
             return (false);
         }
+
+        @Override
+        public boolean mayStartWith (char ch)
+        {
+            return (false);
+        }
     }
 }
 
@@ -23,22 +23,28 @@ import org.lucidj.api.core.ManagedObjectProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Dictionary;
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.util.tracker.BundleTracker;
+import org.osgi.util.tracker.ServiceTracker;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Context;
 import org.apache.felix.ipojo.annotations.Instantiate;
@@ -53,52 +59,107 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
 {
     private final static Logger log = LoggerFactory.getLogger (DefaultManagedObjectFactory.class);
 
-    private final String PROP_INSTANCES = "@instances";
     private final String PROP_CLASS     = "@class";
     private final String PROP_PROVIDER  = "@provider";
 
     private BundleTracker bundle_cleaner;
+    private ServiceTracker provider_tracker;
+
+    // Providers by class, best first, replaced as a whole whenever one comes or goes
+    private final Map<String, ServiceReference[]> providers_by_class = new ConcurrentHashMap<> ();
+
+    // Weak instance sets by bundle id, dead entries purged through the queue
+    private final ConcurrentHashMap<Long, Set<InstanceRef>> instances_by_bundle = new ConcurrentHashMap<> ();
+    private final ReferenceQueue<ManagedObjectInstance> cleared_refs = new ReferenceQueue<> ();
 
     @Context
     BundleContext ctx;
 
-    private Set<WeakReference<ManagedObjectInstance>> get_instance_set (long bundle_id)
+    private void add_instance (Bundle bundle, ManagedObjectInstance instance)
     {
-        String filter = "(service.bundleid=" + bundle_id + ")";
-        Set<WeakReference<ManagedObjectInstance>> instance_set = null;
+        if (bundle == null)
+        {
+            // Stray object, nobody will ever clean it up by bundle
+            return;
+        }
+
+        purge_instances ();
+
+        long bundle_id = bundle.getBundleId ();
+        Set<InstanceRef> instance_set = instances_by_bundle.get (bundle_id);
 
-        try
+        if (instance_set == null)
         {
-            ServiceReference[] ref = ctx.getServiceReferences (Set.class.getName (), filter);
+            Set<InstanceRef> new_set = ConcurrentHashMap.newKeySet ();
 
-            if (ref != null)
+            if ((instance_set = instances_by_bundle.putIfAbsent (bundle_id, new_set)) == null)
             {
-                instance_set = (Set<WeakReference<ManagedObjectInstance>>)ref [0].getProperty (PROP_INSTANCES);
+                instance_set = new_set;
+            }
+        }
+        instance_set.add (new InstanceRef (bundle_id, instance, cleared_refs));
+    }
 
-                if (ref.length != 1)
-                {
-                    log.error ("Internal error: More than 1 instance tracker found: {}", ref);
-                }
+    private void purge_instances ()
+    {
+        Reference<? extends ManagedObjectInstance> ref;
+
+        while ((ref = cleared_refs.poll ()) != null)
+        {
+            InstanceRef dead = (InstanceRef)ref;
+            Set<InstanceRef> instance_set = instances_by_bundle.get (dead.bundle_id);
+
+            if (instance_set != null)
+            {
+                instance_set.remove (dead);
             }
         }
-        catch (InvalidSyntaxException ignore) {};
+    }
 
-        if (instance_set == null)
+    private void add_provider (ServiceReference reference)
+    {
+        String clazz = (String)reference.getProperty (PROP_CLASS);
+
+        synchronized (providers_by_class)
         {
-            // No instance set, create on demand
-            instance_set = new HashSet<> ();
-            Dictionary<String, Object> instance_props = new Hashtable<> ();
-            instance_props.put (PROP_INSTANCES, instance_set);
-            Bundle base_bundle = ctx.getBundle (bundle_id);
-            BundleContext base_bundle_context = base_bundle.getBundleContext ();
-            base_bundle_context.registerService (Set.class.getName (), instance_set, instance_props);
+            ServiceReference[] current = providers_by_class.get (clazz);
+            List<ServiceReference> updated = new ArrayList<> ();
+
+            if (current != null)
+            {
+                updated.addAll (Arrays.asList (current));
+            }
+            updated.add (reference);
+
+            // Highest ranking first, then the oldest registration
+            Collections.sort (updated, Collections.reverseOrder ());
+            providers_by_class.put (clazz, updated.toArray (new ServiceReference [0]));
         }
-        return (instance_set);
     }
 
-    private Set<WeakReference<ManagedObjectInstance>> get_instance_set (Bundle bundle)
+    private void remove_provider (ServiceReference reference)
     {
-        return (get_instance_set (bundle.getBundleId ()));
+        String clazz = (String)reference.getProperty (PROP_CLASS);
+
+        synchronized (providers_by_class)
+        {
+            ServiceReference[] current = providers_by_class.get (clazz);
+
+            if (current != null)
+            {
+                List<ServiceReference> updated = new ArrayList<> (Arrays.asList (current));
+                updated.remove (reference);
+
+                if (updated.isEmpty ())
+                {
+                    providers_by_class.remove (clazz);
+                }
+                else
+                {
+                    providers_by_class.put (clazz, updated.toArray (new ServiceReference [0]));
+                }
+            }
+        }
     }
 
     @Override
@@ -113,7 +174,6 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
         // Attach the service to the bundle
         Dictionary<String, Object> props = new Hashtable<> ();
         props.put (PROP_PROVIDER, provider);
-        props.put (PROP_INSTANCES, get_instance_set (provider_bundle));
         props.put (PROP_CLASS, clazz);
         provider_context.registerService (ManagedObjectProvider.class.getName (), provider, props);
 
@@ -133,35 +193,41 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
     public ManagedObjectInstance[] getManagedObjects (String clazz, String filter)
     {
         List<ManagedObjectInstance> found_objects = new ArrayList<> ();
-        String cf = "(" + PROP_CLASS + "=" + clazz + ")";
-        String fp = filter == null? cf: "&" + cf + filter;
-        ServiceReference[] provider_list;
-
-        try
-        {
-            provider_list = ctx.getServiceReferences (ManagedObjectProvider.class.getName (), fp);
-        }
-        catch (InvalidSyntaxException e)
-        {
-            provider_list = null;
-        }
+        ServiceReference[] provider_list = providers_by_class.get (clazz);
+        Filter provider_filter = null;
 
-        log.info ("getManagedObjects clazz={}", clazz);
-        log.info ("provider_list = {}", provider_list);
+        log.debug ("getManagedObjects clazz={} provider_list={}", clazz, provider_list);
 
         if (provider_list == null)
         {
             return (new ManagedObjectInstance[0]);
         }
 
+        if (filter != null)
+        {
+            try
+            {
+                provider_filter = ctx.createFilter (filter);
+            }
+            catch (InvalidSyntaxException e)
+            {
+                return (new ManagedObjectInstance[0]);
+            }
+        }
+
         for (ServiceReference provider_ref: provider_list)
         {
+            if (provider_filter != null && !provider_filter.match (provider_ref))
+            {
+                continue;
+            }
+
             ManagedObjectProvider provider = (ManagedObjectProvider)provider_ref.getProperty (PROP_PROVIDER);
             ManagedObjectInstance ref = new DefaultManagedObjectInstance (null);
             ref.setProperty (ManagedObjectInstance.PROVIDER, provider);
             ref.setProperty (ManagedObjectInstance.CLASS, clazz);
             found_objects.add (ref);
-            log.info ("add ref={}", ref);
+            log.debug ("add ref={}", ref);
         }
 
         return (found_objects.toArray (new ManagedObjectInstance[0]));
@@ -186,12 +252,7 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
         new_instance._setManagedObject (managed_object);
 
         // ...and register it within the class instance set
-        Set<WeakReference<ManagedObjectInstance>> instance_set = get_instance_set (new_instance.getBundle ());
-
-        if (instance_set != null)
-        {
-            instance_set.add (new WeakReference<> ((ManagedObjectInstance)new_instance));
-        }
+        add_instance (new_instance.getBundle (), new_instance);
 
         // Validate ManagedObject
         managed_object.validate (new_instance);
@@ -216,7 +277,7 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
         String ref_class = (String)full_descriptor.getProperty (ManagedObjectInstance.CLASS);
         DefaultManagedObjectInstance new_instance = null;
 
-        log.info ("newInstance: provider={} ref_class={} ref={}", provider, ref_class, full_descriptor);
+        log.debug ("newInstance: provider={} ref_class={} ref={}", provider, ref_class, full_descriptor);
 
         if (provider != null && ref_class != null)
         {
@@ -236,12 +297,7 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
             new_instance._setManagedObject (new_object);
 
             // ...and register it within the class instance set
-            Set<WeakReference<ManagedObjectInstance>> instance_set = get_instance_set (provider_bundle);
-
-            if (instance_set != null)
-            {
-                instance_set.add (new WeakReference<> ((ManagedObjectInstance)new_instance));
-            }
+            add_instance (provider_bundle, new_instance);
 
             // Validate ManagedObject
             new_object.validate (new_instance);
@@ -278,63 +334,13 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
 
     private void clear_components_by_bundle (Bundle provider_bundle)
     {
-//        synchronized (class_to_provider)
-//        {
-//            // Remove all providers/classes originated from provider_bundle
-//            Iterator<Map.Entry<String, Set<ManagedObjectProvider>>> class_it = class_to_provider.entrySet ().iterator ();
-//
-//            while (class_it.hasNext ())
-//            {
-//                Map.Entry<String, Set<ManagedObjectProvider>> class_entry = class_it.next ();
-//                Set<ManagedObjectProvider> providers = class_entry.getValue ();
-//                Iterator<ManagedObjectProvider> it = providers.iterator ();
-//
-//                // Remove all providers originated from provider_bundle
-//                while (it.hasNext ())
-//                {
-//                    ManagedObjectProvider provider = it.next ();
-//
-//                    if (FrameworkUtil.getBundle (provider.getClass ()) == provider_bundle)
-//                    {
-//                        log.info ("Removing provider: {} for {}", provider, provider_bundle);
-//                        it.remove ();
-//                    }
-//                }
-//
-//                // Check whether the set is empty
-//                if (providers.isEmpty ())
-//                {
-//                    // We don't have any providers for the class
-//                    class_it.remove ();
-//                    log.info ("Removed class registration: {}", class_entry.getKey ());
-//                }
-//            }
-//        }
-//
-//        Set<WeakReference<ManagedObjectInstance>> instance_set = bundle_to_set.get (provider_bundle);
-//
-//        // Invalidate all orphaned instances
-//        if (instance_set != null)
-//        {
-//            log.info ("Cleaning {} instances from {}", instance_set.size (), provider_bundle);
-//
-//            for (WeakReference<ManagedObjectInstance> instance_ref: instance_set)
-//            {
-//                ManagedObjectInstance instance = instance_ref.get ();
-//
-//                if (instance != null && instance instanceof DefaultManagedObjectInstance)
-//                {
-//                    ManagedObject dying_object = instance.adapt (ManagedObject.class);
-//
-//                    if (dying_object != null)
-//                    {
-//                        dying_object.invalidate (instance);
-//                    }
-//                }
-//            }
-//
-//            bundle_to_set.remove (provider_bundle);
-//        }
+        // Providers leave with their service registrations, only the instances are ours to drop
+        Set<InstanceRef> instance_set = instances_by_bundle.remove (provider_bundle.getBundleId ());
+
+        if (instance_set != null)
+        {
+            log.info ("Dropped {} instance references from {}", instance_set.size (), provider_bundle);
+        }
     }
 
     @Validate
@@ -343,11 +349,15 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
         log.info ("ManagedObjectFactory started.");
         bundle_cleaner = new BundleCleanup (ctx);
         bundle_cleaner.open ();
+        provider_tracker = new ProviderTracker (ctx);
+        provider_tracker.open ();
     }
 
     @Invalidate
     private void invalidate ()
     {
+        provider_tracker.close ();
+        provider_tracker = null;
         bundle_cleaner.close ();
         bundle_cleaner = null;
         log.info ("ManagedObjectFactory terminated.");
@@ -366,6 +376,44 @@ public class DefaultManagedObjectFactory implements ManagedObjectFactory
             clear_components_by_bundle (bundle);
         }
     }
+
+    class ProviderTracker extends ServiceTracker
+    {
+        ProviderTracker (BundleContext context)
+        {
+            super (context, ManagedObjectProvider.class.getName (), null);
+        }
+
+        @Override
+        public Object addingService (ServiceReference reference)
+        {
+            // Only providers registered through us carry a class
+            if (reference.getProperty (PROP_CLASS) == null)
+            {
+                return (null);
+            }
+
+            add_provider (reference);
+            return (reference.getProperty (PROP_PROVIDER));
+        }
+
+        @Override
+        public void removedService (ServiceReference reference, Object service)
+        {
+            remove_provider (reference);
+        }
+    }
+
+    private static class InstanceRef extends WeakReference<ManagedObjectInstance>
+    {
+        final long bundle_id;
+
+        InstanceRef (long bundle_id, ManagedObjectInstance instance, ReferenceQueue<ManagedObjectInstance> queue)
+        {
+            super (instance, queue);
+            this.bundle_id = bundle_id;
+        }
+    }
 }
 
 // EOF
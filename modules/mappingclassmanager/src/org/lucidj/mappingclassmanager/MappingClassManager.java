@@ -20,18 +20,29 @@ import org.lucidj.api.core.ClassManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.util.tracker.BundleTracker;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Context;
 import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
 
 @Component (immediate = true, publicFactory = false)
 @Instantiate
@@ -40,68 +51,190 @@ public class MappingClassManager implements ClassManager
 {
     private final static Logger log = LoggerFactory.getLogger (MappingClassManager.class);
 
-    private List<Bundle> source_bundles = new ArrayList<> ();
-    private Map<String, Class> class_cache = new HashMap<> ();
-    private Map<String, Bundle> package_to_bundle = new HashMap<> ();
+    private final static int RESOLVED_STATES = Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING;
+    private final static int MAX_NOT_FOUND = 10000;
+
+    // Shared by UI and script threads. Entries from a bundle go away with its wiring,
+    // so we never hand out classes from a stale classloader
+    private final Map<String, Class> class_cache = new ConcurrentHashMap<> ();
+    private final ConcurrentHashMap<String, Bundle> package_exporters = new ConcurrentHashMap<> ();
+    private final Set<String> not_found = ConcurrentHashMap.newKeySet ();
+    private final Map<String, Bundle> package_to_bundle = new ConcurrentHashMap<> ();
+
+    // Bumped on every bundle change, so a scan racing with one doesn't cache stale results
+    private final AtomicLong bundle_generation = new AtomicLong ();
     private ClassLoader class_loader = new MappingClassLoader ();
+    private BundleTracker wiring_tracker;
 
     @Context
     private BundleContext context;
 
+    private static String package_of (String name)
+    {
+        int last_dot = name.lastIndexOf ('.');
+        return ((last_dot == -1)? "": name.substring (0, last_dot));
+    }
+
+    private static Class try_load (Bundle bundle, String name)
+    {
+        try
+        {
+            return (bundle.loadClass (name));
+        }
+        catch (ClassNotFoundException | IllegalStateException ignore)
+        {
+            // Not there, or uninstalled while we looked
+            return (null);
+        }
+    }
+
     private Class locate_and_load_class (String name)
     {
-        log.info ("===> loadClass {} from {}", name, this);
+        Class cls = class_cache.get (name);
 
         // Shortcut
-        if (class_cache.containsKey (name))
+        if (cls != null)
         {
-            Class cls = class_cache.get(name);
-            log.info ("<==CACHE loadClass {} = {}", name, cls);
+            log.trace ("<==CACHE loadClass {} = {}", name, cls);
             return (cls);
         }
 
+        if (not_found.contains (name))
+        {
+            // Already looked everywhere, our own classloader included, since the last bundle change
+            return (null);
+        }
+
         // First try our own bundle classloader
         try
         {
             // We do not cache local classloader
-            Class cls = getClass ().getClassLoader ().loadClass (name);
-            log.info ("<==LCLD loadClass {} = {} from {}", name, cls);
+            cls = getClass ().getClassLoader ().loadClass (name);
+            log.debug ("<==LCLD loadClass {} = {}", name, cls);
             return (cls);
         }
         catch (ClassNotFoundException ignore) {};
 
-        // Try the bundles we already used
-        for (Bundle source: source_bundles)
+        long generation = bundle_generation.get ();
+
+        // Exported packages lead straight to their bundle
+        Bundle exporter = package_exporters.get (package_of (name));
+
+        if (exporter != null && (cls = try_load (exporter, name)) != null)
+        {
+            cache_class (name, cls, generation);
+            log.debug ("<==EXPT loadClass {} = {}", name, cls);
+            return (cls);
+        }
+
+        // Private packages are only found by going looking around
+        for (Bundle attempt: context.getBundles ())
         {
-            try
+            if (attempt != exporter && (cls = try_load (attempt, name)) != null)
             {
-                Class<?> cls = source.loadClass (name);
-                class_cache.put (name, cls);
-                log.info ("<==CBND loadClass {} = {}", name, cls);
+                cache_class (name, cls, generation);
+                log.debug ("<==GBND loadClass {} = {}", name, cls);
                 return (cls);
             }
-            catch (ClassNotFoundException ignore) {};
         }
 
-        // Go looking around
-        for (Bundle attempt: context.getBundles())
+        log.debug ("<!!! loadClass: Not found {}", name);
+
+        // Nothing found, don't pay for the scan again until bundles change
+        if (not_found.size () >= MAX_NOT_FOUND)
         {
-            // We don't care trying again on source_bundles
-            try
+            // Scripts probing names at random should not grow this forever
+            not_found.clear ();
+        }
+        not_found.add (name);
+
+        if (bundle_generation.get () != generation)
+        {
+            // A bundle came or went during the scan, so we can't be sure
+            not_found.remove (name);
+        }
+        return (null);
+    }
+
+    private void cache_class (String name, Class cls, long generation)
+    {
+        class_cache.put (name, cls);
+
+        if (bundle_generation.get () != generation)
+        {
+            // Its bundle may be the one just evicted, good for this lookup only
+            class_cache.remove (name, cls);
+        }
+    }
+
+    private static List<BundleCapability> get_exports (Bundle bundle)
+    {
+        BundleWiring wiring = bundle.adapt (BundleWiring.class);
+
+        if (wiring == null || bundle.getHeaders ().get (Constants.FRAGMENT_HOST) != null)
+        {
+            // Not resolved, or a fragment which exports through its host
+            return (null);
+        }
+        return (wiring.getCapabilities (PackageNamespace.PACKAGE_NAMESPACE));
+    }
+
+    private void index_bundle (Bundle bundle)
+    {
+        List<BundleCapability> exports = get_exports (bundle);
+
+        if (exports != null)
+        {
+            for (BundleCapability export: exports)
             {
-                Class<?> cls = attempt.loadClass (name);
-                source_bundles.add (attempt);
-                class_cache.put (name, cls);
-                log.info ("<==GBND loadClass {} = {}", name, cls);
-                return (cls);
+                String package_name = (String)export.getAttributes ().get (PackageNamespace.PACKAGE_NAMESPACE);
+
+                if (package_name != null)
+                {
+                    // The first exporter wins, others are only used when it leaves
+                    package_exporters.putIfAbsent (package_name, bundle);
+                }
             }
-            catch (ClassNotFoundException ignore) {};
         }
 
-        log.info ("<!!! loadClass: Not found {}", name);
+        // A new bundle may provide what we could not find before
+        bundle_generation.incrementAndGet ();
+        not_found.clear ();
+    }
 
-        // Nothing found
-        return (null);
+    private void evict_bundle (Bundle bundle)
+    {
+        boolean exported_packages = package_exporters.values ().removeAll (Collections.singleton (bundle));
+        int evicted = 0;
+
+        bundle_generation.incrementAndGet ();
+
+        for (Iterator<Class> it = class_cache.values ().iterator (); it.hasNext (); )
+        {
+            if (FrameworkUtil.getBundle (it.next ()) == bundle)
+            {
+                // Would become a zoombie once the bundle is refreshed
+                it.remove ();
+                evicted++;
+            }
+        }
+
+        package_to_bundle.values ().removeAll (Collections.singleton (bundle));
+        not_found.clear ();
+
+        if (exported_packages && wiring_tracker != null)
+        {
+            // Other exporters of the same packages may take over
+            for (Bundle remaining: wiring_tracker.getBundles ())
+            {
+                if (remaining != bundle && remaining != null)
+                {
+                    index_bundle (remaining);
+                }
+            }
+        }
+
+        log.debug ("Evicted {} cached classes from {}", evicted, bundle);
     }
 
     @Override
@@ -139,6 +272,24 @@ public class MappingClassManager implements ClassManager
         return (package_to_bundle);
     }
 
+    @Validate
+    private void validate ()
+    {
+        wiring_tracker = new WiringTracker (context);
+        wiring_tracker.open ();
+    }
+
+    @Invalidate
+    private void invalidate ()
+    {
+        wiring_tracker.close ();
+        wiring_tracker = null;
+        class_cache.clear ();
+        package_exporters.clear ();
+        bundle_generation.incrementAndGet ();
+        not_found.clear ();
+    }
+
     @Override
     public ClassLoader getClassLoader ()
     {
@@ -169,6 +320,28 @@ public class MappingClassManager implements ClassManager
             }
         }
     }
+
+    class WiringTracker extends BundleTracker
+    {
+        WiringTracker (BundleContext context)
+        {
+            super (context, RESOLVED_STATES, null);
+        }
+
+        @Override
+        public Object addingBundle (Bundle bundle, BundleEvent event)
+        {
+            index_bundle (bundle);
+            return (bundle);
+        }
+
+        @Override
+        public void removedBundle (Bundle bundle, BundleEvent event, Object object)
+        {
+            // Unresolved, refreshed or uninstalled, its classloader is on the way out
+            evict_bundle (bundle);
+        }
+    }
 }
 
 // EOF
@@ -77,7 +77,9 @@ public class Plotly implements Renderer.Observable
     public Plotly (EventHelper.Factory eventHelperFactory)
     {
         this.eventHelperFactory = eventHelperFactory;
-        event_helper = eventHelperFactory.newInstance ();
+
+        // Scripts may call update() in a tight loop, let the renderer catch up per frame
+        event_helper = eventHelperFactory.newAsyncInstance ();
     }
 
     public void update ()
@@ -16,6 +16,9 @@
 
 package org.lucidj.plotly_renderer;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 
@@ -64,6 +67,7 @@ public class PlotlyRenderer extends AbstractJavaScriptComponent implements Rende
 
     public void setData (String data)
     {
+        getState().columns = null;
         getState().data = data;
         markAsDirty();
     }
@@ -93,126 +97,47 @@ public class PlotlyRenderer extends AbstractJavaScriptComponent implements Rende
 
         s.append (']');
 
+        getState ().columns = null;
         getState ().data = s.toString ();
     }
 
     public void setData (List<TimeSeries> timeseries_list)
     {
-        int i;
+        //===========================================================
+        // Cada série vai com seu próprio par de colunas x/y, do jeito
+        // que o Plotly desenha um trace: nada de eixo x comum, nada
+        // de NaN preenchendo os pontos que só existem nas outras
+        //===========================================================
 
-        //======================================================
-        // Calcula o número somado de datapoints em todas as TS
-        // e inicializa as referências de trabalho
-        //======================================================
+        Base64.Encoder encoder = Base64.getEncoder ();
+        String[] encoded = new String [timeseries_list.size () * 2];
+        int column = 0;
 
-        int num_timeseries = timeseries_list.size ();
-        int total_length = 0;
-
-        long[][] ts_timestamps = new long [num_timeseries][];
-        double[][] ts_values = new double [num_timeseries][];
-        int[] ts_size = new int [num_timeseries];
-        int[] cursor = new int [num_timeseries];
-
-        for (i = 0; i < timeseries_list.size (); i++)
-        {
-            ts_timestamps [i] = timeseries_list.get (i).getTimeStamps ();
-            ts_values [i] = timeseries_list.get (i).getValues ();
-            ts_size [i] = timeseries_list.get (i).size ();
-            total_length += ts_size [i];
-            cursor [i] = 0;
-        }
-
-        //========================================================
-        // Gera uma tabela com os dados justapostos por timestamp
-        //========================================================
-
-        StringBuilder s = new StringBuilder ();
-
-        boolean more;
-        long lowest_timestamp;
-
-        s.append ('[');
-
-        for (int count = 0; count < total_length; count++)
+        for (TimeSeries ts : timeseries_list)
         {
-            more = false;
-
-            lowest_timestamp = -1;
-
-            //======================================
-            // Busca o menor timestamp não inserido
-            //======================================
-
-            for (i = 0; i < num_timeseries; i++)
-            {
-                if (cursor [i] < ts_size [i])
-                {
-                    more = true;
-
-                    if (lowest_timestamp == -1 || lowest_timestamp > ts_timestamps [i][cursor [i]])
-                    {
-                        lowest_timestamp = ts_timestamps [i][cursor [i]];
-                    }
-                }
-            }
-
-            if (!more)
-            {
-                break;
-            }
-
-            //=========================================================
-            // Copia o valor do datapoint correspondente, se ele
-            // existir no TimeSeries de origem, ou null caso contrário
-            //=========================================================
-
-            if (count > 0)
-            {
-                s.append (',');
-            }
-
-            // Formato: [timestamp,v1,v2,v3,vN]
+            int size = ts.size ();
+            ByteBuffer x = ByteBuffer.allocate (size * 8).order (ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer y = ByteBuffer.allocate (size * 8).order (ByteOrder.LITTLE_ENDIAN);
 
-            s.append ('[');
-            s.append (lowest_timestamp);
-
-            for (i = 0; i < num_timeseries; i++)
+            for (int i = 0; i < size; i++)
             {
-                s.append (',');
-
-                if (cursor [i] < ts_size [i] &&
-                    ts_timestamps [i][cursor [i]] == lowest_timestamp)
-                {
-                    if (Double.isNaN (ts_values [i][cursor [i]]))
-                    {
-                        s.append ("\"NaN\"");
-                    }
-                    else
-                    {
-                        s.append (ts_values [i][cursor [i]]);
-                    }
-                    cursor [i]++;
-                }
-                else
-                {
-                    s.append ("null");
-                }
+                x.putDouble (ts.t (i));
+                y.putDouble (ts.v (i));
             }
 
-            s.append (']');
+            encoded [column++] = encoder.encodeToString (x.array ());
+            encoded [column++] = encoder.encodeToString (y.array ());
         }
 
-        s.append (']');
-
         //========================================
         // Resultado:
-        // s = "[
-        //        [ tstamp1, v1a, v2a, v3a, vNa ],
-        //        [ tstamp2, v1b, v2b, v3b, vNb ],
-        //        [ ... ]
-        //      ]";
+        // columns = [ base64 (Float64Array x1), base64 (Float64Array y1),
+        //             ...,
+        //             base64 (Float64Array xN), base64 (Float64Array yN) ]
         //========================================
-        getState ().data = s.toString ();
+
+        getState ().columns = encoded;
+        getState ().data = "";
     }
 
     @SuppressWarnings("unchecked")
@@ -308,6 +233,7 @@ public class PlotlyRenderer extends AbstractJavaScriptComponent implements Rende
     {
         PlotlyRendererState state = getState ();
 
+        state.columns = null;
         state.data = source.getJsonData ();
         state.layout = source.getJsonLayout ();
     }
@@ -21,6 +21,7 @@ import com.vaadin.shared.ui.JavaScriptComponentState;
 public class PlotlyRendererState extends JavaScriptComponentState
 {
     public String data;
+    public String[] columns;    // Base64 little-endian Float64Array pairs: x1, y1, ..., xN, yN
     public String layout;
 }
 
@@ -18,9 +18,38 @@ org_lucidj_plotly_renderer_PlotlyRenderer = function ()
 {
     var e = this.getElement();
 
+    function decode_column (base64)
+    {
+        var raw = atob (base64);
+        var bytes = new Uint8Array (raw.length);
+
+        for (var i = 0; i < raw.length; i++)
+        {
+            bytes [i] = raw.charCodeAt (i);
+        }
+
+        return (new Float64Array (bytes.buffer));
+    }
+
+    function columns_to_traces (columns)
+    {
+        var traces = [];
+
+        // One x/y pair per series
+        for (var i = 0; i + 1 < columns.length; i += 2)
+        {
+            traces.push ({ x: decode_column (columns [i]), y: decode_column (columns [i + 1]),
+                type: 'scatter', mode: 'lines' });
+        }
+
+        return (traces);
+    }
+
     this.onStateChange = function ()
     {
-        var data = JSON.parse (this.getState ().data);
+        var columns = this.getState ().columns;
+        var data = (columns && columns.length > 0)?
+            columns_to_traces (columns): JSON.parse (this.getState ().data);
         var layout = JSON.parse (this.getState ().layout);
 
         function patch_references (obj)
@@ -51,7 +80,7 @@ org_lucidj_plotly_renderer_PlotlyRenderer = function ()
         }
         else
         {
-            if (this.getState ().data !== '')
+            if (this.getState ().data !== '' || (columns && columns.length > 0))
             {
                 e.data = data;
             }
@@ -19,15 +19,20 @@ package org.lucidj.runtime;
 import org.lucidj.api.stddef.Aggregate;
 import org.lucidj.api.core.ManagedObject;
 import org.lucidj.api.core.ManagedObjectInstance;
+import org.lucidj.api.core.SerializerInstance;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 public class CompositeTask implements ManagedObject, Aggregate
 {
-    private ArrayList<Object> obj_list = new ArrayList<> ();
+    private LazyObjectList obj_list = new LazyObjectList ();
     private HashMap<String, Object> properties = new HashMap<>();
 
+    void addDeferred (SerializerInstance instance)
+    {
+        obj_list.addDeferred (instance);
+    }
+
     @Override // Aggregate
     public Object[] elements ()
     {
@@ -61,10 +61,10 @@ public class CompositeTaskSerializer implements Serializer, ManagedObjectProvide
         ManagedObjectInstance object_instance = objectFactory.newInstance (CompositeTask.class, null);
         CompositeTask composite_task = object_instance.adapt (CompositeTask.class);
 
-        List obj_list = Aggregate.adapt (List.class, composite_task);
-        for (Object object: instance.getObjects ())
+        // The cells are only deserialized when first fetched from the task
+        for (SerializerInstance cell_instance: instance.getObjectInstances ())
         {
-            obj_list.add (object);
+            composite_task.addDeferred (cell_instance);
         }
         return (composite_task);
     }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.lucidj.runtime;
+
+import org.lucidj.api.core.SerializerInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/* An object list whose entries may still be serialized sections.
+ *
+ * Deferred entries keep the unresolved SerializerInstance and are only
+ * deserialized when fetched, so a cell that is never adapted, rendered or
+ * executed never builds its objects (nor the code engine behind them).
+ * Searches compare only resolved entries: nobody can hold a reference to
+ * an object that was never fetched from the list. Each entry resolves
+ * under its own lock, so concurrent fetches of one cell (eg. the UI and a
+ * script thread) share a single object instead of building two, and the
+ * list itself is only touched under the list lock, which an entry takes
+ * (never the other way around) to swap its object in.
+ */
+class LazyObjectList extends AbstractList<Object> implements RandomAccess
+{
+    private final static Logger log = LoggerFactory.getLogger (LazyObjectList.class);
+
+    private ArrayList<Object> items = new ArrayList<> ();
+
+    private static class Deferred
+    {
+        final SerializerInstance instance;
+        private Object object;
+        private boolean resolved = false;
+
+        Deferred (SerializerInstance instance)
+        {
+            this.instance = instance;
+        }
+
+        synchronized Object resolve (LazyObjectList list, int index)
+        {
+            if (!resolved)
+            {
+                log.debug ("Resolving deferred object #{}", index);
+                object = instance.resolveObject ();
+                resolved = true;
+
+                if (list != null)
+                {
+                    list.publish (this, index);
+                }
+            }
+            return (object);
+        }
+    }
+
+    private synchronized void publish (Deferred deferred, int index)
+    {
+        // The entry may have moved (or be gone) while it was resolving
+        if (index >= items.size () || items.get (index) != deferred)
+        {
+            index = items.indexOf (deferred);
+        }
+
+        if (index != -1)
+        {
+            items.set (index, deferred.object);
+        }
+    }
+
+    private static Object resolved (Object item, int index)
+    {
+        return ((item instanceof Deferred)? ((Deferred)item).resolve (null, index): item);
+    }
+
+    public synchronized void addDeferred (SerializerInstance instance)
+    {
+        items.add (new Deferred (instance));
+        modCount++;
+    }
+
+    public synchronized boolean isResolved (int index)
+    {
+        return (!(items.get (index) instanceof Deferred));
+    }
+
+    @Override
+    public Object get (int index)
+    {
+        Object item;
+
+        synchronized (this)
+        {
+            item = items.get (index);
+        }
+
+        // Resolved outside the list lock, deserializing may take a while
+        return ((item instanceof Deferred)? ((Deferred)item).resolve (this, index): item);
+    }
+
+    @Override
+    public synchronized int size ()
+    {
+        return (items.size ());
+    }
+
+    @Override
+    public Object set (int index, Object element)
+    {
+        Object previous;
+
+        synchronized (this)
+        {
+            previous = items.set (index, element);
+        }
+
+        // Out of the list by now, so it resolves without being published
+        return (resolved (previous, index));
+    }
+
+    @Override
+    public synchronized void add (int index, Object element)
+    {
+        items.add (index, element);
+        modCount++;
+    }
+
+    @Override
+    public Object remove (int index)
+    {
+        Object previous;
+
+        synchronized (this)
+        {
+            previous = items.remove (index);
+            modCount++;
+        }
+        return (resolved (previous, index));
+    }
+
+    @Override
+    public synchronized boolean remove (Object o)
+    {
+        int index = items.indexOf (o);
+
+        if (index == -1)
+        {
+            return (false);
+        }
+
+        // Only resolved entries match, so there is nothing to resolve here
+        items.remove (index);
+        modCount++;
+        return (true);
+    }
+
+    @Override
+    public synchronized int indexOf (Object o)
+    {
+        return (items.indexOf (o));
+    }
+
+    @Override
+    public synchronized int lastIndexOf (Object o)
+    {
+        return (items.lastIndexOf (o));
+    }
+
+    @Override
+    public synchronized boolean contains (Object o)
+    {
+        return (items.contains (o));
+    }
+
+    @Override
+    public synchronized void clear ()
+    {
+        items.clear ();
+        modCount++;
+    }
+}
+
+// EOF
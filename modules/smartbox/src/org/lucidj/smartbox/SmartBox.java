@@ -18,12 +18,14 @@ package org.lucidj.smartbox;
 
 import org.lucidj.api.core.CodeContext;
 import org.lucidj.api.core.CodeEngine;
+import org.lucidj.api.core.CodeEngineManager;
 import org.lucidj.api.core.ComponentInterface;
 import org.lucidj.api.core.ComponentState;
 import org.lucidj.api.core.DisplayManager;
 import org.lucidj.api.core.ServiceContext;
 import org.lucidj.api.core.ServiceObject;
 import org.lucidj.api.core.Stdio;
+import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,12 +47,14 @@ public class SmartBox implements ComponentInterface, ComponentState
     private Stdio console;
 
     private ServiceContext serviceContext;
+    private CodeEngineManager engineManager;
     private CodeEngine code_engine;
     private CodeContext code_context;
 
-    public SmartBox (ServiceContext serviceContext)
+    public SmartBox (ServiceContext serviceContext, BundleContext bundleContext)
     {
         this.serviceContext = serviceContext;
+        engineManager = serviceContext.getService (bundleContext, CodeEngineManager.class);
 
         // Create our own DisplayManager
         displayManager = serviceContext.newServiceObject (DisplayManager.class);
@@ -73,11 +77,35 @@ public class SmartBox implements ComponentInterface, ComponentState
         return (console);
     }
 
+    private void release_code_engine ()
+    {
+        if (code_engine != null && engineManager != null)
+        {
+            // The engine may be reused by other cells
+            engineManager.releaseEngine (code_engine);
+        }
+        code_engine = null;
+        code_context = null;
+    }
+
     private void set_code_engine (CodeEngine code_engine)
     {
         log.info ("---> set_code_engine: {}", code_engine);
+
+        if (code_engine == this.code_engine)
+        {
+            return;
+        }
+
+        release_code_engine ();
         this.code_engine = code_engine;
-        code_context = code_engine.getContext ();
+
+        if (code_engine == null)
+        {
+            return;
+        }
+        final CodeContext engine_context = code_engine.getContext ();
+        code_context = engine_context;
 
         log.info ("set_code_engine(): code_engine={} code_context={}", code_engine, code_context);
 
@@ -130,9 +158,10 @@ public class SmartBox implements ComponentInterface, ComponentState
             {
                 setState (TERMINATED);
 
-                if (code_context.haveOutput ())
+                // Read the context of this engine, it may have been released since
+                if (engine_context.haveOutput ())
                 {
-                    Object obj = code_context.getOutput ();
+                    Object obj = engine_context.getOutput ();
 
                     displayManager.showObject (obj);
 
@@ -153,6 +182,9 @@ public class SmartBox implements ComponentInterface, ComponentState
                 // Release screen update if not already done
                 displayManager.release ();
 
+                // Cells reading from us get EOF once they consume what is left
+                displayManager.close ();
+
                 // TODO: ADD LATER SOME AUTO UPDATE
                 //update_pragmas ();
             }
@@ -167,6 +199,13 @@ public class SmartBox implements ComponentInterface, ComponentState
         code_engine.exec (code, null);
     }
 
+    private boolean cancel_task ()
+    {
+        // Either dequeue or interrupt the last run
+        CodeEngine.Task task = code_engine.getTask ();
+        return (task != null && task.cancel ());
+    }
+
     @Override // ComponentInterface
     public Object fireEvent (Object source, Object event)
     {
@@ -188,7 +227,7 @@ public class SmartBox implements ComponentInterface, ComponentState
                 }
                 case "stop":
                 {
-                    code_engine.getThread ().interrupt ();
+                    cancel_task ();
                     break;
                 }
             }
@@ -268,12 +307,15 @@ public class SmartBox implements ComponentInterface, ComponentState
             return (false);
         }
 
-        if (signal == SIGTERM && component_state == RUNNING)
+        // A run waiting on the executor queue counts as running
+        CodeEngine.Task task = code_engine.getTask ();
+        boolean busy = (component_state == RUNNING) || (task != null && task.isQueued ());
+
+        if (signal == SIGTERM && busy)
         {
-            code_engine.getThread ().interrupt ();
-            return (true);
+            return (cancel_task ());
         }
-        else if (signal == SIGSTART && component_state != RUNNING)
+        else if (signal == SIGSTART && !busy)
         {
             eventhandler_run ();
         }
@@ -296,7 +338,7 @@ public class SmartBox implements ComponentInterface, ComponentState
     @ServiceObject.Invalidate
     public void invalidate ()
     {
-        // Nothing for now
+        release_code_engine ();
     }
 }
 
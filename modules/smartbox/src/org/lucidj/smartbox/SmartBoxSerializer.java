@@ -57,6 +57,7 @@ public class SmartBoxSerializer implements Serializer
     private void validate ()
     {
         // TODO: PROMOTE SmartBox TO A SYSTEM COMPONENT (REFER QuercusProcessorProvider EXAMPLE)
+        serviceContext.putService (context, CodeEngineManager.class, engineManager);
         serviceContext.register (SmartBox.class);
         serializer.register (SmartBox.class, this);
     }
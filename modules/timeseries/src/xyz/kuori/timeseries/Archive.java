@@ -17,37 +17,232 @@
 package xyz.kuori.timeseries;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Archive
 {
+    public final static String ROOT_PROPERTY = "xyz.kuori.timeseries.root";
+    public final static String DEFAULT_ROOT = "/srv/lab/var";
+
+    private static Map<String, Archive> open_archives = new ConcurrentHashMap<> ();
+
+    // Handles whose holder was collected without close(), eg. a Query left in a notebook
+    private static ReferenceQueue<Object> dropped_holders = new ReferenceQueue<> ();
+    private static Set<Handle> live_handles = Collections.newSetFromMap (new ConcurrentHashMap<Handle, Boolean> ());
+
     private String storage_path;
+    private volatile Catalog catalog;
+    private int open_count = 0;         // Guarded by open_archives
 
     public Archive (String storage_path)
     {
         this.storage_path = storage_path;
     }
 
-    public List<String> listTimeSeries ()
+    public static String getDefaultRoot ()
+    {
+        return (System.getProperty (ROOT_PROPERTY, DEFAULT_ROOT));
+    }
+
+    public static class Handle extends PhantomReference<Object>
     {
-        List<String> listing = new ArrayList<String>();
+        private final Archive archive;
+        private final AtomicBoolean closed = new AtomicBoolean ();
+
+        private Handle (Object holder, Archive archive)
+        {
+            super (holder, dropped_holders);
+            this.archive = archive;
+        }
+
+        public Archive getArchive ()
+        {
+            return (archive);
+        }
+
+        public void close ()
+        {
+            // Each handle releases the archive once, however many times it is closed
+            if (closed.compareAndSet (false, true))
+            {
+                live_handles.remove (this);
+                archive.release ();
+            }
+        }
+    }
+
+    public static Handle open (String storage_path, Object holder)
+    {
+        release_dropped ();
+
+        // Shared per path, so all queries use the same catalog and watcher
+        synchronized (open_archives)
+        {
+            Archive archive = open_archives.get (storage_path);
+
+            if (archive == null)
+            {
+                archive = new Archive (storage_path);
+                open_archives.put (storage_path, archive);
+            }
+
+            archive.open_count++;
+
+            Handle handle = new Handle (holder, archive);
+            live_handles.add (handle);
+            return (handle);
+        }
+    }
+
+    static void release_dropped ()
+    {
+        Reference<?> dropped;
+
+        while ((dropped = dropped_holders.poll ()) != null)
+        {
+            ((Handle)dropped).close ();
+        }
+    }
+
+    private void release ()
+    {
+        // The last handle stops the catalog watcher
+        synchronized (open_archives)
+        {
+            if (--open_count > 0)
+            {
+                return;
+            }
+
+            open_archives.remove (storage_path, this);
+        }
+
+        Catalog closing;
+
+        synchronized (this)
+        {
+            closing = catalog;
+            catalog = null;
+        }
 
-        File[] filesList = new File (storage_path).listFiles ();
+        if (closing != null)
+        {
+            closing.stopWatching ();
+        }
+    }
 
-        for (File f : filesList)
+    public Catalog getCatalog ()
+    {
+        if (catalog == null)
         {
-            if(f.isDirectory())
+            synchronized (this)
             {
-                // Nada por enquanto
+                if (catalog == null)
+                {
+                    Catalog new_catalog = new Catalog (this);
+                    new_catalog.refresh ();
+                    new_catalog.startWatching ();
+                    catalog = new_catalog;
+                }
             }
-            else if(f.isFile())
+        }
+
+        return (catalog);
+    }
+
+    public String getStoragePath ()
+    {
+        return (storage_path);
+    }
+
+    public File getRollupDir ()
+    {
+        // Hidden entries are skipped by the catalog, so tiers stay out of listings
+        return (new File (storage_path, ".rollup"));
+    }
+
+    public synchronized int buildRollups (String tsname)
+    {
+        try
+        {
+            // Series in subdirectories keep the same relative layout under the rollup dir
+            File rollup_dir = new File (getRollupDir (), tsname).getParentFile ();
+            return (new RollupBuilder ().build (new File (storage_path, tsname), rollup_dir));
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Erro gerando rollups: " + tsname + ": " + e.getMessage ());
+            return (-1);
+        }
+    }
+
+    public synchronized int updateRollups (String tsname)
+    {
+        // Rolls in what was appended since the last build; -1 if never built or failed
+        try
+        {
+            File rollup_dir = new File (getRollupDir (), tsname).getParentFile ();
+            return (new RollupBuilder ().update (new File (storage_path, tsname), rollup_dir));
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Erro atualizando rollups: " + tsname + ": " + e.getMessage ());
+            return (-1);
+        }
+    }
+
+    public int compress (String tsname)
+    {
+        File archive = new File (storage_path, tsname);
+        File tmp_file = new File (archive.getParentFile (), "." + archive.getName () + ".tmp");
+
+        try
+        {
+            if (!CompressedArchive.isCompressed (archive))
             {
-                listing.add (f.getName());
+                // Same name, so readers switch formats transparently
+                CompressedArchive.compress (archive, tmp_file);
+                Files.move (tmp_file.toPath (), archive.toPath (),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             }
+            return (CompressedArchive.open (archive).size ());
+        }
+        catch (IOException e)
+        {
+            tmp_file.delete ();
+            System.err.println ("Erro comprimindo arquivo: " + tsname + ": " + e.getMessage ());
+            return (-1);
         }
+    }
+
+    public RollupTier loadRollup (String tsname, long step)
+    {
+        File tier_file = new File (getRollupDir (), RollupBuilder.tierName (tsname, step));
+        RollupTier tier = new RollupTier (step);
 
-        return (listing);
+        if (!tier_file.isFile () || tier.load (tier_file) == -1)
+        {
+            return (null);
+        }
+
+        return (tier);
+    }
+
+    public List<String> listTimeSeries ()
+    {
+        // Served from the catalog, including series inside subdirectories
+        return (getCatalog ().listNames ());
     }
 
     public static String info ()
@@ -0,0 +1,719 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/* Persistent index of the series stored under an Archive.
+ *
+ * Every series file (including those inside subdirectories, named with
+ * '/' separators) gets an Entry with its time range, record count and
+ * value range. The segments of a TimeSeriesWriter series are folded
+ * into one Entry named after the series. Entries are keyed by name in a sorted map, so listing by
+ * prefix or by time overlap never opens the series themselves. Files
+ * are only rescanned when their size or modification time changes (and
+ * a file that was only appended to has just its new records scanned), the
+ * index is saved to the hidden ".catalog" file, and an optional
+ * WatchService thread keeps it current as files come and go. The same
+ * thread brings the rollup tiers of changed series up to date, batched
+ * a few seconds behind the writes, so queries never build them.
+ */
+public class Catalog
+{
+    public final static String CATALOG_FILE = ".catalog";
+
+    private final static int CATALOG_MAGIC = 0x4b544331;    // "KTC1"
+    private final static long RELEASE_CHECK_MS = 10000;
+    private final static long ROLLUP_DELAY_MS = 5000;
+
+    private Archive archive;
+    private Path root;
+    private File catalog_file;
+    private ConcurrentNavigableMap<String, Entry> entries = new ConcurrentSkipListMap<> ();
+    private volatile WatchService watch_service;
+    private volatile boolean dirty = false;
+
+    // Per-segment stats of segmented series, so only changed segments are rescanned
+    private Map<String, Map<String, Entry>> segment_stats = new ConcurrentHashMap<> ();
+
+    // Series changed since their rollups were last updated
+    private Set<String> stale_rollups = new HashSet<> ();       // Guarded by this
+    private long rollups_due;                                   // Guarded by this
+
+    public static class Entry
+    {
+        private String name;
+        private long file_size;
+        private long last_modified;
+        private int record_count;
+        private long min_timestamp;
+        private long max_timestamp;
+        private double min_value;
+        private double max_value;
+
+        public String getName ()
+        {
+            return (name);
+        }
+
+        public int getRecordCount ()
+        {
+            return (record_count);
+        }
+
+        public long getMinTimeStamp ()
+        {
+            return (min_timestamp);
+        }
+
+        public long getMaxTimeStamp ()
+        {
+            return (max_timestamp);
+        }
+
+        public double getMinValue ()
+        {
+            return (min_value);
+        }
+
+        public double getMaxValue ()
+        {
+            return (max_value);
+        }
+
+        public boolean overlaps (long ts_start, long ts_end)
+        {
+            return (record_count > 0 && min_timestamp <= ts_end && max_timestamp >= ts_start);
+        }
+
+        public String toString ()
+        {
+            return (name + " [" + min_timestamp + ".." + max_timestamp + "] " + record_count + " records");
+        }
+    }
+
+    public Catalog (Archive archive)
+    {
+        this.archive = archive;
+        root = new File (archive.getStoragePath ()).toPath ();
+        catalog_file = new File (archive.getStoragePath (), CATALOG_FILE);
+        load_index ();
+    }
+
+    public static boolean isSeriesFile (String file_name)
+    {
+        // Hidden files hold catalog/rollups; segments, even .part, belong to their series
+        return (!file_name.startsWith ("."));
+    }
+
+    private String name_of (Path file)
+    {
+        return (root.relativize (file).toString ().replace (File.separatorChar, '/'));
+    }
+
+    private String series_name_of (Path file)
+    {
+        String name = name_of (file);
+        String file_name = file.getFileName ().toString ();
+        String series_name = TimeSeriesWriter.getSeriesName (file_name);
+
+        if (series_name == null)
+        {
+            return (name);
+        }
+
+        return (name.substring (0, name.length () - file_name.length ()) + series_name);
+    }
+
+    private Entry new_entry (String name, long file_size, long last_modified)
+    {
+        Entry entry = new Entry ();
+        entry.name = name;
+        entry.file_size = file_size;
+        entry.last_modified = last_modified;
+        entry.min_timestamp = Long.MAX_VALUE;
+        entry.max_timestamp = Long.MIN_VALUE;
+        entry.min_value = Double.MAX_VALUE;
+        entry.max_value = -Double.MAX_VALUE;
+        return (entry);
+    }
+
+    private void merge_stats (Entry entry, Entry part)
+    {
+        if (part.record_count > 0)
+        {
+            entry.record_count += part.record_count;
+            entry.min_timestamp = Math.min (entry.min_timestamp, part.min_timestamp);
+            entry.max_timestamp = Math.max (entry.max_timestamp, part.max_timestamp);
+
+            if (part.min_value < entry.min_value) entry.min_value = part.min_value;
+            if (part.max_value > entry.max_value) entry.max_value = part.max_value;
+        }
+    }
+
+    private void scan_stats (Entry entry, MappedTimeSeries ts, Entry previous)
+    {
+        int from = 0;
+
+        if (previous != null && previous.record_count > 0 && previous.record_count <= ts.size ()
+            && ts.t (previous.record_count - 1) == previous.max_timestamp)
+        {
+            // Only appended to since the last scan: keep those stats, scan the new records
+            merge_stats (entry, previous);
+            from = previous.record_count;
+        }
+
+        entry.record_count = ts.size ();
+
+        for (int i = from; i < ts.size (); i++)
+        {
+            long t = ts.t (i);
+            double v = ts.v (i);
+
+            entry.min_timestamp = Math.min (entry.min_timestamp, t);
+            entry.max_timestamp = Math.max (entry.max_timestamp, t);
+
+            if (v < entry.min_value) entry.min_value = v;
+            if (v > entry.max_value) entry.max_value = v;
+        }
+    }
+
+    private boolean compressed_stats (Entry entry, File f)
+    {
+        try
+        {
+            // Everything we need is in the block index
+            CompressedArchive compressed = CompressedArchive.open (f);
+            entry.record_count = compressed.size ();
+            entry.min_timestamp = compressed.getMinTimeStamp ();
+            entry.max_timestamp = compressed.getMaxTimeStamp ();
+            entry.min_value = compressed.getMinValue ();
+            entry.max_value = compressed.getMaxValue ();
+            return (true);
+        }
+        catch (IOException e)
+        {
+            return (false);
+        }
+    }
+
+    private boolean index_file (Path file)
+    {
+        String series_name = TimeSeriesWriter.getSeriesName (file.getFileName ().toString ());
+
+        if (series_name != null)
+        {
+            return (index_segments (series_name_of (file), file.getParent ().toFile (), series_name));
+        }
+
+        File f = file.toFile ();
+        String name = name_of (file);
+        Entry current = entries.get (name);
+
+        if (current != null && current.file_size == f.length () && current.last_modified == f.lastModified ())
+        {
+            // Unchanged since last scan
+            return (false);
+        }
+
+        Entry entry = new_entry (name, f.length (), f.lastModified ());
+
+        if (CompressedArchive.isCompressed (f))
+        {
+            if (!compressed_stats (entry, f))
+            {
+                return (entries.remove (name) != null);
+            }
+
+            entries.put (name, entry);
+            mark_stale (name);
+            return (true);
+        }
+
+        MappedTimeSeries ts = new MappedTimeSeries ();
+
+        if (ts.load (f) == -1)
+        {
+            return (entries.remove (name) != null);
+        }
+
+        scan_stats (entry, ts, current);
+        entries.put (name, entry);
+        mark_stale (name);
+        return (true);
+    }
+
+    private boolean index_segments (String name, File dir, String series_name)
+    {
+        SegmentedSeries segmented = SegmentedSeries.open (dir, series_name);
+
+        if (segmented == null)
+        {
+            segment_stats.remove (name);
+            return (entries.remove (name) != null);
+        }
+
+        Entry current = entries.get (name);
+
+        if (current != null && current.file_size == segmented.getSize ()
+            && current.last_modified == segmented.getLastModified ())
+        {
+            return (false);
+        }
+
+        Map<String, Entry> previous = segment_stats.get (name);
+        Map<String, Entry> stats = new ConcurrentHashMap<> ();
+        Entry entry = new_entry (name, segmented.getSize (), segmented.getLastModified ());
+
+        for (int i = 0; i < segmented.getSegmentCount (); i++)
+        {
+            File f = segmented.getSegment (i);
+            Entry old_part = previous == null? null: previous.get (f.getName ());
+            Entry part = old_part;
+
+            if (part == null || part.file_size != segmented.getSegmentSize (i) || part.last_modified != f.lastModified ())
+            {
+                part = new_entry (f.getName (), segmented.getSegmentSize (i), f.lastModified ());
+
+                try
+                {
+                    MappedTimeSeries ts = segmented.mapSegment (i);
+
+                    if (ts != null)
+                    {
+                        // The .part segment grows on every commit, scan just the new records
+                        scan_stats (part, ts, old_part);
+                    }
+                    else if (!compressed_stats (part, f))
+                    {
+                        // Sealed or compressed under us, the next event rescans it
+                        continue;
+                    }
+                }
+                catch (IOException e)
+                {
+                    continue;
+                }
+            }
+
+            stats.put (f.getName (), part);
+            merge_stats (entry, part);
+        }
+
+        segment_stats.put (name, stats);
+        entries.put (name, entry);
+        mark_stale (name);
+        return (true);
+    }
+
+    // Must be called holding the lock
+    private void mark_stale (String name)
+    {
+        if (stale_rollups.isEmpty ())
+        {
+            rollups_due = System.currentTimeMillis () + ROLLUP_DELAY_MS;
+        }
+        stale_rollups.add (name);
+    }
+
+    private synchronized long next_wait_ms ()
+    {
+        return (stale_rollups.isEmpty ()? RELEASE_CHECK_MS: Math.max (1, rollups_due - System.currentTimeMillis ()));
+    }
+
+    private void update_rollups ()
+    {
+        List<String> due;
+
+        synchronized (this)
+        {
+            if (stale_rollups.isEmpty () || System.currentTimeMillis () < rollups_due)
+            {
+                return;
+            }
+
+            due = new ArrayList<> (stale_rollups);
+            stale_rollups.clear ();
+        }
+
+        // Not under our lock, Archive.getCatalog() takes the archive lock before it
+        for (String name : due)
+        {
+            // Series that never had rollups built are skipped right away
+            archive.updateRollups (name);
+        }
+    }
+
+    public synchronized void refresh ()
+    {
+        final Set<String> seen = new HashSet<> ();
+        boolean changed = false;
+
+        try
+        {
+            final List<Path> files = new ArrayList<> ();
+
+            Files.walkFileTree (root, new SimpleFileVisitor<Path> ()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attrs)
+                {
+                    return (dir.equals (root) || isSeriesFile (dir.getFileName ().toString ())?
+                        FileVisitResult.CONTINUE: FileVisitResult.SKIP_SUBTREE);
+                }
+
+                @Override
+                public FileVisitResult visitFile (Path file, BasicFileAttributes attrs)
+                {
+                    if (attrs.isRegularFile () && isSeriesFile (file.getFileName ().toString ()))
+                    {
+                        files.add (file);
+                    }
+                    return (FileVisitResult.CONTINUE);
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed (Path file, IOException exc)
+                {
+                    return (FileVisitResult.CONTINUE);
+                }
+            });
+
+            for (Path file : files)
+            {
+                // All segments of a series are indexed together, once
+                if (seen.add (series_name_of (file)))
+                {
+                    changed |= index_file (file);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println ("Erro indexando " + root + ": " + e.getMessage ());
+            return;
+        }
+
+        changed |= entries.keySet ().retainAll (seen);
+        segment_stats.keySet ().retainAll (seen);
+
+        if (changed || dirty)
+        {
+            save_index ();
+        }
+    }
+
+    public Entry get (String name)
+    {
+        return (entries.get (name));
+    }
+
+    public List<String> listNames ()
+    {
+        return (new ArrayList<> (entries.keySet ()));
+    }
+
+    public List<Entry> listByPrefix (String prefix)
+    {
+        // Sorted map: every name with the prefix lives in one contiguous range
+        return (new ArrayList<> (entries.subMap (prefix, prefix + Character.MAX_VALUE).values ()));
+    }
+
+    public List<Entry> listOverlapping (long ts_start, long ts_end)
+    {
+        List<Entry> result = new ArrayList<> ();
+
+        for (Entry entry : entries.values ())
+        {
+            if (entry.overlaps (ts_start, ts_end))
+            {
+                result.add (entry);
+            }
+        }
+
+        return (result);
+    }
+
+    public int size ()
+    {
+        return (entries.size ());
+    }
+
+    private void load_index ()
+    {
+        if (!catalog_file.isFile ())
+        {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream (new BufferedInputStream (new FileInputStream (catalog_file))))
+        {
+            if (in.readInt () != CATALOG_MAGIC)
+            {
+                return;
+            }
+
+            int count = in.readInt ();
+
+            for (int i = 0; i < count; i++)
+            {
+                Entry entry = new Entry ();
+                entry.name = in.readUTF ();
+                entry.file_size = in.readLong ();
+                entry.last_modified = in.readLong ();
+                entry.record_count = in.readInt ();
+                entry.min_timestamp = in.readLong ();
+                entry.max_timestamp = in.readLong ();
+                entry.min_value = in.readDouble ();
+                entry.max_value = in.readDouble ();
+                entries.put (entry.name, entry);
+            }
+        }
+        catch (IOException e)
+        {
+            // Corrupt or truncated index, rebuild from scratch
+            entries.clear ();
+        }
+    }
+
+    private synchronized void save_index ()
+    {
+        File tmp_file = new File (catalog_file.getPath () + ".tmp");
+
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (tmp_file))))
+            {
+                List<Entry> snapshot = new ArrayList<> (entries.values ());
+
+                out.writeInt (CATALOG_MAGIC);
+                out.writeInt (snapshot.size ());
+
+                for (Entry entry : snapshot)
+                {
+                    out.writeUTF (entry.name);
+                    out.writeLong (entry.file_size);
+                    out.writeLong (entry.last_modified);
+                    out.writeInt (entry.record_count);
+                    out.writeLong (entry.min_timestamp);
+                    out.writeLong (entry.max_timestamp);
+                    out.writeDouble (entry.min_value);
+                    out.writeDouble (entry.max_value);
+                }
+            }
+
+            Files.move (tmp_file.toPath (), catalog_file.toPath (),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        }
+        catch (IOException e)
+        {
+            // The index can always be rebuilt, keep serving from memory
+            System.err.println ("Erro gravando catalogo: " + e.getMessage ());
+        }
+    }
+
+    private synchronized void save_if_dirty ()
+    {
+        if (dirty)
+        {
+            save_index ();
+        }
+    }
+
+    private void register_tree (final WatchService watcher, Path start)
+        throws IOException
+    {
+        Files.walkFileTree (start, new SimpleFileVisitor<Path> ()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory (Path dir, BasicFileAttributes attrs)
+                throws IOException
+            {
+                if (!dir.equals (root) && !isSeriesFile (dir.getFileName ().toString ()))
+                {
+                    return (FileVisitResult.SKIP_SUBTREE);
+                }
+
+                dir.register (watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+                return (FileVisitResult.CONTINUE);
+            }
+        });
+    }
+
+    private synchronized void handle_change (Path file)
+        throws IOException
+    {
+        // Same monitor as refresh(), so entries and dirty change together
+        String file_name = file.getFileName ().toString ();
+
+        if (!isSeriesFile (file_name))
+        {
+            return;
+        }
+
+        if (TimeSeriesWriter.getSeriesName (file_name) != null && !Files.isDirectory (file))
+        {
+            // Any segment created, grown, sealed or deleted rescans its series
+            dirty |= index_file (file);
+        }
+        else if (Files.isDirectory (file))
+        {
+            // New subdirectory: watch it and pick up whatever is already inside
+            register_tree (watch_service, file);
+            refresh ();
+        }
+        else if (Files.isRegularFile (file))
+        {
+            dirty |= index_file (file);
+        }
+        else
+        {
+            // Deleted: drop the entry and everything below it
+            String name = name_of (file);
+            Map<String, Entry> below = entries.subMap (name + "/", name + "/" + Character.MAX_VALUE);
+
+            dirty |= entries.remove (name) != null || !below.isEmpty ();
+            below.clear ();
+        }
+    }
+
+    public synchronized void startWatching ()
+    {
+        if (watch_service != null)
+        {
+            return;
+        }
+
+        try
+        {
+            watch_service = root.getFileSystem ().newWatchService ();
+            register_tree (watch_service, root);
+        }
+        catch (IOException e)
+        {
+            // No watch, rely on refresh()
+            stopWatching ();
+            return;
+        }
+
+        Thread watch_thread = new Thread ("Catalog watcher: " + root)
+        {
+            public void run ()
+            {
+                WatchService watcher;
+
+                while ((watcher = watch_service) != null)
+                {
+                    WatchKey watch_key;
+
+                    try
+                    {
+                        watch_key = watcher.poll (next_wait_ms (), TimeUnit.MILLISECONDS);
+                    }
+                    catch (Exception e)
+                    {
+                        // Closed by stopWatching()
+                        break;
+                    }
+
+                    update_rollups ();
+
+                    if (watch_key == null)
+                    {
+                        // Quiet for a while: drop archives held only by collected queries, maybe ours
+                        Archive.release_dropped ();
+                        continue;
+                    }
+
+                    Path dir = (Path)watch_key.watchable ();
+
+                    for (WatchEvent<?> event : watch_key.pollEvents ())
+                    {
+                        try
+                        {
+                            if (event.kind () == StandardWatchEventKinds.OVERFLOW)
+                            {
+                                refresh ();
+                            }
+                            else
+                            {
+                                handle_change (dir.resolve ((Path)event.context ()));
+                            }
+                        }
+                        catch (Exception e)
+                        {
+                            System.err.println ("Erro atualizando catalogo: " + e.getMessage ());
+                        }
+                    }
+
+                    watch_key.reset ();
+                    save_if_dirty ();
+                }
+            }
+        };
+
+        watch_thread.setDaemon (true);
+        watch_thread.start ();
+    }
+
+    public synchronized void stopWatching ()
+    {
+        if (watch_service != null)
+        {
+            try
+            {
+                watch_service.close ();
+            }
+            catch (Exception ignore) {};
+
+            watch_service = null;
+        }
+
+        // Changes seen by the watcher but not saved yet
+        save_if_dirty ();
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/* Compressed timeseries archive (Gorilla style).
+ *
+ * Records are grouped in fixed-size blocks. Inside a block, timestamps
+ * are stored as delta-of-delta and values as the XOR against the previous
+ * value, both with variable length bit codes; regularly sampled, slowly
+ * changing sensors end up with a couple of bits per record instead of 16
+ * bytes. The block index at the end of the file keeps each block's time
+ * range and value range, so cut() only decodes the blocks it needs and
+ * the Catalog can index the file without decoding anything.
+ *
+ * Layout (little-endian):
+ *     header: magic(8) version(4) block_records(4) record_count(8)
+ *             block_count(4) reserved(4) index_offset(8)
+ *     blocks: bit streams
+ *     index:  per block first_ts(8) last_ts(8) min_value(8) max_value(8)
+ *             offset(8) length(4) count(4)
+ *
+ * The magic doesn't look like a plausible raw timestamp, which is how
+ * TimeSeries.load() tells both formats apart.
+ */
+public class CompressedArchive
+{
+    public final static long MAGIC = 0x1a0a0d43_53544b89L;   // "\x89KTSC\r\n\x1a"
+    public final static int VERSION = 1;
+    public final static int DEFAULT_BLOCK_RECORDS = 1024;
+
+    private final static int HEADER_SIZE = 40;
+    private final static int INDEX_ENTRY_SIZE = 48;
+
+    private File file;
+    private int block_records;
+    private long record_count;
+    private int block_count;
+    private long[] block_first_ts;
+    private long[] block_last_ts;
+    private double[] block_min_value;
+    private double[] block_max_value;
+    private long[] block_offset;
+    private int[] block_length;
+    private int[] block_count_records;
+
+    private CompressedArchive (File file)
+    {
+        this.file = file;
+    }
+
+    public static boolean isCompressed (File file)
+    {
+        if (!file.isFile () || file.length () < HEADER_SIZE)
+        {
+            return (false);
+        }
+
+        try (FileChannel channel = FileChannel.open (file.toPath (), StandardOpenOption.READ))
+        {
+            ByteBuffer magic = ByteBuffer.allocate (8).order (ByteOrder.LITTLE_ENDIAN);
+            read_fully (channel, magic, 0);
+            return (magic.getLong () == MAGIC);
+        }
+        catch (IOException e)
+        {
+            return (false);
+        }
+    }
+
+    private static void read_fully (FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException
+    {
+        while (buffer.hasRemaining ())
+        {
+            int n = channel.read (buffer, position + buffer.position ());
+
+            if (n < 0)
+            {
+                throw new IOException ("Unexpected end of compressed archive");
+            }
+        }
+
+        buffer.flip ();
+    }
+
+    public static CompressedArchive open (File file)
+        throws IOException
+    {
+        CompressedArchive archive = new CompressedArchive (file);
+
+        try (FileChannel channel = FileChannel.open (file.toPath (), StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate (HEADER_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+            read_fully (channel, header, 0);
+
+            if (header.getLong () != MAGIC || header.getInt () != VERSION)
+            {
+                throw new IOException ("Not a compressed archive: " + file);
+            }
+
+            archive.block_records = header.getInt ();
+            archive.record_count = header.getLong ();
+            archive.block_count = header.getInt ();
+            header.getInt ();
+            long index_offset = header.getLong ();
+
+            int n = archive.block_count;
+            archive.block_first_ts = new long [n];
+            archive.block_last_ts = new long [n];
+            archive.block_min_value = new double [n];
+            archive.block_max_value = new double [n];
+            archive.block_offset = new long [n];
+            archive.block_length = new int [n];
+            archive.block_count_records = new int [n];
+
+            ByteBuffer index = ByteBuffer.allocate (n * INDEX_ENTRY_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+            read_fully (channel, index, index_offset);
+
+            for (int i = 0; i < n; i++)
+            {
+                archive.block_first_ts [i] = index.getLong ();
+                archive.block_last_ts [i] = index.getLong ();
+                archive.block_min_value [i] = index.getDouble ();
+                archive.block_max_value [i] = index.getDouble ();
+                archive.block_offset [i] = index.getLong ();
+                archive.block_length [i] = index.getInt ();
+                archive.block_count_records [i] = index.getInt ();
+            }
+        }
+
+        return (archive);
+    }
+
+    public int size ()
+    {
+        return ((int)record_count);
+    }
+
+    public int getBlockCount ()
+    {
+        return (block_count);
+    }
+
+    public long getMinTimeStamp ()
+    {
+        return (block_count > 0? block_first_ts [0]: Long.MAX_VALUE);
+    }
+
+    public long getMaxTimeStamp ()
+    {
+        return (block_count > 0? block_last_ts [block_count - 1]: Long.MIN_VALUE);
+    }
+
+    public double getMinValue ()
+    {
+        double min = Double.MAX_VALUE;
+
+        for (int i = 0; i < block_count; i++)
+        {
+            min = Math.min (min, block_min_value [i]);
+        }
+
+        return (min);
+    }
+
+    public double getMaxValue ()
+    {
+        double max = -Double.MAX_VALUE;
+
+        for (int i = 0; i < block_count; i++)
+        {
+            max = Math.max (max, block_max_value [i]);
+        }
+
+        return (max);
+    }
+
+    private int decode_blocks (int first_block, int last_block, long[] timestamps, double[] values)
+        throws IOException
+    {
+        int pos = 0;
+
+        try (FileChannel channel = FileChannel.open (file.toPath (), StandardOpenOption.READ))
+        {
+            for (int b = first_block; b <= last_block; b++)
+            {
+                ByteBuffer data = ByteBuffer.allocate (block_length [b]);
+                read_fully (channel, data, block_offset [b]);
+                decode_block (data.array (), block_count_records [b], timestamps, values, pos);
+                pos += block_count_records [b];
+            }
+        }
+
+        return (pos);
+    }
+
+    public TimeSeries read ()
+        throws IOException
+    {
+        long[] timestamps = new long [size ()];
+        double[] values = new double [size ()];
+
+        decode_blocks (0, block_count - 1, timestamps, values);
+        return (new TimeSeries (timestamps, values));
+    }
+
+    public int findBlock (long tstamp)
+    {
+        // First block holding timestamps >= tstamp, from the index alone; -1 if none
+        return (TimeIndex.ffirst (TimeIndex.of (block_last_ts), block_count, tstamp));
+    }
+
+    public TimeSeries readBlock (int block)
+        throws IOException
+    {
+        long[] timestamps = new long [block_count_records [block]];
+        double[] values = new double [block_count_records [block]];
+
+        decode_blocks (block, block, timestamps, values);
+        return (new TimeSeries (timestamps, values));
+    }
+
+    public TimeSeries cut (long ts_start, long ts_end)
+        throws IOException
+    {
+        // Only the blocks whose time range touches [ts_start, ts_end] are decoded
+        int first_block = findBlock (ts_start);
+        int last_block = TimeIndex.flast (TimeIndex.of (block_first_ts), block_count, ts_end);
+
+        if (first_block == -1 || first_block > last_block)
+        {
+            return (new TimeSeries ());
+        }
+
+        int count = 0;
+
+        for (int b = first_block; b <= last_block; b++)
+        {
+            count += block_count_records [b];
+        }
+
+        long[] timestamps = new long [count];
+        double[] values = new double [count];
+        decode_blocks (first_block, last_block, timestamps, values);
+
+        // Same range semantics as TimeSeries.cut() over the whole series
+        return (new TimeSeries (timestamps, values).cut (ts_start, ts_end));
+    }
+
+    public static void compress (File raw_file, File compressed_file)
+        throws IOException
+    {
+        compress (raw_file, compressed_file, DEFAULT_BLOCK_RECORDS);
+    }
+
+    public static void compress (File raw_file, File compressed_file, int block_records)
+        throws IOException
+    {
+        MappedTimeSeries raw = new MappedTimeSeries ();
+
+        if (raw.load (raw_file) == -1)
+        {
+            throw new IOException ("Error mapping archive: " + raw_file);
+        }
+
+        int record_count = raw.size ();
+        int block_count = (record_count + block_records - 1) / block_records;
+        ByteBuffer index = ByteBuffer.allocate (block_count * INDEX_ENTRY_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+        long[] timestamps = new long [block_records];
+        double[] values = new double [block_records];
+        BitWriter bits = new BitWriter ();
+
+        try (FileChannel channel = FileChannel.open (compressed_file.toPath (),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            long offset = HEADER_SIZE;
+
+            for (int b = 0; b < block_count; b++)
+            {
+                int start = b * block_records;
+                int count = Math.min (block_records, record_count - start);
+                double min = Double.MAX_VALUE;
+                double max = -Double.MAX_VALUE;
+
+                for (int i = 0; i < count; i++)
+                {
+                    timestamps [i] = raw.t (start + i);
+                    values [i] = raw.v (start + i);
+
+                    if (values [i] < min) min = values [i];
+                    if (values [i] > max) max = values [i];
+                }
+
+                bits.reset ();
+                encode_block (bits, timestamps, values, count);
+                ByteBuffer data = ByteBuffer.wrap (bits.buffer, 0, bits.byteLength ());
+
+                while (data.hasRemaining ())
+                {
+                    channel.write (data, offset + data.position ());
+                }
+
+                index.putLong (timestamps [0]);
+                index.putLong (timestamps [count - 1]);
+                index.putDouble (min);
+                index.putDouble (max);
+                index.putLong (offset);
+                index.putInt (bits.byteLength ());
+                index.putInt (count);
+
+                offset += bits.byteLength ();
+            }
+
+            index.flip ();
+
+            while (index.hasRemaining ())
+            {
+                channel.write (index, offset + index.position ());
+            }
+
+            ByteBuffer header = ByteBuffer.allocate (HEADER_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+            header.putLong (MAGIC);
+            header.putInt (VERSION);
+            header.putInt (block_records);
+            header.putLong (record_count);
+            header.putInt (block_count);
+            header.putInt (0);
+            header.putLong (offset);
+            header.flip ();
+
+            while (header.hasRemaining ())
+            {
+                channel.write (header, header.position ());
+            }
+
+            channel.force (true);
+        }
+    }
+
+    //=================================================================
+    // Block codec: delta-of-delta timestamps, XOR values (Gorilla)
+    //=================================================================
+
+    private static void encode_block (BitWriter out, long[] timestamps, double[] values, int count)
+    {
+        long prev_ts = timestamps [0];
+        long prev_delta = 0;
+        long prev_bits = Double.doubleToRawLongBits (values [0]);
+        int prev_lead = -1;
+        int prev_trail = 0;
+
+        out.write (prev_ts, 64);
+        out.write (prev_bits, 64);
+
+        for (int i = 1; i < count; i++)
+        {
+            long delta = timestamps [i] - prev_ts;
+            long dod = delta - prev_delta;
+
+            if (dod == 0)
+            {
+                out.write (0, 1);
+            }
+            else if (dod >= -63 && dod <= 64)
+            {
+                out.write (0b10, 2);
+                out.write (dod + 63, 7);
+            }
+            else if (dod >= -255 && dod <= 256)
+            {
+                out.write (0b110, 3);
+                out.write (dod + 255, 9);
+            }
+            else if (dod >= -2047 && dod <= 2048)
+            {
+                out.write (0b1110, 4);
+                out.write (dod + 2047, 12);
+            }
+            else
+            {
+                out.write (0b1111, 4);
+                out.write (dod, 64);
+            }
+
+            prev_ts = timestamps [i];
+            prev_delta = delta;
+
+            long bits = Double.doubleToRawLongBits (values [i]);
+            long xor = bits ^ prev_bits;
+
+            if (xor == 0)
+            {
+                out.write (0, 1);
+            }
+            else
+            {
+                int lead = Math.min (Long.numberOfLeadingZeros (xor), 31);
+                int trail = Long.numberOfTrailingZeros (xor);
+
+                if (prev_lead != -1 && lead >= prev_lead && trail >= prev_trail)
+                {
+                    // Fits in the previous meaningful window
+                    out.write (0b10, 2);
+                    out.write (xor >>> prev_trail, 64 - prev_lead - prev_trail);
+                }
+                else
+                {
+                    int significant = 64 - lead - trail;
+
+                    out.write (0b11, 2);
+                    out.write (lead, 5);
+                    out.write (significant == 64? 0: significant, 6);
+                    out.write (xor >>> trail, significant);
+                    prev_lead = lead;
+                    prev_trail = trail;
+                }
+            }
+
+            prev_bits = bits;
+        }
+    }
+
+    private static void decode_block (byte[] data, int count, long[] timestamps, double[] values, int pos)
+    {
+        BitReader in = new BitReader (data);
+
+        long prev_ts = in.read (64);
+        long prev_delta = 0;
+        long prev_bits = in.read (64);
+        int prev_lead = 0;
+        int prev_trail = 0;
+
+        timestamps [pos] = prev_ts;
+        values [pos] = Double.longBitsToDouble (prev_bits);
+
+        for (int i = 1; i < count; i++)
+        {
+            long dod;
+
+            if (in.read (1) == 0)
+            {
+                dod = 0;
+            }
+            else if (in.read (1) == 0)
+            {
+                dod = in.read (7) - 63;
+            }
+            else if (in.read (1) == 0)
+            {
+                dod = in.read (9) - 255;
+            }
+            else if (in.read (1) == 0)
+            {
+                dod = in.read (12) - 2047;
+            }
+            else
+            {
+                dod = in.read (64);
+            }
+
+            prev_delta += dod;
+            prev_ts += prev_delta;
+            timestamps [pos + i] = prev_ts;
+
+            if (in.read (1) != 0)
+            {
+                if (in.read (1) != 0)
+                {
+                    prev_lead = (int)in.read (5);
+                    int significant = (int)in.read (6);
+
+                    if (significant == 0)
+                    {
+                        significant = 64;
+                    }
+
+                    prev_trail = 64 - prev_lead - significant;
+                }
+
+                prev_bits ^= in.read (64 - prev_lead - prev_trail) << prev_trail;
+            }
+
+            values [pos + i] = Double.longBitsToDouble (prev_bits);
+        }
+    }
+
+    private static class BitWriter
+    {
+        byte[] buffer = new byte [1024];
+        long bit_pos = 0;
+
+        void reset ()
+        {
+            Arrays.fill (buffer, 0, byteLength (), (byte)0);
+            bit_pos = 0;
+        }
+
+        int byteLength ()
+        {
+            return ((int)((bit_pos + 7) >>> 3));
+        }
+
+        void write (long value, int nbits)
+        {
+            if (byteLength () + 9 > buffer.length)
+            {
+                buffer = Arrays.copyOf (buffer, buffer.length * 2);
+            }
+
+            while (nbits > 0)
+            {
+                int byte_index = (int)(bit_pos >>> 3);
+                int free = 8 - (int)(bit_pos & 7);
+                int take = Math.min (nbits, free);
+                int chunk = (int)((value >>> (nbits - take)) & ((1 << take) - 1));
+
+                buffer [byte_index] |= chunk << (free - take);
+                bit_pos += take;
+                nbits -= take;
+            }
+        }
+    }
+
+    private static class BitReader
+    {
+        byte[] buffer;
+        long bit_pos = 0;
+
+        BitReader (byte[] buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        long read (int nbits)
+        {
+            long value = 0;
+
+            while (nbits > 0)
+            {
+                int byte_index = (int)(bit_pos >>> 3);
+                int avail = 8 - (int)(bit_pos & 7);
+                int take = Math.min (nbits, avail);
+                int chunk = ((buffer [byte_index] & 0xff) >>> (avail - take)) & ((1 << take) - 1);
+
+                value = (value << take) | chunk;
+                bit_pos += take;
+                nbits -= take;
+            }
+
+            return (value);
+        }
+    }
+}
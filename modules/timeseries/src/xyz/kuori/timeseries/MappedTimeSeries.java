@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/* Read-only view of a timeseries archive mapped straight from disk.
+ * The records are never copied into the heap: t() and v() read the
+ * (long, double) pairs in place, and since archives are stored in
+ * timestamp order, ffirst/flast/cut use binary search, touching only
+ * the pages around the requested range.
+ */
+public class MappedTimeSeries implements TimeIndex.Sorted
+{
+    public final static int RECORD_SIZE = 16;
+
+    private ByteBuffer records = null;
+    private int capacity = 0;
+    private double min_value;
+    private double max_value;
+    private boolean valid_minmax = false;
+
+    public MappedTimeSeries ()
+    {
+        // Empty until load()
+    }
+
+    private MappedTimeSeries (ByteBuffer records, int capacity)
+    {
+        this.records = records;
+        this.capacity = capacity;
+    }
+
+    private void init_empty ()
+    {
+        records = null;
+        capacity = 0;
+        valid_minmax = false;
+    }
+
+    public int load (File archive)
+    {
+        return (load (archive, Long.MAX_VALUE));
+    }
+
+    public int load (File archive, long max_bytes)
+    {
+        if (CompressedArchive.isCompressed (archive))
+        {
+            // Compressed records can't be read in place, use TimeSeries.load()
+            init_empty ();
+            return (-1);
+        }
+
+        // The mapping stays valid after the channel is closed
+        try (RandomAccessFile raf = new RandomAccessFile (archive, "r"))
+        {
+            FileChannel channel = raf.getChannel ();
+
+            // Partial trailing records (eg. a writer in progress) are ignored
+            long record_count = Math.min (channel.size (), max_bytes) / RECORD_SIZE;
+
+            if (record_count * RECORD_SIZE > Integer.MAX_VALUE)
+            {
+                // A single MappedByteBuffer can't address more than 2GB
+                init_empty ();
+                return (-1);
+            }
+
+            ByteBuffer mapped = channel.map (FileChannel.MapMode.READ_ONLY, 0, record_count * RECORD_SIZE);
+            mapped.order (ByteOrder.LITTLE_ENDIAN);
+
+            records = mapped;
+            capacity = (int)record_count;
+            valid_minmax = false;
+        }
+        catch (Exception e)
+        {
+            init_empty ();
+            return (-1);
+        }
+
+        return (capacity);
+    }
+
+    public int load (String filename)
+    {
+        return (load (new File (filename)));
+    }
+
+    public int size ()
+    {
+        return (capacity);
+    }
+
+    @Override // TimeIndex.Sorted
+    public long t (int step)
+    {
+        return (records.getLong (step * RECORD_SIZE));
+    }
+
+    public double v (int step)
+    {
+        return (records.getDouble (step * RECORD_SIZE + 8));
+    }
+
+    private void validate_minmax ()
+    {
+        if (!valid_minmax)
+        {
+            min_value = Double.MAX_VALUE;
+            max_value = -Double.MAX_VALUE;
+
+            for (int i = 0; i < capacity; i++)
+            {
+                double value = v (i);
+
+                if (value > max_value)
+                {
+                    max_value = value;
+                }
+
+                if (value < min_value)
+                {
+                    min_value = value;
+                }
+            }
+
+            valid_minmax = true;
+        }
+    }
+
+    public long getMinTimeStamp ()
+    {
+        return (capacity > 0? t (0): Long.MAX_VALUE);
+    }
+
+    public long getMaxTimeStamp ()
+    {
+        return (capacity > 0? t (capacity - 1): Long.MIN_VALUE);
+    }
+
+    public double getMinValue ()
+    {
+        validate_minmax ();
+        return (min_value);
+    }
+
+    public double getMaxValue ()
+    {
+        validate_minmax ();
+        return (max_value);
+    }
+
+    public int ffirst (long tstamp)
+    {
+        // Lowest index with timestamp >= tstamp
+        return (TimeIndex.ffirst (this, capacity, tstamp));
+    }
+
+    public int flast (long tstamp)
+    {
+        // Highest index with timestamp <= tstamp
+        return (TimeIndex.flast (this, capacity, tstamp));
+    }
+
+    public MappedTimeSeries cut (long ts_start, long ts_end)
+    {
+        // Same range semantics as TimeSeries.cut(), but no data is copied
+        int dp_start = ffirst (ts_start);
+
+        if (dp_start == -1)
+        {
+            return (new MappedTimeSeries ());
+        }
+
+        int dp_end = flast (ts_end);
+
+        if (dp_end == -1)
+        {
+            return (new MappedTimeSeries ());
+        }
+
+        // Both ends are inclusive, a range holding a single point yields that point
+        int num_points = dp_end - dp_start + 1;
+
+        if (num_points < 1)
+        {
+            // The range falls between two points
+            return (new MappedTimeSeries ());
+        }
+
+        ByteBuffer view = records.duplicate ();
+        view.position (dp_start * RECORD_SIZE);
+        view.limit ((dp_start + num_points) * RECORD_SIZE);
+
+        ByteBuffer slice = view.slice ();
+        slice.order (ByteOrder.LITTLE_ENDIAN);
+
+        return (new MappedTimeSeries (slice, num_points));
+    }
+
+    public TimeSeries toTimeSeries ()
+    {
+        long[] timestamps = new long [capacity];
+        double[] values = new double [capacity];
+
+        for (int i = 0; i < capacity; i++)
+        {
+            timestamps [i] = t (i);
+            values [i] = v (i);
+        }
+
+        return (new TimeSeries (timestamps, values));
+    }
+
+    public String toString ()
+    {
+        StringBuilder s = new StringBuilder ();
+
+        for (int i = 0; i < capacity; i++)
+        {
+            s.append ("[");
+            s.append (i);
+            s.append ("] ");
+            s.append (t (i));
+            s.append (" => ");
+            s.append (v (i));
+            s.append ("\n");
+        }
+
+        return (s.toString ());
+    }
+}
@@ -16,16 +16,41 @@
 
 package xyz.kuori.timeseries;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
 public class Query
 {
+    private Archive.Handle handle;
     private Archive root;
 
     public Query ()
     {
-        root = new Archive ("/srv/lab/var");
+        this (Archive.getDefaultRoot ());
+    }
+
+    public Query (String root_path)
+    {
+        handle = Archive.open (root_path, this);
+        root = handle.getArchive ();
+    }
+
+    public void close ()
+    {
+        // Releases the archive opened by the constructor; also done once this Query is collected
+        handle.close ();
+    }
+
+    public Archive getArchive ()
+    {
+        return (root);
+    }
+
+    public Catalog catalog ()
+    {
+        return (root.getCatalog ());
     }
 
     public List<String> show ()
@@ -37,7 +62,7 @@ public class Query
     {
         TimeSeries ts = new TimeSeries ();
 
-        int num_recs = ts.load ("/srv/lab/var/" + tsname);
+        int num_recs = ts.load (new File (root.getStoragePath (), tsname));
 
         if (num_recs == -1)
         {
@@ -48,6 +73,132 @@ public class Query
         return (ts);
     }
 
+    private RollupTier select_tier (String tsname, long ts_start, long ts_end, int width)
+    {
+        // Tiers are kept current by the catalog watcher, a few seconds behind the source
+        root.getCatalog ();
+
+        // Coarsest tier that still yields at least one bucket per pixel
+        long span = ts_end - ts_start;
+        long[] steps = RollupBuilder.DEFAULT_STEPS;
+
+        for (int i = steps.length - 1; i >= 0; i--)
+        {
+            if (span / steps [i] < width)
+            {
+                continue;
+            }
+
+            RollupTier tier = root.loadRollup (tsname, steps [i]);
+
+            if (tier != null)
+            {
+                return (tier.cut (ts_start, ts_end));
+            }
+        }
+
+        return (null);
+    }
+
+    public RollupTier loadRange (String tsname, long ts_start, long ts_end, int width)
+    {
+        // Like load(), with the min/max of every bucket next to its average
+        RollupTier tier = select_tier (tsname, ts_start, ts_end, width);
+
+        if (tier != null)
+        {
+            return (tier);
+        }
+
+        TimeSeries raw = load_raw (tsname, ts_start, ts_end);
+        return (raw == null? null: RollupTier.fromTimeSeries (raw));
+    }
+
+    public TimeSeries load (String tsname, long ts_start, long ts_end, int width)
+    {
+        RollupTier tier = select_tier (tsname, ts_start, ts_end, width);
+
+        if (tier != null)
+        {
+            return (tier.getAverages ());
+        }
+
+        return (load_raw (tsname, ts_start, ts_end));
+    }
+
+    private TimeSeries load_raw (String tsname, long ts_start, long ts_end)
+    {
+        // Zoomed in past the finest tier, no rollups built, or they failed to update
+        File archive = new File (root.getStoragePath (), tsname);
+
+        if (!archive.exists ())
+        {
+            // Segments from a TimeSeriesWriter, each one cut on its own
+            SegmentedSeries segmented = SegmentedSeries.open (archive.getParentFile (), archive.getName ());
+
+            if (segmented == null)
+            {
+                System.err.println ("Erro lendo arquivo: " + tsname);
+                return (null);
+            }
+
+            try
+            {
+                return (segmented.cut (ts_start, ts_end));
+            }
+            catch (IOException e)
+            {
+                System.err.println ("Erro lendo arquivo: " + tsname);
+                return (null);
+            }
+        }
+
+        if (CompressedArchive.isCompressed (archive))
+        {
+            try
+            {
+                // Decodes only the blocks overlapping the range
+                return (CompressedArchive.open (archive).cut (ts_start, ts_end));
+            }
+            catch (IOException e)
+            {
+                System.err.println ("Erro lendo arquivo: " + tsname);
+                return (null);
+            }
+        }
+
+        MappedTimeSeries raw = map (tsname);
+
+        if (raw == null)
+        {
+            return (null);
+        }
+
+        // Never null, an empty range yields an empty series
+        return (raw.cut (ts_start, ts_end).toTimeSeries ());
+    }
+
+    public MappedTimeSeries map (String tsname)
+    {
+        MappedTimeSeries ts = new MappedTimeSeries ();
+
+        int num_recs = ts.load (new File (root.getStoragePath (), tsname));
+
+        if (num_recs == -1)
+        {
+            System.err.println ("Erro mapeando arquivo: " + tsname);
+            return (null);
+        }
+
+        return (ts);
+    }
+
+    public TimeSeriesWriter writer (String tsname)
+        throws IOException
+    {
+        return (new TimeSeriesWriter (root, tsname));
+    }
+
     public TimeSeries create (long[] timestamps, double[] values)
     {
         return (new TimeSeries (timestamps, values));
@@ -0,0 +1,538 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/* Builds the downsampling pyramid of a timeseries archive.
+ *
+ * The finest tier is computed from the raw records and every coarser
+ * tier is computed from the one below it, so each level is a single
+ * sequential pass over mapped data. Steps are in timestamp units
+ * (milliseconds for the lab archives) and must be increasing multiples
+ * of each other. NaN values are left out of min/max/avg/count.
+ *
+ * Next to the tiers, "<series>.source" records the size and modification
+ * time of the source they were built from and the last timestamp rolled
+ * up. update() uses it to tell current tiers from stale ones, and rolls
+ * only the new data in: every tier is cut at the coarsest bucket holding
+ * that last timestamp and recomputed from there on.
+ */
+public class RollupBuilder
+{
+    public final static long[] DEFAULT_STEPS = { 1000L, 60 * 1000L, 60 * 60 * 1000L };
+    public final static String SOURCE_SUFFIX = ".source";
+
+    private final static int SOURCE_MAGIC = 0x4b545231;     // "KTR1"
+
+    private long[] steps;
+
+    public RollupBuilder ()
+    {
+        this (DEFAULT_STEPS);
+    }
+
+    public RollupBuilder (long[] steps)
+    {
+        for (int i = 1; i < steps.length; i++)
+        {
+            if (steps [i] <= steps [i - 1] || steps [i] % steps [i - 1] != 0)
+            {
+                throw new IllegalArgumentException ("Rollup steps must be increasing multiples");
+            }
+        }
+
+        this.steps = steps.clone ();
+    }
+
+    public long[] getSteps ()
+    {
+        return (steps.clone ());
+    }
+
+    public static String tierName (String tsname, long step)
+    {
+        return (tsname + "." + step);
+    }
+
+    private static class SourceStamp
+    {
+        long size;
+        long last_modified;
+        long last_timestamp = Long.MIN_VALUE;
+
+        static SourceStamp of (File archive)
+        {
+            SourceStamp stamp = new SourceStamp ();
+
+            if (archive.exists ())
+            {
+                stamp.size = archive.length ();
+                stamp.last_modified = archive.lastModified ();
+                return (stamp);
+            }
+
+            SegmentedSeries segmented =
+                SegmentedSeries.open (archive.getAbsoluteFile ().getParentFile (), archive.getName ());
+
+            if (segmented == null)
+            {
+                return (null);
+            }
+
+            stamp.size = segmented.getSize ();
+            stamp.last_modified = segmented.getLastModified ();
+            return (stamp);
+        }
+
+        static SourceStamp load (File stamp_file)
+        {
+            if (!stamp_file.isFile ())
+            {
+                return (null);
+            }
+
+            try (DataInputStream in = new DataInputStream (new BufferedInputStream (new FileInputStream (stamp_file))))
+            {
+                if (in.readInt () != SOURCE_MAGIC)
+                {
+                    return (null);
+                }
+
+                SourceStamp stamp = new SourceStamp ();
+                stamp.size = in.readLong ();
+                stamp.last_modified = in.readLong ();
+                stamp.last_timestamp = in.readLong ();
+                return (stamp);
+            }
+            catch (IOException e)
+            {
+                return (null);
+            }
+        }
+
+        void save (File stamp_file)
+            throws IOException
+        {
+            File tmp_file = new File (stamp_file.getPath () + ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (tmp_file))))
+            {
+                out.writeInt (SOURCE_MAGIC);
+                out.writeLong (size);
+                out.writeLong (last_modified);
+                out.writeLong (last_timestamp);
+            }
+
+            Files.move (tmp_file.toPath (), stamp_file.toPath (),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        boolean matches (SourceStamp other)
+        {
+            return (size == other.size && last_modified == other.last_modified);
+        }
+    }
+
+    public static String sourceName (String tsname)
+    {
+        return (tsname + SOURCE_SUFFIX);
+    }
+
+    public int build (File archive, File rollup_dir)
+        throws IOException
+    {
+        return (rollup (archive, rollup_dir, Long.MIN_VALUE, Long.MIN_VALUE));
+    }
+
+    public int update (File archive, File rollup_dir)
+        throws IOException
+    {
+        // Returns the tiers rewritten, or -1 if they were never built
+        SourceStamp built = SourceStamp.load (new File (rollup_dir, sourceName (archive.getName ())));
+
+        if (built == null)
+        {
+            return (-1);
+        }
+
+        SourceStamp current = SourceStamp.of (archive);
+
+        if (current == null)
+        {
+            throw new IOException ("Archive not found: " + archive);
+        }
+
+        if (built.matches (current))
+        {
+            return (0);
+        }
+
+        for (long step : steps)
+        {
+            if (!new File (rollup_dir, tierName (archive.getName (), step)).isFile ())
+            {
+                return (build (archive, rollup_dir));
+            }
+        }
+
+        // Writer segments only ever grow at the end; a plain file that
+        // shrank was rewritten (eg. compressed), so start over
+        if (built.last_timestamp == Long.MIN_VALUE || (archive.exists () && current.size < built.size))
+        {
+            return (build (archive, rollup_dir));
+        }
+
+        long from = bucket_of (built.last_timestamp, steps [steps.length - 1]);
+        return (rollup (archive, rollup_dir, from, built.last_timestamp));
+    }
+
+    private int rollup (File archive, File rollup_dir, long from, long last_timestamp)
+        throws IOException
+    {
+        // Taken before reading, so anything appended meanwhile is rolled in next time
+        SourceStamp stamp = SourceStamp.of (archive);
+
+        if (stamp == null)
+        {
+            throw new IOException ("Archive not found: " + archive);
+        }
+
+        if (!rollup_dir.isDirectory () && !rollup_dir.mkdirs ())
+        {
+            throw new IOException ("Unable to create rollup directory: " + rollup_dir);
+        }
+
+        RollupTier previous = null;
+        stamp.last_timestamp = last_timestamp;
+
+        for (long step : steps)
+        {
+            File tier_file = new File (rollup_dir, tierName (archive.getName (), step));
+            File tmp_file = new File (rollup_dir, tier_file.getName () + ".tmp");
+
+            try (TierOutput out = new TierOutput (tmp_file))
+            {
+                if (from != Long.MIN_VALUE)
+                {
+                    // Keep the buckets before the cut as they are
+                    RollupTier old_tier = new RollupTier (step);
+
+                    if (old_tier.load (tier_file) == -1)
+                    {
+                        throw new IOException ("Error mapping rollup tier: " + tier_file);
+                    }
+
+                    int first = old_tier.ffirst (from);
+                    out.copy (tier_file, (long)(first == -1? old_tier.size (): first) * RollupTier.RECORD_SIZE);
+                }
+
+                if (previous == null)
+                {
+                    stamp.last_timestamp = Math.max (stamp.last_timestamp, rollup_source (archive, from, step, out));
+                }
+                else
+                {
+                    rollup_tier (previous, from, step, out);
+                }
+            }
+
+            // Readers either see the old tier or the complete new one
+            Files.move (tmp_file.toPath (), tier_file.toPath (),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            previous = new RollupTier (step);
+
+            if (previous.load (tier_file) == -1)
+            {
+                throw new IOException ("Error mapping rollup tier: " + tier_file);
+            }
+        }
+
+        // Written last: if we die halfway, the next update redoes the same cut
+        stamp.save (new File (rollup_dir, sourceName (archive.getName ())));
+        return (steps.length);
+    }
+
+    private static long bucket_of (long tstamp, long step)
+    {
+        return (Math.floorDiv (tstamp, step) * step);
+    }
+
+    private void rollup_point (Bucket bucket, long tstamp, double value, long step, TierOutput out)
+        throws IOException
+    {
+        long start = bucket_of (tstamp, step);
+
+        if (bucket.used && bucket.start != start)
+        {
+            bucket.emit (out);
+        }
+
+        if (!bucket.used)
+        {
+            bucket.reset (start);
+        }
+
+        if (!Double.isNaN (value))
+        {
+            bucket.add (value, value, value, 1);
+        }
+    }
+
+    private long rollup_source (File archive, long from, long step, TierOutput out)
+        throws IOException
+    {
+        Bucket bucket = new Bucket ();
+        long last_timestamp = Long.MIN_VALUE;
+
+        if (archive.exists ())
+        {
+            if (CompressedArchive.isCompressed (archive))
+            {
+                last_timestamp = rollup_raw (CompressedArchive.open (archive), from, bucket, step, out);
+            }
+            else
+            {
+                MappedTimeSeries raw = new MappedTimeSeries ();
+
+                if (raw.load (archive) == -1)
+                {
+                    throw new IOException ("Error mapping archive: " + archive);
+                }
+
+                last_timestamp = rollup_raw (raw, from, bucket, step, out);
+            }
+        }
+        else
+        {
+            SegmentedSeries segmented =
+                SegmentedSeries.open (archive.getAbsoluteFile ().getParentFile (), archive.getName ());
+
+            if (segmented == null)
+            {
+                throw new IOException ("Archive not found: " + archive);
+            }
+
+            // Segments follow each other in time, one bucket runs across them
+            for (int i = 0; i < segmented.getSegmentCount (); i++)
+            {
+                MappedTimeSeries raw = segmented.mapSegment (i);
+                long segment_last = raw != null?
+                    rollup_raw (raw, from, bucket, step, out):
+                    rollup_raw (segmented.openCompressed (i), from, bucket, step, out);
+
+                last_timestamp = Math.max (last_timestamp, segment_last);
+            }
+        }
+
+        if (bucket.used)
+        {
+            bucket.emit (out);
+        }
+
+        return (last_timestamp);
+    }
+
+    private long rollup_raw (MappedTimeSeries raw, long from, Bucket bucket, long step, TierOutput out)
+        throws IOException
+    {
+        int first = raw.ffirst (from);
+
+        if (first == -1)
+        {
+            return (Long.MIN_VALUE);
+        }
+
+        for (int i = first; i < raw.size (); i++)
+        {
+            rollup_point (bucket, raw.t (i), raw.v (i), step, out);
+        }
+
+        return (raw.t (raw.size () - 1));
+    }
+
+    private long rollup_raw (CompressedArchive raw, long from, Bucket bucket, long step, TierOutput out)
+        throws IOException
+    {
+        long last_timestamp = Long.MIN_VALUE;
+        int first_block = raw.findBlock (from);
+
+        if (first_block == -1)
+        {
+            return (last_timestamp);
+        }
+
+        // One block decoded at a time, skipping those ending before 'from'
+        for (int b = first_block; b < raw.getBlockCount (); b++)
+        {
+            TimeSeries block = raw.readBlock (b);
+
+            for (int i = 0; i < block.size (); i++)
+            {
+                if (block.t (i) >= from)
+                {
+                    rollup_point (bucket, block.t (i), block.v (i), step, out);
+                    last_timestamp = block.t (i);
+                }
+            }
+        }
+
+        return (last_timestamp);
+    }
+
+    private void rollup_tier (RollupTier source, long from, long step, TierOutput out)
+        throws IOException
+    {
+        Bucket bucket = new Bucket ();
+        int first = source.ffirst (from);
+
+        for (int i = (first == -1? source.size (): first); i < source.size (); i++)
+        {
+            long start = bucket_of (source.t (i), step);
+
+            if (bucket.used && bucket.start != start)
+            {
+                bucket.emit (out);
+            }
+
+            if (!bucket.used)
+            {
+                bucket.reset (start);
+            }
+
+            long count = source.count (i);
+
+            if (count > 0)
+            {
+                bucket.add (source.min (i), source.max (i), source.avg (i) * count, count);
+            }
+        }
+
+        if (bucket.used)
+        {
+            bucket.emit (out);
+        }
+    }
+
+    private static class Bucket
+    {
+        boolean used = false;
+        long start;
+        double min;
+        double max;
+        double sum;
+        long count;
+
+        void reset (long start)
+        {
+            this.used = true;
+            this.start = start;
+            this.min = Double.NaN;
+            this.max = Double.NaN;
+            this.sum = 0;
+            this.count = 0;
+        }
+
+        void add (double min, double max, double sum, long count)
+        {
+            if (this.count == 0)
+            {
+                this.min = min;
+                this.max = max;
+            }
+            else
+            {
+                this.min = Math.min (this.min, min);
+                this.max = Math.max (this.max, max);
+            }
+
+            this.sum += sum;
+            this.count += count;
+        }
+
+        void emit (TierOutput out)
+            throws IOException
+        {
+            out.write (start, min, max, count > 0? sum / count: Double.NaN, count);
+            used = false;
+        }
+    }
+
+    private static class TierOutput implements AutoCloseable
+    {
+        private OutputStream out;
+        private ByteBuffer record;
+
+        TierOutput (File file)
+            throws IOException
+        {
+            out = new BufferedOutputStream (new FileOutputStream (file), 64 * 1024);
+            record = ByteBuffer.allocate (RollupTier.RECORD_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void copy (File file, long length)
+            throws IOException
+        {
+            byte[] buffer = new byte [64 * 1024];
+
+            try (InputStream in = new FileInputStream (file))
+            {
+                while (length > 0)
+                {
+                    int n = in.read (buffer, 0, (int)Math.min (buffer.length, length));
+
+                    if (n < 0)
+                    {
+                        throw new IOException ("Unexpected end of rollup tier: " + file);
+                    }
+
+                    out.write (buffer, 0, n);
+                    length -= n;
+                }
+            }
+        }
+
+        void write (long tstamp, double min, double max, double avg, long count)
+            throws IOException
+        {
+            record.clear ();
+            record.putLong (tstamp).putDouble (min).putDouble (max).putDouble (avg).putLong (count);
+            out.write (record.array (), 0, RollupTier.RECORD_SIZE);
+        }
+
+        @Override
+        public void close ()
+            throws IOException
+        {
+            out.close ();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/* One precomputed resolution level of a timeseries, built by RollupBuilder.
+ * Each 40-byte little-endian record holds a bucket start timestamp and the
+ * min/max/avg/count of the raw values inside the bucket. Like
+ * MappedTimeSeries, tiers are mapped read-only and only the pages covering
+ * the requested range are ever touched.
+ */
+public class RollupTier implements TimeIndex.Sorted
+{
+    public final static int RECORD_SIZE = 40;
+
+    private final static int OFFSET_MIN = 8;
+    private final static int OFFSET_MAX = 16;
+    private final static int OFFSET_AVG = 24;
+    private final static int OFFSET_COUNT = 32;
+
+    private ByteBuffer records = null;
+    private int capacity = 0;
+    private long step;
+
+    public RollupTier (long step)
+    {
+        this.step = step;
+    }
+
+    private RollupTier (long step, ByteBuffer records, int capacity)
+    {
+        this.step = step;
+        this.records = records;
+        this.capacity = capacity;
+    }
+
+    public static RollupTier fromTimeSeries (TimeSeries ts)
+    {
+        // Raw points as one-point buckets, for ranges no tier covers
+        ByteBuffer buckets = ByteBuffer.allocate (ts.size () * RECORD_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+
+        for (int i = 0; i < ts.size (); i++)
+        {
+            double value = ts.v (i);
+            boolean valid = !Double.isNaN (value);
+
+            buckets.putLong (ts.t (i));
+            buckets.putDouble (value).putDouble (value).putDouble (value);
+            buckets.putLong (valid? 1: 0);
+        }
+
+        buckets.flip ();
+        return (new RollupTier (1, buckets, ts.size ()));
+    }
+
+    public int load (File tier_file)
+    {
+        RandomAccessFile raf = null;
+
+        try
+        {
+            raf = new RandomAccessFile (tier_file, "r");
+            FileChannel channel = raf.getChannel ();
+            long record_count = channel.size () / RECORD_SIZE;
+
+            if (record_count * RECORD_SIZE > Integer.MAX_VALUE)
+            {
+                return (-1);
+            }
+
+            ByteBuffer mapped = channel.map (FileChannel.MapMode.READ_ONLY, 0, record_count * RECORD_SIZE);
+            mapped.order (ByteOrder.LITTLE_ENDIAN);
+
+            records = mapped;
+            capacity = (int)record_count;
+        }
+        catch (Exception e)
+        {
+            records = null;
+            capacity = 0;
+            return (-1);
+        }
+        finally
+        {
+            if (raf != null)
+            {
+                try
+                {
+                    raf.close ();
+                }
+                catch (Exception ignore) {};
+            }
+        }
+
+        return (capacity);
+    }
+
+    public long getStep ()
+    {
+        return (step);
+    }
+
+    public int size ()
+    {
+        return (capacity);
+    }
+
+    @Override // TimeIndex.Sorted
+    public long t (int step)
+    {
+        return (records.getLong (step * RECORD_SIZE));
+    }
+
+    public double min (int step)
+    {
+        return (records.getDouble (step * RECORD_SIZE + OFFSET_MIN));
+    }
+
+    public double max (int step)
+    {
+        return (records.getDouble (step * RECORD_SIZE + OFFSET_MAX));
+    }
+
+    public double avg (int step)
+    {
+        return (records.getDouble (step * RECORD_SIZE + OFFSET_AVG));
+    }
+
+    public long count (int step)
+    {
+        return (records.getLong (step * RECORD_SIZE + OFFSET_COUNT));
+    }
+
+    public int ffirst (long tstamp)
+    {
+        return (TimeIndex.ffirst (this, capacity, tstamp));
+    }
+
+    public int flast (long tstamp)
+    {
+        return (TimeIndex.flast (this, capacity, tstamp));
+    }
+
+    public RollupTier cut (long ts_start, long ts_end)
+    {
+        // Buckets are inclusive on both ends, so the bucket containing
+        // ts_start is included even when it starts before it
+        long first_start = (ts_start < Long.MIN_VALUE + step - 1)? Long.MIN_VALUE: ts_start - step + 1;
+        int dp_start = ffirst (first_start);
+        int dp_end = flast (ts_end);
+
+        if (dp_start == -1 || dp_end < dp_start)
+        {
+            return (new RollupTier (step));
+        }
+
+        int num_points = dp_end - dp_start + 1;
+
+        ByteBuffer view = records.duplicate ();
+        view.position (dp_start * RECORD_SIZE);
+        view.limit ((dp_start + num_points) * RECORD_SIZE);
+
+        ByteBuffer slice = view.slice ();
+        slice.order (ByteOrder.LITTLE_ENDIAN);
+
+        return (new RollupTier (step, slice, num_points));
+    }
+
+    private TimeSeries extract (int offset)
+    {
+        long[] timestamps = new long [capacity];
+        double[] values = new double [capacity];
+
+        for (int i = 0; i < capacity; i++)
+        {
+            timestamps [i] = t (i);
+            values [i] = records.getDouble (i * RECORD_SIZE + offset);
+        }
+
+        return (new TimeSeries (timestamps, values));
+    }
+
+    public TimeSeries getMinimums ()
+    {
+        return (extract (OFFSET_MIN));
+    }
+
+    public TimeSeries getMaximums ()
+    {
+        return (extract (OFFSET_MAX));
+    }
+
+    public TimeSeries getAverages ()
+    {
+        return (extract (OFFSET_AVG));
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Reads the segments written by TimeSeriesWriter back as one series.
+ *
+ * The segments of "<series>" are "<series>.<sequence>" files, raw or
+ * compressed, plus the ".part" segment still being filled. They are
+ * listed once, in sequence order, when the series is opened. Only the
+ * committed prefix of the ".part" segment is read: up to the last
+ * force() when a writer in this process owns it, otherwise every whole
+ * record on disk (eg. a writer in another process, or crash leftovers).
+ */
+public class SegmentedSeries
+{
+    private String series_name;
+    private List<File> segments = new ArrayList<> ();
+    private List<Long> sizes = new ArrayList<> ();
+
+    private SegmentedSeries (String series_name)
+    {
+        this.series_name = series_name;
+    }
+
+    public static SegmentedSeries open (File dir, String series_name)
+    {
+        File[] files = dir.listFiles ();
+        Map<Integer, File> by_sequence = new TreeMap<> ();
+
+        if (files == null)
+        {
+            return (null);
+        }
+
+        for (File f : files)
+        {
+            String name = f.getName ();
+
+            if (!f.isFile () || !TimeSeriesWriter.isSegmentOf (series_name, name))
+            {
+                continue;
+            }
+
+            int seq = TimeSeriesWriter.getSequence (name);
+
+            // A sealed segment wins over a .part being replaced by it
+            if (!name.endsWith (TimeSeriesWriter.PART_SUFFIX) || !by_sequence.containsKey (seq))
+            {
+                by_sequence.put (seq, f);
+            }
+        }
+
+        if (by_sequence.isEmpty ())
+        {
+            return (null);
+        }
+
+        SegmentedSeries series = new SegmentedSeries (series_name);
+
+        for (File f : by_sequence.values ())
+        {
+            long size = f.length ();
+
+            if (f.getName ().endsWith (TimeSeriesWriter.PART_SUFFIX))
+            {
+                long committed = TimeSeriesWriter.getCommittedSize (f);
+
+                size = (committed == -1? size: Math.min (committed, size));
+                size -= size % MappedTimeSeries.RECORD_SIZE;
+            }
+
+            series.segments.add (f);
+            series.sizes.add (size);
+        }
+
+        return (series);
+    }
+
+    public String getSeriesName ()
+    {
+        return (series_name);
+    }
+
+    public int getSegmentCount ()
+    {
+        return (segments.size ());
+    }
+
+    public File getSegment (int index)
+    {
+        return (segments.get (index));
+    }
+
+    public long getSegmentSize (int index)
+    {
+        // Bytes readers see, which for the .part segment is the committed prefix
+        return (sizes.get (index));
+    }
+
+    public long getSize ()
+    {
+        long size = 0;
+
+        for (int i = 0; i < segments.size (); i++)
+        {
+            size += getSegmentSize (i);
+        }
+
+        return (size);
+    }
+
+    public long getLastModified ()
+    {
+        long last_modified = 0;
+
+        for (File f : segments)
+        {
+            last_modified = Math.max (last_modified, f.lastModified ());
+        }
+
+        return (last_modified);
+    }
+
+    private File sealed_file (File part_file)
+    {
+        String name = part_file.getName ();
+        return (new File (part_file.getParentFile (),
+            name.substring (0, name.length () - TimeSeriesWriter.PART_SUFFIX.length ())));
+    }
+
+    public MappedTimeSeries mapSegment (int index)
+        throws IOException
+    {
+        // Null for compressed segments, which can't be mapped
+        File segment = segments.get (index);
+        MappedTimeSeries raw = new MappedTimeSeries ();
+
+        if (CompressedArchive.isCompressed (segment))
+        {
+            return (null);
+        }
+
+        if (raw.load (segment, sizes.get (index)) == -1)
+        {
+            if (!segment.getName ().endsWith (TimeSeriesWriter.PART_SUFFIX))
+            {
+                throw new IOException ("Error mapping segment: " + segment);
+            }
+
+            // Sealed since we listed it, the committed prefix is still there
+            File sealed = sealed_file (segment);
+
+            if (CompressedArchive.isCompressed (sealed) || raw.load (sealed, sizes.get (index)) == -1)
+            {
+                return (null);
+            }
+        }
+
+        return (raw);
+    }
+
+    public CompressedArchive openCompressed (int index)
+        throws IOException
+    {
+        File segment = segments.get (index);
+
+        if (segment.getName ().endsWith (TimeSeriesWriter.PART_SUFFIX) && !segment.isFile ())
+        {
+            segment = sealed_file (segment);
+        }
+
+        return (CompressedArchive.open (segment));
+    }
+
+    public TimeSeries read ()
+        throws IOException
+    {
+        return (cut (Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    public TimeSeries cut (long ts_start, long ts_end)
+        throws IOException
+    {
+        List<TimeSeries> parts = new ArrayList<> ();
+        int total = 0;
+
+        for (int i = 0; i < segments.size (); i++)
+        {
+            MappedTimeSeries raw = mapSegment (i);
+            TimeSeries part;
+
+            if (raw != null)
+            {
+                part = raw.cut (ts_start, ts_end).toTimeSeries ();
+            }
+            else if (CompressedArchive.isCompressed (segments.get (i))
+                || !segments.get (i).isFile ())
+            {
+                // Decodes only the blocks overlapping the range
+                part = openCompressed (i).cut (ts_start, ts_end);
+            }
+            else
+            {
+                continue;
+            }
+
+            parts.add (part);
+            total += part.size ();
+        }
+
+        // Segments are in timestamp order, so concatenating keeps it
+        long[] timestamps = new long [total];
+        double[] values = new double [total];
+        int pos = 0;
+
+        for (TimeSeries part : parts)
+        {
+            if (part.size () > 0)
+            {
+                System.arraycopy (part.getTimeStamps (), 0, timestamps, pos, part.size ());
+                System.arraycopy (part.getValues (), 0, values, pos, part.size ());
+                pos += part.size ();
+            }
+        }
+
+        return (new TimeSeries (timestamps, values));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+/* Binary searches over anything kept in timestamp order: mapped records,
+ * rollup buckets or the block index of a compressed archive.
+ */
+class TimeIndex
+{
+    interface Sorted
+    {
+        long t (int index);
+    }
+
+    static Sorted of (final long[] timestamps)
+    {
+        return (new Sorted ()
+        {
+            @Override
+            public long t (int index)
+            {
+                return (timestamps [index]);
+            }
+        });
+    }
+
+    static int ffirst (Sorted series, int size, long tstamp)
+    {
+        // Lowest index with timestamp >= tstamp
+        int low = 0;
+        int high = size;
+
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+
+            if (series.t (mid) < tstamp)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+
+        return (low < size? low: -1);
+    }
+
+    static int flast (Sorted series, int size, long tstamp)
+    {
+        // Highest index with timestamp <= tstamp
+        int low = 0;
+        int high = size;
+
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+
+            if (series.t (mid) <= tstamp)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+
+        return (low - 1);
+    }
+}
@@ -35,6 +35,7 @@ public class TimeSeries
     private void init (int size)
     {
         this.capacity = size;
+        this.valid_minmax = false;
 
         if (size == 0)
         {
@@ -72,7 +73,7 @@ public class TimeSeries
             min_timestamp = Long.MAX_VALUE;
             max_timestamp = Long.MIN_VALUE;
             min_value = Double.MAX_VALUE;
-            max_value = Double.MIN_VALUE;
+            max_value = -Double.MAX_VALUE;
 
             for (int i = 0; i < capacity; i++)
             {
@@ -150,8 +151,74 @@ public class TimeSeries
         return (timestamps [step]);
     }
 
+    private int load_compressed (File archive)
+    {
+        try
+        {
+            CompressedArchive compressed = CompressedArchive.open (archive);
+            TimeSeries decoded = compressed.read ();
+
+            this.timestamps = decoded.timestamps;
+            this.values = decoded.values;
+            this.capacity = decoded.capacity;
+
+            // The block index already knows the ranges
+            min_timestamp = compressed.getMinTimeStamp ();
+            max_timestamp = compressed.getMaxTimeStamp ();
+            min_value = compressed.getMinValue ();
+            max_value = compressed.getMaxValue ();
+            valid_minmax = capacity > 0;
+        }
+        catch (Exception e)
+        {
+            init (0);
+            return (-1);
+        }
+
+        return (capacity);
+    }
+
+    private int load_segments (File archive)
+    {
+        SegmentedSeries segmented = SegmentedSeries.open (archive.getAbsoluteFile ().getParentFile (), archive.getName ());
+
+        if (segmented == null)
+        {
+            init (0);
+            return (-1);
+        }
+
+        try
+        {
+            TimeSeries joined = segmented.read ();
+
+            this.timestamps = joined.timestamps;
+            this.values = joined.values;
+            this.capacity = joined.capacity;
+            this.valid_minmax = false;
+        }
+        catch (Exception e)
+        {
+            init (0);
+            return (-1);
+        }
+
+        return (capacity);
+    }
+
     public int load (File archive)
     {
+        if (!archive.exists ())
+        {
+            // Written by TimeSeriesWriter as "<archive>.<sequence>" segments
+            return (load_segments (archive));
+        }
+
+        if (CompressedArchive.isCompressed (archive))
+        {
+            return (load_compressed (archive));
+        }
+
         FileInputStream fin = null;
 
         try
@@ -169,13 +236,29 @@ public class TimeSeries
 
         LittleEndianDataInputStream in = new LittleEndianDataInputStream (fin);
 
+        // Every record is visited anyway, so min/max come for free
+        min_timestamp = Long.MAX_VALUE;
+        max_timestamp = Long.MIN_VALUE;
+        min_value = Double.MAX_VALUE;
+        max_value = -Double.MAX_VALUE;
+
         try
         {
             for (int i = 0; i < record_count; i++)
             {
-                timestamps[i] = in.readLong();
-                values[i] = in.readDouble();
+                long t = in.readLong();
+                double v = in.readDouble();
+
+                timestamps[i] = t;
+                values[i] = v;
+
+                if (t < min_timestamp) min_timestamp = t;
+                if (t > max_timestamp) max_timestamp = t;
+                if (v < min_value) min_value = v;
+                if (v > max_value) max_value = v;
             }
+
+            valid_minmax = true;
         }
         catch (Exception e)
         {
@@ -214,6 +297,8 @@ public class TimeSeries
 
     public TimeSeries cut (long ts_start, long ts_end)
     {
+        // Points with ts_start <= t <= ts_end. This used to leave out the last point
+        // and return null for a single one; now it is never null, only empty
         TimeSeries new_ts = new TimeSeries ();
 
         int dp_start = ffirst (ts_start);
@@ -230,12 +315,13 @@ public class TimeSeries
             return (new TimeSeries ());
         }
 
-        int num_points = dp_end - dp_start;
+        // Both ends are inclusive, a range holding a single point yields that point
+        int num_points = dp_end - dp_start + 1;
 
         if (num_points < 1)
         {
-            // Throw exception?
-            return (null);
+            // The range falls between two points
+            return (new TimeSeries ());
         }
 
         new_ts.init (num_points);
@@ -276,6 +362,71 @@ public class TimeSeries
         return (new_ts);
     }
 
+    private TimeSeries with_values (double[] new_values)
+    {
+        return (new TimeSeries (capacity > 0? timestamps.clone (): new long [0], new_values));
+    }
+
+    public TimeSeries rollingMean (int window)
+    {
+        double[] out = new double [capacity];
+        TimeSeriesOps.rollingMean (values, capacity, window, out);
+        return (with_values (out));
+    }
+
+    public TimeSeries rollingStdDev (int window)
+    {
+        double[] out = new double [capacity];
+        TimeSeriesOps.rollingStdDev (values, capacity, window, out);
+        return (with_values (out));
+    }
+
+    public TimeSeries rate (long unit)
+    {
+        double[] out = new double [capacity];
+        TimeSeriesOps.rate (timestamps, values, capacity, unit, out);
+        return (with_values (out));
+    }
+
+    public TimeSeries resample (long step)
+    {
+        TimeSeries new_ts = new TimeSeries (TimeSeriesOps.resampleSize (timestamps, capacity, step));
+        TimeSeriesOps.resample (timestamps, values, capacity, step, new_ts.timestamps, new_ts.values);
+        return (new_ts);
+    }
+
+    public double percentile (double p)
+    {
+        return (TimeSeriesOps.percentile (values, capacity, p, new double [capacity]));
+    }
+
+    private TimeSeries[] join (TimeSeries other, boolean outer)
+    {
+        int size = TimeSeriesOps.joinSize (timestamps, capacity, other.timestamps, other.capacity, outer);
+        TimeSeries left = new TimeSeries (size);
+        TimeSeries right = new TimeSeries (size);
+
+        TimeSeriesOps.join (timestamps, values, capacity, other.timestamps, other.values, other.capacity,
+            outer, left.timestamps, left.values, right.values);
+
+        if (size > 0)
+        {
+            System.arraycopy (left.timestamps, 0, right.timestamps, 0, size);
+        }
+
+        return (new TimeSeries[] { left, right });
+    }
+
+    public TimeSeries[] innerJoin (TimeSeries other)
+    {
+        return (join (other, false));
+    }
+
+    public TimeSeries[] outerJoin (TimeSeries other)
+    {
+        return (join (other, true));
+    }
+
     public int load (String filename)
     {
         return (load (new File (filename)));
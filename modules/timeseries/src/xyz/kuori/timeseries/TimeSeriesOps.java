@@ -0,0 +1,326 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+/* Analytics kernels working straight on the primitive arrays.
+ *
+ * All kernels write into caller supplied arrays and never allocate, so
+ * they can be chained over big series without GC churn. The loops are
+ * kept flat and branch-light (sequential access, no boxing, no virtual
+ * calls) so the JIT can unroll and vectorise them. The TimeSeries
+ * methods with the same names are the convenient, allocating wrappers.
+ */
+public final class TimeSeriesOps
+{
+    private TimeSeriesOps ()
+    {
+        // Static kernels only
+    }
+
+    public static void rollingMean (double[] in, int length, int window, double[] out)
+    {
+        if (window < 1)
+        {
+            throw new IllegalArgumentException ("Invalid window: " + window);
+        }
+
+        double sum = 0;
+        int warmup = Math.min (window, length);
+
+        // Partial windows while the first full window fills up
+        for (int i = 0; i < warmup; i++)
+        {
+            sum += in [i];
+            out [i] = sum / (i + 1);
+        }
+
+        for (int i = warmup; i < length; i++)
+        {
+            sum += in [i] - in [i - window];
+            out [i] = sum / window;
+        }
+    }
+
+    public static void rollingStdDev (double[] in, int length, int window, double[] out)
+    {
+        if (window < 1)
+        {
+            throw new IllegalArgumentException ("Invalid window: " + window);
+        }
+
+        // Sliding Welford: numerically stable even for large offsets
+        double mean = 0;
+        double m2 = 0;
+        int warmup = Math.min (window, length);
+
+        for (int i = 0; i < warmup; i++)
+        {
+            double delta = in [i] - mean;
+            mean += delta / (i + 1);
+            m2 += delta * (in [i] - mean);
+            out [i] = i > 0? Math.sqrt (m2 / i): 0;
+        }
+
+        double denominator = window > 1? window - 1: 1;
+
+        for (int i = warmup; i < length; i++)
+        {
+            double x_in = in [i];
+            double x_out = in [i - window];
+            double new_mean = mean + (x_in - x_out) / window;
+
+            m2 += (x_in - x_out) * (x_in - new_mean + x_out - mean);
+            mean = new_mean;
+            out [i] = Math.sqrt (Math.max (m2, 0) / denominator);
+        }
+    }
+
+    public static void rate (long[] t, double[] v, int length, long unit, double[] out)
+    {
+        if (length > 0)
+        {
+            out [0] = Double.NaN;
+        }
+
+        for (int i = 1; i < length; i++)
+        {
+            long dt = t [i] - t [i - 1];
+            out [i] = dt != 0? (v [i] - v [i - 1]) * unit / dt: Double.NaN;
+        }
+    }
+
+    public static int resampleSize (long[] t, int length, long step)
+    {
+        if (length == 0)
+        {
+            return (0);
+        }
+
+        long first = Math.floorDiv (t [0] + step - 1, step) * step;
+        long last = Math.floorDiv (t [length - 1], step) * step;
+        return (last < first? 0: (int)((last - first) / step + 1));
+    }
+
+    public static int resample (long[] t, double[] v, int length, long step, long[] out_t, double[] out_v)
+    {
+        // Linear interpolation over the step-aligned grid inside [t0, tn]
+        int count = resampleSize (t, length, step);
+
+        if (count == 0)
+        {
+            return (0);
+        }
+
+        long grid = Math.floorDiv (t [0] + step - 1, step) * step;
+        int src = 0;
+
+        for (int i = 0; i < count; i++, grid += step)
+        {
+            while (src < length - 1 && t [src + 1] <= grid)
+            {
+                src++;
+            }
+
+            out_t [i] = grid;
+
+            if (t [src] == grid || src == length - 1)
+            {
+                out_v [i] = v [src];
+            }
+            else
+            {
+                double fraction = (double)(grid - t [src]) / (t [src + 1] - t [src]);
+                out_v [i] = v [src] + (v [src + 1] - v [src]) * fraction;
+            }
+        }
+
+        return (count);
+    }
+
+    public static double percentile (double[] in, int length, double p, double[] scratch)
+    {
+        if (length == 0)
+        {
+            return (Double.NaN);
+        }
+
+        if (p < 0 || p > 100)
+        {
+            throw new IllegalArgumentException ("Invalid percentile: " + p);
+        }
+
+        System.arraycopy (in, 0, scratch, 0, length);
+
+        // Nearest-rank with linear interpolation between closest ranks
+        double rank = p / 100 * (length - 1);
+        int lower = (int)rank;
+        double low_value = select (scratch, length, lower);
+
+        if (lower == length - 1 || rank == lower)
+        {
+            return (low_value);
+        }
+
+        // After select() everything above 'lower' is >= low_value
+        double high_value = Double.POSITIVE_INFINITY;
+
+        for (int i = lower + 1; i < length; i++)
+        {
+            if (scratch [i] < high_value)
+            {
+                high_value = scratch [i];
+            }
+        }
+
+        return (low_value + (high_value - low_value) * (rank - lower));
+    }
+
+    private static double select (double[] a, int length, int k)
+    {
+        // Iterative quickselect (median of three), in place
+        int left = 0;
+        int right = length - 1;
+
+        while (right > left)
+        {
+            int mid = (left + right) >>> 1;
+
+            if (a [mid] < a [left]) swap (a, mid, left);
+            if (a [right] < a [left]) swap (a, right, left);
+            if (a [right] < a [mid]) swap (a, right, mid);
+
+            double pivot = a [mid];
+            int i = left;
+            int j = right;
+
+            while (i <= j)
+            {
+                while (a [i] < pivot) i++;
+                while (a [j] > pivot) j--;
+
+                if (i <= j)
+                {
+                    swap (a, i++, j--);
+                }
+            }
+
+            if (k <= j)
+            {
+                right = j;
+            }
+            else if (k >= i)
+            {
+                left = i;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        return (a [k]);
+    }
+
+    private static void swap (double[] a, int i, int j)
+    {
+        double tmp = a [i];
+        a [i] = a [j];
+        a [j] = tmp;
+    }
+
+    public static int joinSize (long[] ta, int length_a, long[] tb, int length_b, boolean outer)
+    {
+        int i = 0, j = 0, count = 0;
+
+        while (i < length_a && j < length_b)
+        {
+            if (ta [i] == tb [j])
+            {
+                i++; j++; count++;
+            }
+            else if (ta [i] < tb [j])
+            {
+                i++;
+                if (outer) count++;
+            }
+            else
+            {
+                j++;
+                if (outer) count++;
+            }
+        }
+
+        if (outer)
+        {
+            count += (length_a - i) + (length_b - j);
+        }
+
+        return (count);
+    }
+
+    public static int join (long[] ta, double[] va, int length_a,
+                            long[] tb, double[] vb, int length_b,
+                            boolean outer, long[] out_t, double[] out_a, double[] out_b)
+    {
+        // Two-pointer merge; on outer joins the missing side is NaN
+        int i = 0, j = 0, count = 0;
+
+        while (i < length_a || j < length_b)
+        {
+            if (i < length_a && j < length_b && ta [i] == tb [j])
+            {
+                out_t [count] = ta [i];
+                out_a [count] = va [i++];
+                out_b [count++] = vb [j++];
+            }
+            else if (j >= length_b || (i < length_a && ta [i] < tb [j]))
+            {
+                if (!outer && j >= length_b)
+                {
+                    break;
+                }
+
+                if (outer)
+                {
+                    out_t [count] = ta [i];
+                    out_a [count] = va [i];
+                    out_b [count++] = Double.NaN;
+                }
+
+                i++;
+            }
+            else
+            {
+                if (!outer && i >= length_a)
+                {
+                    break;
+                }
+
+                if (outer)
+                {
+                    out_t [count] = tb [j];
+                    out_a [count] = Double.NaN;
+                    out_b [count++] = vb [j];
+                }
+
+                j++;
+            }
+        }
+
+        return (count);
+    }
+}
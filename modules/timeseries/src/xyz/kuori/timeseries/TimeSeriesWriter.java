@@ -0,0 +1,535 @@
+/*
+ * Copyright 2016 NEOautus Ltd. (http://neoautus.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package xyz.kuori.timeseries;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Append-only writer for timeseries archives.
+ *
+ * Records use the same 16-byte little-endian (timestamp, value) layout
+ * read by TimeSeries.load(). Data is written into segments named
+ * "<series>.<sequence>"; the segment being filled carries the ".part"
+ * suffix and is renamed atomically once it reaches the size threshold
+ * or the writer is closed. SegmentedSeries reads all segments back as
+ * one series, including the prefix of the ".part" segment that was
+ * already forced to disk, as published by getCommittedSize().
+ *
+ * Appends are batched in memory and group-committed with a single
+ * write + FileChannel.force() per batch. After a crash, the leftover
+ * ".part" segment is trimmed to whole records and published on the
+ * next open, so at most the uncommitted batch is lost.
+ *
+ * With setCompression(true), sealed segments are stored in the
+ * CompressedArchive format, which readers detect transparently.
+ */
+public class TimeSeriesWriter
+{
+    public final static String PART_SUFFIX = ".part";
+    public final static long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public final static int DEFAULT_BATCH_RECORDS = 4096;
+
+    private final static int RECORD_SIZE = MappedTimeSeries.RECORD_SIZE;
+    private final static int SEQUENCE_DIGITS = 8;
+
+    // Forced bytes of every .part segment open in this process
+    private static Map<File, Long> committed_sizes = new ConcurrentHashMap<> ();
+
+    private File storage_dir;
+    private String series_name;
+    private long segment_size = DEFAULT_SEGMENT_SIZE;
+    private int batch_records = DEFAULT_BATCH_RECORDS;
+
+    private ByteBuffer batch;
+    private int sequence;
+    private File active_file;
+    private FileChannel active_channel;
+    private long active_size;
+    private long last_timestamp = Long.MIN_VALUE;
+    private boolean compression = false;
+    private boolean closed = false;
+
+    public TimeSeriesWriter (File storage_dir, String series_name)
+        throws IOException
+    {
+        this.storage_dir = storage_dir;
+        this.series_name = series_name;
+
+        if (!storage_dir.isDirectory () && !storage_dir.mkdirs ())
+        {
+            throw new IOException ("Unable to create storage directory: " + storage_dir);
+        }
+
+        allocate_batch ();
+        recover_segments ();
+        open_segment ();
+    }
+
+    public TimeSeriesWriter (Archive archive, String series_name)
+        throws IOException
+    {
+        this (new File (archive.getStoragePath ()), series_name);
+    }
+
+    public static boolean isSegmentOf (String series_name, String file_name)
+    {
+        String prefix = series_name + ".";
+
+        if (!file_name.startsWith (prefix))
+        {
+            return (false);
+        }
+
+        String sequence = file_name.substring (prefix.length ());
+
+        if (sequence.endsWith (PART_SUFFIX))
+        {
+            sequence = sequence.substring (0, sequence.length () - PART_SUFFIX.length ());
+        }
+
+        if (sequence.length () != SEQUENCE_DIGITS)
+        {
+            return (false);
+        }
+
+        for (int i = 0; i < sequence.length (); i++)
+        {
+            if (!Character.isDigit (sequence.charAt (i)))
+            {
+                return (false);
+            }
+        }
+
+        return (true);
+    }
+
+    public static String getSeriesName (String file_name)
+    {
+        // "<series>.<sequence>[.part]" => "<series>", anything else => null
+        String sequence = file_name.endsWith (PART_SUFFIX)?
+            file_name.substring (0, file_name.length () - PART_SUFFIX.length ()): file_name;
+        int dot = sequence.length () - SEQUENCE_DIGITS - 1;
+
+        if (dot < 1 || sequence.charAt (dot) != '.')
+        {
+            return (null);
+        }
+
+        String series_name = sequence.substring (0, dot);
+        return (isSegmentOf (series_name, file_name)? series_name: null);
+    }
+
+    public static int getSequence (String file_name)
+    {
+        String series_name = getSeriesName (file_name);
+
+        if (series_name == null)
+        {
+            return (-1);
+        }
+
+        int start = series_name.length () + 1;
+        return (Integer.parseInt (file_name.substring (start, start + SEQUENCE_DIGITS)));
+    }
+
+    public static long getCommittedSize (File part_file)
+    {
+        // -1 when no writer in this process owns the segment
+        Long size = committed_sizes.get (part_file.getAbsoluteFile ());
+        return (size == null? -1: size);
+    }
+
+    private String segment_name (int seq)
+    {
+        return (String.format ("%s.%0" + SEQUENCE_DIGITS + "d", series_name, seq));
+    }
+
+    private void allocate_batch ()
+    {
+        batch = ByteBuffer.allocateDirect (batch_records * RECORD_SIZE);
+        batch.order (ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void recover_segments ()
+        throws IOException
+    {
+        File[] files = storage_dir.listFiles ();
+        int last_sequence = 0;
+        File last_segment = null;
+
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                String name = f.getName ();
+
+                if (!f.isFile () || !isSegmentOf (series_name, name))
+                {
+                    continue;
+                }
+
+                if (name.endsWith (PART_SUFFIX))
+                {
+                    // Leftover from a crash: drop any torn record and publish it
+                    if ((f = publish_segment (f)) == null)
+                    {
+                        continue;
+                    }
+                }
+
+                int seq = getSequence (name);
+
+                if (seq >= last_sequence)
+                {
+                    last_sequence = seq;
+                    last_segment = f;
+                }
+            }
+        }
+
+        sequence = last_sequence;
+
+        if (last_segment != null)
+        {
+            last_timestamp = read_last_timestamp (last_segment);
+        }
+    }
+
+    private long read_last_timestamp (File segment)
+        throws IOException
+    {
+        if (CompressedArchive.isCompressed (segment))
+        {
+            return (CompressedArchive.open (segment).getMaxTimeStamp ());
+        }
+
+        try (FileChannel channel = FileChannel.open (segment.toPath (), StandardOpenOption.READ))
+        {
+            long records = channel.size () / RECORD_SIZE;
+
+            if (records == 0)
+            {
+                return (Long.MIN_VALUE);
+            }
+
+            ByteBuffer record = ByteBuffer.allocate (RECORD_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+
+            while (record.hasRemaining ())
+            {
+                if (channel.read (record, (records - 1) * RECORD_SIZE + record.position ()) < 0)
+                {
+                    break;
+                }
+            }
+
+            return (record.getLong (0));
+        }
+    }
+
+    private File publish_segment (File part_file)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open (part_file.toPath (), StandardOpenOption.WRITE))
+        {
+            long size = channel.size ();
+            long whole = size - (size % RECORD_SIZE);
+
+            if (whole != size)
+            {
+                channel.truncate (whole);
+            }
+
+            channel.force (true);
+        }
+
+        String name = part_file.getName ();
+        File sealed = new File (part_file.getParentFile (),
+            name.substring (0, name.length () - PART_SUFFIX.length ()));
+
+        if (part_file.length () == 0)
+        {
+            // Nothing was ever committed here
+            Files.delete (part_file.toPath ());
+            return (null);
+        }
+
+        if (compression)
+        {
+            // If we crash before the .part is gone, it's simply compressed again
+            File tmp_file = new File (part_file.getParentFile (), "." + sealed.getName () + ".tmp");
+            CompressedArchive.compress (part_file, tmp_file);
+            Files.move (tmp_file.toPath (), sealed.toPath (),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete (part_file.toPath ());
+            return (sealed);
+        }
+
+        Files.move (part_file.toPath (), sealed.toPath (), StandardCopyOption.ATOMIC_MOVE);
+        return (sealed);
+    }
+
+    private void open_segment ()
+        throws IOException
+    {
+        sequence++;
+        active_file = new File (storage_dir, segment_name (sequence) + PART_SUFFIX);
+        active_channel = FileChannel.open (active_file.toPath (),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        active_size = 0;
+        committed_sizes.put (active_file.getAbsoluteFile (), 0L);
+    }
+
+    private void seal_segment ()
+        throws IOException
+    {
+        if (active_channel == null)
+        {
+            // Already sealed by an attempt that failed later on
+            return;
+        }
+
+        active_channel.force (true);
+        active_channel.close ();
+        active_channel = null;
+        committed_sizes.remove (active_file.getAbsoluteFile ());
+
+        if (active_size == 0)
+        {
+            Files.delete (active_file.toPath ());
+            sequence--;
+        }
+        else
+        {
+            publish_segment (active_file);
+        }
+    }
+
+    private void check_open ()
+        throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException ("TimeSeriesWriter closed: " + series_name);
+        }
+    }
+
+    public synchronized void setSegmentSize (long segment_size)
+    {
+        // Always at least one whole record per segment
+        this.segment_size = Math.max (RECORD_SIZE, segment_size - (segment_size % RECORD_SIZE));
+    }
+
+    public synchronized long getSegmentSize ()
+    {
+        return (segment_size);
+    }
+
+    public synchronized void setBatchSize (int batch_records)
+        throws IOException
+    {
+        commit ();
+        this.batch_records = Math.max (1, batch_records);
+        allocate_batch ();
+    }
+
+    public synchronized int getBatchSize ()
+    {
+        return (batch_records);
+    }
+
+    public synchronized void setCompression (boolean compression)
+    {
+        // Applies to segments sealed from now on
+        this.compression = compression;
+    }
+
+    public synchronized boolean getCompression ()
+    {
+        return (compression);
+    }
+
+    public String getSeriesName ()
+    {
+        return (series_name);
+    }
+
+    public synchronized void append (long timestamp, double value)
+        throws IOException
+    {
+        check_open ();
+
+        if (timestamp < last_timestamp)
+        {
+            throw new IllegalArgumentException ("Out of order timestamp " + timestamp +
+                " (last was " + last_timestamp + ")");
+        }
+
+        if (!batch.hasRemaining ())
+        {
+            commit ();
+        }
+
+        batch.putLong (timestamp);
+        batch.putDouble (value);
+        last_timestamp = timestamp;
+    }
+
+    public synchronized void append (long[] timestamps, double[] values, int offset, int length)
+        throws IOException
+    {
+        for (int i = offset; i < offset + length; i++)
+        {
+            append (timestamps [i], values [i]);
+        }
+    }
+
+    public synchronized void append (TimeSeries ts)
+        throws IOException
+    {
+        append (ts.getTimeStamps (), ts.getValues (), 0, ts.size ());
+    }
+
+    public synchronized void commit ()
+        throws IOException
+    {
+        check_open ();
+        batch.flip ();
+
+        int batch_limit = batch.limit ();
+        int pending = 0;
+
+        try
+        {
+            while (batch.hasRemaining ())
+            {
+                pending = batch.position ();
+                long room = segment_size - active_size;
+
+                if (active_channel == null)
+                {
+                    // A previous seal failed after closing the channel
+                    open_segment ();
+                    room = segment_size;
+                }
+                else if (room < RECORD_SIZE)
+                {
+                    seal_segment ();
+                    open_segment ();
+                    room = segment_size;
+                }
+
+                // Write only whole records that fit in the active segment
+                int chunk = (int)Math.min (batch.remaining (), room - (room % RECORD_SIZE));
+                batch.limit (pending + chunk);
+
+                while (batch.hasRemaining ())
+                {
+                    active_size += active_channel.write (batch);
+                }
+
+                batch.limit (batch_limit);
+
+                // Group commit: one force() for the whole chunk
+                active_channel.force (false);
+                committed_sizes.put (active_file.getAbsoluteFile (), active_size);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // Keep every record not yet committed for a retry, and drop what was half written
+            batch.limit (batch_limit);
+            batch.position (pending);
+            batch.compact ();
+            rollback_segment ();
+            throw e;
+        }
+
+        batch.clear ();
+    }
+
+    private void rollback_segment ()
+    {
+        if (active_channel == null)
+        {
+            return;
+        }
+
+        Long committed = committed_sizes.get (active_file.getAbsoluteFile ());
+        active_size = (committed == null)? 0: committed;
+
+        try
+        {
+            // The file ends where committed_sizes says, and the retry writes from there
+            active_channel.truncate (active_size);
+            active_channel.position (active_size);
+        }
+        catch (Throwable ignore) {};
+    }
+
+    public synchronized void rotate ()
+        throws IOException
+    {
+        commit ();
+
+        if (active_size > 0)
+        {
+            seal_segment ();
+            open_segment ();
+        }
+    }
+
+    public synchronized void close ()
+        throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        try
+        {
+            commit ();
+            seal_segment ();
+        }
+        finally
+        {
+            closed = true;
+
+            if (active_channel != null)
+            {
+                // Not sealed: keep the committed prefix for recovery on the next open
+                committed_sizes.remove (active_file.getAbsoluteFile ());
+
+                try
+                {
+                    active_channel.close ();
+                }
+                catch (Throwable ignore) {};
+
+                active_channel = null;
+            }
+        }
+    }
+}
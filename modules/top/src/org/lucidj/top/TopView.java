@@ -17,7 +17,8 @@
 package org.lucidj.top;
 
 import org.lucidj.api.stddef.Aggregate;
-import org.lucidj.api.core.CodeEngineManager;
+import org.lucidj.api.core.CodeEngine;
+import org.lucidj.api.core.CodeEngineMonitor;
 import org.lucidj.api.core.DesktopUI;
 import org.lucidj.api.core.ServiceContext;
 import org.lucidj.api.core.ServiceLocator;
@@ -28,31 +29,37 @@ import org.slf4j.LoggerFactory;
 
 import com.vaadin.data.Item;
 import com.vaadin.data.util.IndexedContainer;
+import com.vaadin.event.SelectionEvent;
 import com.vaadin.navigator.View;
 import com.vaadin.navigator.ViewChangeListener;
 import com.vaadin.ui.*;
 
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.FrameworkUtil;
 
 public class TopView extends VerticalLayout implements View
 {
     private final static Logger log = LoggerFactory.getLogger (TopView.class);
 
+    private final static int UPDATE_INTERVAL_MS = 2000;
+    private final static long NANOS_PER_MS = 1000000L;
+
     private IndexedContainer container;
     private Grid grid;
-    private Timer update_timer = new Timer ();
+    private Button kill_button;
+    private Timer update_timer = null;
     private TimerTask update_task = null;
 
+    private ServiceLocator locator;
+    private CodeEngineMonitor monitor;
+
     @ServiceObject.Context
     private ServiceContext injected_ctx;
 
@@ -69,103 +76,222 @@ public class TopView extends VerticalLayout implements View
 //        this.ctx = ctx;
     }
 
+    private List<CodeEngineMonitor.Execution> get_executions ()
+    {
+        if (monitor == null)
+        {
+            try
+            {
+                // Kept open while the view lives, closed on detach
+                locator = ctx.newServiceLocator ();
+                monitor = locator.getService (CodeEngineMonitor.class);
+            }
+            catch (ServiceObjectException e)
+            {
+                log.warn ("CodeEngineMonitor not available");
+                return (Collections.EMPTY_LIST);
+            }
+        }
+        return (monitor.getExecutions ());
+    }
+
+    private void release_monitor ()
+    {
+        if (locator != null)
+        {
+            locator.close ();
+            locator = null;
+        }
+        monitor = null;
+    }
+
+    private static String state_of (CodeEngine.Task task)
+    {
+        if (task.isQueued ())
+        {
+            return ("queued");
+        }
+        return (task.isRunning ()? "running": "done");
+    }
+
+    private static Long to_ms (long nanos)
+    {
+        // Unknown values stay blank instead of showing a bogus number
+        return ((nanos < 0)? null: nanos / NANOS_PER_MS);
+    }
+
+    private static Long to_kb (long bytes)
+    {
+        return ((bytes < 0)? null: bytes / 1024);
+    }
+
     private void updateView ()
     {
-//        Set<String> valid_ctxids = new HashSet<> ();
-//        TaskContext[] ctx_list = new TaskContext [0];//Kernel.taskManager ().getTaskContexts ();
-//
-//        for (TaskContext sc: ctx_list)
-//        {
-//            String ctx_id = sc.toString (); // ...getContextId ();
-//            Item item = container.getItem (ctx_id);
-//
-//            valid_ctxids.add (ctx_id);
-//
-//            if (item == null)
-//            {
-//                item = container.addItem (ctx_id);
-//            }
-//
-//            item.getItemProperty ("context_id").setValue (ctx_id);
-//            item.getItemProperty ("components").setValue (sc /*.getQuarkContext ()*/.toString ());
-//        }
-//
-//        for (int i = 0; i < container.size (); i++)
-//        {
-//            String item_id = (String)container.getIdByIndex (i);
-//
-//            if (!valid_ctxids.contains (item_id))
-//            {
-//                container.removeItem (item_id);
-//            }
-//        }
+        Set<Long> valid_ids = new HashSet<> ();
+
+        for (CodeEngineMonitor.Execution exec: get_executions ())
+        {
+            Long exec_id = exec.getId ();
+            Item item = container.getItem (exec_id);
+
+            valid_ids.add (exec_id);
+
+            if (item == null)
+            {
+                item = container.addItem (exec_id);
+                item.getItemProperty ("owner").setValue (exec.getOwner ());
+                item.getItemProperty ("engine").setValue (exec.getEngineName ());
+                item.getItemProperty ("code").setValue (exec.getSummary ());
+            }
+
+            item.getItemProperty ("state").setValue (state_of (exec.getTask ()));
+            item.getItemProperty ("queued_ms").setValue (to_ms (exec.getQueueWaitTime ()));
+            item.getItemProperty ("wall_ms").setValue (to_ms (exec.getWallTime ()));
+            item.getItemProperty ("cpu_ms").setValue (to_ms (exec.getCpuTime ()));
+            item.getItemProperty ("allocated_kb").setValue (to_kb (exec.getAllocatedBytes ()));
+            item.getItemProperty ("stdout").setValue (exec.getStdoutChars ());
+            item.getItemProperty ("stderr").setValue (exec.getStderrChars ());
+        }
+
+        for (Object item_id: container.getItemIds ().toArray ())
+        {
+            if (!valid_ids.contains (item_id))
+            {
+                container.removeItem (item_id);
+            }
+        }
+
+        update_kill_button ();
     }
 
-    private void setup_timer (int delay_ms)
+    private CodeEngineMonitor.Execution get_selected ()
     {
-        if (update_task != null)
+        Object selected_id = grid.getSelectedRow ();
+
+        if (selected_id != null && monitor != null)
         {
-            update_task.cancel ();
+            for (CodeEngineMonitor.Execution exec: monitor.getExecutions ())
+            {
+                if (selected_id.equals (exec.getId ()))
+                {
+                    return (exec);
+                }
+            }
         }
+        return (null);
+    }
+
+    private void update_kill_button ()
+    {
+        CodeEngineMonitor.Execution exec = get_selected ();
+        kill_button.setEnabled (exec != null && !exec.getTask ().isDone ());
+    }
 
+    private void kill_selected ()
+    {
+        CodeEngineMonitor.Execution exec = get_selected ();
+
+        if (exec != null)
+        {
+            log.info ("Killing execution {} owner={} engine={}", exec.getId (), exec.getOwner (), exec.getEngineName ());
+            exec.getTask ().cancel ();
+            updateView ();
+        }
+    }
+
+    private void setup_timer (int delay_ms)
+    {
+        stop_timer ();
+
+        update_timer = new Timer ("TopView-Update", true);
         update_task = new TimerTask ()
         {
             @Override
             public void run ()
             {
-                updateView ();
+                UI ui = getUI ();
+
+                // Timer threads must hold the session lock to touch the grid
+                if (ui != null)
+                {
+                    ui.access (new Runnable ()
+                    {
+                        @Override
+                        public void run ()
+                        {
+                            updateView ();
+                        }
+                    });
+                }
             }
         };
 
-        // TODO: MAKE IT REARM
         update_timer.scheduleAtFixedRate (update_task, delay_ms, delay_ms);
-        //update_timer.schedule (update_task, delay_ms);
 
         log.info ("Top started");
     }
 
-    Set<String> testEngines ()
+    private void stop_timer ()
     {
-        log.info ("### CONTEXT injected_ctx={} ctx={}", injected_ctx, ctx);
-        try (ServiceLocator locator = ctx.newServiceLocator ())
+        if (update_timer != null)
         {
-            return (locator.getService (CodeEngineManager.class).getEngines ());
-        }
-        catch (ServiceObjectException e)
-        {
-            return (Collections.EMPTY_SET);
+            update_timer.cancel ();
+            update_timer = null;
+            update_task = null;
         }
     }
 
     private void buildView()
     {
         setMargin (true);
-//        setHeight (100, Unit.PERCENTAGE);
-//
-//        // Create a container of some type
-//        container = new IndexedContainer ();
-//
-//        // Initialize the container as required by the container type
-//        container.addContainerProperty("context_id", String.class, "none");
-//        container.addContainerProperty("components", String.class, "none");
-//
-//        grid = new Grid (container);
-//        grid.addStyleName ("top-grid");
-//        grid.setWidth (100, Unit.PERCENTAGE);
-//        grid.setHeight (100, Unit.PERCENTAGE);
-//
-//        updateView ();
-//
-//        //grid.setColumnOrder("name", "born");
-//        addComponent(grid);
-//
-//        setup_timer (3000);
-
-        addComponent (new Label (new Date ().toString ()));
-
-        Object result = testEngines ();
-
-        addComponent (new Label (result == null? "null": result.toString ()));
+        setSpacing (true);
+        setHeight (100, Unit.PERCENTAGE);
+
+        // Create a container of some type
+        container = new IndexedContainer ();
+
+        // Initialize the container as required by the container type
+        container.addContainerProperty ("owner", String.class, "");
+        container.addContainerProperty ("engine", String.class, "");
+        container.addContainerProperty ("state", String.class, "");
+        container.addContainerProperty ("code", String.class, "");
+        container.addContainerProperty ("queued_ms", Long.class, null);
+        container.addContainerProperty ("wall_ms", Long.class, null);
+        container.addContainerProperty ("cpu_ms", Long.class, null);
+        container.addContainerProperty ("allocated_kb", Long.class, null);
+        container.addContainerProperty ("stdout", Long.class, 0L);
+        container.addContainerProperty ("stderr", Long.class, 0L);
+
+        grid = new Grid (container);
+        grid.addStyleName ("top-grid");
+        grid.setWidth (100, Unit.PERCENTAGE);
+        grid.setHeight (100, Unit.PERCENTAGE);
+        grid.setSelectionMode (Grid.SelectionMode.SINGLE);
+        grid.addSelectionListener (new SelectionEvent.SelectionListener ()
+        {
+            @Override
+            public void select (SelectionEvent selectionEvent)
+            {
+                update_kill_button ();
+            }
+        });
+
+        kill_button = new Button ("Kill", new Button.ClickListener ()
+        {
+            @Override
+            public void buttonClick (Button.ClickEvent clickEvent)
+            {
+                kill_selected ();
+            }
+        });
+
+        updateView ();
+
+        addComponent (kill_button);
+        addComponent (grid);
+        setExpandRatio (grid, 1.0f);
+
+        setup_timer (UPDATE_INTERVAL_MS);
 
         DesktopUI dui = Aggregate.adapt (DesktopUI.class, getUI ());
 
@@ -188,6 +314,20 @@ public class TopView extends VerticalLayout implements View
         {
             buildView();
         }
+        else if (update_timer == null)
+        {
+            // Coming back to a view that was detached
+            setup_timer (UPDATE_INTERVAL_MS);
+        }
+    }
+
+    @Override
+    public void detach ()
+    {
+        // No point refreshing a view nobody sees
+        stop_timer ();
+        release_monitor ();
+        super.detach ();
     }
 
     @ServiceObject.Validate
@@ -200,7 +340,8 @@ public class TopView extends VerticalLayout implements View
     @ServiceObject.Invalidate
     public void invalidate ()
     {
-        // Nothing
+        stop_timer ();
+        release_monitor ();
         log.info ("invalidate()");
     }
 }